@@ -0,0 +1,29 @@
+package com.lordgasmic.wineservice.benchmarks;
+
+import org.openjdk.jmh.Main;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs the JMH suites with results written as JSON to {@code jmh-result.json} unless {@code -rf}/{@code -rff} say
+ * otherwise, so every run leaves a file that can be diffed against the previous release's.
+ */
+public final class BenchmarkMain {
+    private BenchmarkMain() {
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final List<String> jmhArgs = new ArrayList<>(Arrays.asList(args));
+        if (!jmhArgs.contains("-rf")) {
+            jmhArgs.add("-rf");
+            jmhArgs.add("json");
+        }
+        if (!jmhArgs.contains("-rff")) {
+            jmhArgs.add("-rff");
+            jmhArgs.add("jmh-result.json");
+        }
+        Main.main(jmhArgs.toArray(new String[0]));
+    }
+}
@@ -0,0 +1,130 @@
+package com.lordgasmic.wineservice.benchmarks;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Closed-loop load against a running service: {@code clients} concurrent clients each request a random wine's detail
+ * page, wait for the response and go again, for {@code seconds}. Prints throughput, latency percentiles and status
+ * counts, then the service's JVM memory and thread gauges scraped from its Prometheus endpoint, so two runs (one per
+ * {@code lordgasmic.server.virtualThreads} setting) can be compared line for line.
+ * <p>
+ * Not a JMH suite, as it measures a deployed service rather than code in this JVM:
+ * <pre>
+ * java -cp benchmarks/target/benchmarks.jar com.lordgasmic.wineservice.benchmarks.DetailLoadTest \
+ *     url=http://localhost:48088 management=http://localhost:48089 clients=1000 seconds=60 wines=500
+ * </pre>
+ */
+public final class DetailLoadTest {
+    private static final long[] PERCENTILES = {50, 95, 99};
+    private static final String[] GAUGES = {"jvm_memory_used_bytes", "jvm_threads_live_threads", "jvm_threads_peak_threads", "hikaricp_connections_pending"};
+
+    private DetailLoadTest() {
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final Map<String, String> options = new HashMap<>(Map.of("url", "http://localhost:48088",
+                                                                 "management", "http://localhost:48089",
+                                                                 "clients", "1000",
+                                                                 "seconds", "60",
+                                                                 "wines", "500"));
+        for (final String arg : args) {
+            final int split = arg.indexOf('=');
+            options.put(arg.substring(0, split), arg.substring(split + 1));
+        }
+        final String url = options.get("url");
+        final int clients = Integer.parseInt(options.get("clients"));
+        final long seconds = Long.parseLong(options.get("seconds"));
+        final int wines = Integer.parseInt(options.get("wines"));
+
+        final HttpClient http = HttpClient.newBuilder().executor(Executors.newVirtualThreadPerTaskExecutor()).connectTimeout(Duration.ofSeconds(10)).build();
+        final Map<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+        final LongAdder errors = new LongAdder();
+        // one slot per millisecond up to a minute; anything slower lands in the last
+        final AtomicLong[] latencies = new AtomicLong[60_001];
+        Arrays.setAll(latencies, i -> new AtomicLong());
+
+        final long start = System.nanoTime();
+        final long deadline = start + Duration.ofSeconds(seconds).toNanos();
+        try (final ExecutorService clientThreads = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < clients; i++) {
+                clientThreads.submit(() -> {
+                    while (System.nanoTime() < deadline) {
+                        final int wineId = 1 + ThreadLocalRandom.current().nextInt(wines);
+                        final HttpRequest request = HttpRequest.newBuilder(URI.create(url + "/api/v1/wines/" + wineId + "/detail"))
+                                                               .timeout(Duration.ofSeconds(60))
+                                                               .build();
+                        final long sent = System.nanoTime();
+                        try {
+                            final HttpResponse<Void> response = http.send(request, HttpResponse.BodyHandlers.discarding());
+                            statuses.computeIfAbsent(response.statusCode(), s -> new LongAdder()).increment();
+                            final long millis = (System.nanoTime() - sent) / 1_000_000;
+                            latencies[(int) Math.min(millis, latencies.length - 1)].incrementAndGet();
+                        } catch (final IOException e) {
+                            errors.increment();
+                        } catch (final InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return;
+                        }
+                    }
+                });
+            }
+        }
+        final double elapsed = (System.nanoTime() - start) / 1e9;
+
+        long total = 0;
+        for (final AtomicLong count : latencies) {
+            total += count.get();
+        }
+        System.out.printf("clients=%d seconds=%.1f requests=%d throughput=%.1f/s errors=%d%n", clients, elapsed, total, total / elapsed, errors.sum());
+        statuses.forEach((status, count) -> System.out.printf("status %d: %d%n", status, count.sum()));
+        for (final long percentile : PERCENTILES) {
+            System.out.printf("p%d=%dms%n", percentile, percentile(latencies, total, percentile));
+        }
+        printGauges(http, options.get("management"));
+    }
+
+    private static long percentile(final AtomicLong[] latencies, final long total, final long percentile) {
+        final long rank = (total * percentile + 99) / 100;
+        long seen = 0;
+        for (int millis = 0; millis < latencies.length; millis++) {
+            seen += latencies[millis].get();
+            if (seen >= rank && rank > 0) {
+                return millis;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Sums each gauge across its tags, e.g. heap and non-heap pools into one {@code jvm_memory_used_bytes}.
+     */
+    private static void printGauges(final HttpClient http, final String management) throws IOException, InterruptedException {
+        final HttpRequest request = HttpRequest.newBuilder(URI.create(management + "/actuator/prometheus")).build();
+        final String body = http.send(request, HttpResponse.BodyHandlers.ofString()).body();
+        final Map<String, Double> sums = new HashMap<>();
+        for (final String line : body.split("\n")) {
+            for (final String gauge : GAUGES) {
+                if (line.startsWith(gauge + "{") || line.startsWith(gauge + " ")) {
+                    sums.merge(gauge, Double.parseDouble(line.substring(line.lastIndexOf(' ') + 1)), Double::sum);
+                }
+            }
+        }
+        for (final String gauge : GAUGES) {
+            System.out.printf("%s=%.0f%n", gauge, sums.getOrDefault(gauge, Double.NaN));
+        }
+    }
+}
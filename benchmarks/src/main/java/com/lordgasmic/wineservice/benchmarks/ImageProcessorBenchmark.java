@@ -0,0 +1,141 @@
+package com.lordgasmic.wineservice.benchmarks;
+
+import com.lordgasmic.wineservice.models.EncodedImage;
+import com.lordgasmic.wineservice.service.ImageProcessor;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.io.ByteArrayResource;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Display and thumbnail renditions of a synthetic label photo, by source height and format. {@code legacyResize} is the
+ * pre-pipeline path (decode once per rendition, {@code getScaledInstance(SCALE_SMOOTH)}) as a baseline; it ignores
+ * {@code encodingFormat}. Run with {@code -prof gc} for bytes allocated per upload.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ImageProcessorBenchmark {
+    private static final int DISPLAY_HEIGHT = 200;
+    private static final int THUMBNAIL_HEIGHT = 50;
+
+    @Param({"600", "2400", "4800"})
+    public int sourceHeight;
+
+    @Param({"jpeg", "png"})
+    public String sourceFormat;
+
+    @Param({"jpeg", "original"})
+    public String encodingFormat;
+
+    private ImageProcessor imageProcessor;
+    private ByteArrayResource source;
+
+    @Setup
+    public void setUp() throws IOException {
+        imageProcessor = new ImageProcessor(DISPLAY_HEIGHT, THUMBNAIL_HEIGHT, encodingFormat, 0.82f, true, new SimpleMeterRegistry());
+        source = new ByteArrayResource(encode(labelPhoto(sourceHeight * 3 / 4, sourceHeight), sourceFormat));
+    }
+
+    @Benchmark
+    public List<EncodedImage> resize() throws IOException {
+        return imageProcessor.resize(source, DISPLAY_HEIGHT, THUMBNAIL_HEIGHT);
+    }
+
+    @Benchmark
+    public byte[][] legacyResize() throws IOException {
+        final byte[] bytes = source.getByteArray();
+        return new byte[][] {legacyResize(bytes, DISPLAY_HEIGHT, sourceFormat), legacyResize(bytes, THUMBNAIL_HEIGHT, sourceFormat)};
+    }
+
+    /**
+     * The resize the service shipped with before renditions shared one decoded raster, kept verbatim for comparison.
+     */
+    private static byte[] legacyResize(final byte[] bytes, final int newHeight, final String mimeType) throws IOException {
+        final Image originalSize = ImageIO.read(new ByteArrayInputStream(bytes));
+        final int origHeight = originalSize.getHeight(null);
+        if (origHeight > newHeight) {
+            final double heightDiff = origHeight - newHeight;
+            final double scaleRatio = origHeight / heightDiff;
+            final int origWidth = originalSize.getWidth(null);
+            final double widthDiff = origWidth / scaleRatio;
+            final int newWidth = (int) (origWidth - widthDiff);
+
+            final Image resizeImage = originalSize.getScaledInstance(newWidth, newHeight, Image.SCALE_SMOOTH);
+            final BufferedImage bufferedImage = new BufferedImage(newWidth, newHeight, BufferedImage.TYPE_INT_RGB);
+            bufferedImage.getGraphics().drawImage(resizeImage, 0, 0, null);
+            final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            ImageIO.write(bufferedImage, mimeType, bos);
+            return bos.toByteArray();
+        }
+        return bytes;
+    }
+
+    /**
+     * A gradient with text and sensor-like noise, so encoders see roughly the entropy of a real photo rather than
+     * flat colour that compresses to nothing.
+     */
+    static BufferedImage labelPhoto(final int width, final int height) {
+        final BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        final Graphics2D graphics = image.createGraphics();
+        try {
+            graphics.setPaint(new GradientPaint(0, 0, new Color(0x5a1e2b), width, height, new Color(0xe8dcc0)));
+            graphics.fillRect(0, 0, width, height);
+            graphics.setColor(Color.BLACK);
+            graphics.setFont(new Font(Font.SERIF, Font.BOLD, Math.max(12, height / 12)));
+            graphics.drawString("Chateau Benchmark", width / 10, height / 3);
+            graphics.setFont(new Font(Font.SERIF, Font.PLAIN, Math.max(8, height / 30)));
+            graphics.drawString("Grand Vin - Appellation Controlee", width / 10, height / 2);
+        } finally {
+            graphics.dispose();
+        }
+
+        final Random random = new Random(42);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                final int rgb = image.getRGB(x, y);
+                final int noise = random.nextInt(17) - 8;
+                image.setRGB(x, y, clamp((rgb >> 16 & 0xff) + noise) << 16 | clamp((rgb >> 8 & 0xff) + noise) << 8 | clamp((rgb & 0xff) + noise));
+            }
+        }
+        return image;
+    }
+
+    static byte[] encode(final BufferedImage image, final String format) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (!ImageIO.write(image, format, out)) {
+            throw new IOException("no image writer for " + format);
+        }
+        return out.toByteArray();
+    }
+
+    private static int clamp(final int value) {
+        return Math.max(0, Math.min(255, value));
+    }
+}
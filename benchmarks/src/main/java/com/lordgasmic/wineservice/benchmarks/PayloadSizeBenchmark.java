@@ -0,0 +1,94 @@
+package com.lordgasmic.wineservice.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.lordgasmic.wineservice.controller.CompactJsonHttpMessageConverter;
+import com.lordgasmic.wineservice.models.WineRatingResponse;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Encoding time and wire size of a ratings list as plain and compact JSON, with and without gzip. The size lands in
+ * the {@code wireBytes} column of the results.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PayloadSizeBenchmark {
+    private static final String[] RATINGS = {"check minus", "check", "check plus", "check plus plus", "check check"};
+
+    @Param({"100", "2000"})
+    public int ratings;
+
+    @Param({"json", "compact"})
+    public String format;
+
+    @Param({"false", "true"})
+    public boolean gzip;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private List<WineRatingResponse> response;
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Size {
+        // the size of the last encoding, which is the same every time
+        public long wireBytes;
+    }
+
+    /**
+     * A tasting group's ratings: a dozen users rating a few wines per tasting night, so users and dates repeat.
+     */
+    @Setup
+    public void setUp() {
+        final Random random = new Random(42);
+        response = new ArrayList<>(ratings);
+        for (int i = 0; i < ratings; i++) {
+            final WineRatingResponse rating = new WineRatingResponse();
+            rating.setId(10000 + i);
+            rating.setWineId(500 + i / 12);
+            rating.setUser("taster" + random.nextInt(12) + "@example.com");
+            rating.setDate((i / 60 % 12 + 1) + "/" + (i / 60 % 28 + 1) + "/22");
+            rating.setRating(RATINGS[random.nextInt(RATINGS.length)]);
+            response.add(rating);
+        }
+    }
+
+    @Benchmark
+    public byte[] encode(final Size size) throws IOException {
+        final byte[] json = "compact".equals(format)
+                            ? objectMapper.writeValueAsBytes(CompactJsonHttpMessageConverter.compact(objectMapper.valueToTree(response)))
+                            : objectMapper.writeValueAsBytes(response);
+        final byte[] wire = gzip ? gzip(json) : json;
+        size.wireBytes = wire.length;
+        return wire;
+    }
+
+    private static byte[] gzip(final byte[] bytes) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 4);
+        try (final GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(bytes);
+        }
+        return out.toByteArray();
+    }
+}
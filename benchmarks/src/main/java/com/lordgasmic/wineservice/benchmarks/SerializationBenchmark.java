@@ -0,0 +1,72 @@
+package com.lordgasmic.wineservice.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.lordgasmic.wineservice.models.WineImage;
+import com.lordgasmic.wineservice.models.WineImageResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Jackson serialization of image responses carrying their bytes inline, which Jackson base64-encodes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SerializationBenchmark {
+    @Param({"65536", "1048576"})
+    public int imageBytes;
+
+    @Param({"1", "10"})
+    public int images;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private WineImageResponse response;
+
+    @Setup
+    public void setUp() {
+        final Random random = new Random(42);
+        final List<WineImage> wineImages = new ArrayList<>(images);
+        for (int i = 0; i < images; i++) {
+            final byte[] bytes = new byte[imageBytes];
+            random.nextBytes(bytes);
+            final WineImage image = new WineImage();
+            image.setId(i + 1);
+            image.setWineId(1);
+            image.setLabel("front");
+            image.setImage(bytes);
+            image.setMimeType("image/jpeg");
+            wineImages.add(image);
+        }
+        response = new WineImageResponse();
+        response.setWineImages(wineImages);
+    }
+
+    @Benchmark
+    public byte[] toBytes() throws IOException {
+        return objectMapper.writeValueAsBytes(response);
+    }
+
+    @Benchmark
+    public void toStream() throws IOException {
+        objectMapper.writeValue(OutputStream.nullOutputStream(), response);
+    }
+}
@@ -0,0 +1,136 @@
+package com.lordgasmic.wineservice.service;
+
+import com.lordgasmic.collections.repository.RepositoryItem;
+import com.lordgasmic.wineservice.config.WineConstants;
+import com.lordgasmic.wineservice.config.WineryConstants;
+import com.lordgasmic.wineservice.models.WineRatingResponse;
+import com.lordgasmic.wineservice.models.WineResponse;
+import com.lordgasmic.wineservice.models.WineryResponse;
+import org.h2.jdbcx.JdbcDataSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Conversion to responses over whole-catalog lists, through the converters the services use. Lives in the service
+ * package to reach the package-private converters. Wines and wineries come from the repository; their items are
+ * proxies answering {@code getPropertyValue} from a map, so only the conversion is measured, not the repository.
+ * Ratings come from JDBC; they are mapped from an H2 result set that is fetched once and rewound for every call, so
+ * the query isn't measured either.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConversionBenchmark {
+    private static final String[] RATINGS = {"check minus", "check", "check plus", "check plus plus"};
+
+    @Param({"1000", "100000"})
+    public int items;
+
+    private List<RepositoryItem> wines;
+    private List<RepositoryItem> wineries;
+    private Connection connection;
+    private ResultSet ratings;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        wines = new ArrayList<>(items);
+        wineries = new ArrayList<>(items);
+        for (int i = 1; i <= items; i++) {
+            wines.add(item(Map.of(WineConstants.PROPERTY_ID, i,
+                                  WineConstants.PROPERTY_WINERY_ID, i % 500 + 1,
+                                  WineConstants.PROPERTY_NAME, "Wine " + i,
+                                  WineConstants.PROPERTY_STYLE, i % 2 == 0 ? "red" : "white")));
+            wineries.add(item(Map.of(WineryConstants.PROPERTY_ID, i,
+                                     WineryConstants.PROPERTY_NAME, "Winery " + i,
+                                     WineryConstants.PROPERTY_LOCATION, "Finger Lakes, NY")));
+        }
+
+        final JdbcDataSource h2 = new JdbcDataSource();
+        h2.setURL("jdbc:h2:mem:conversion;MODE=MySQL;DATABASE_TO_LOWER=TRUE;NON_KEYWORDS=USER");
+        // the in-memory database lives as long as this connection does
+        connection = h2.getConnection();
+        try (final Statement statement = connection.createStatement()) {
+            statement.execute("create table wine_rating_vw (id int primary key, wine_id int, user varchar(255), date varchar(255), rating varchar(255))");
+        }
+        try (final PreparedStatement insert = connection.prepareStatement("insert into wine_rating_vw (id, wine_id, user, date, rating) values (?, ?, ?, ?, ?)")) {
+            for (int i = 1; i <= items; i++) {
+                insert.setInt(1, i);
+                insert.setInt(2, i % 5000 + 1);
+                insert.setString(3, "user" + i % 50);
+                insert.setString(4, (i % 12 + 1) + "/" + (i % 28 + 1) + "/22");
+                insert.setString(5, RATINGS[i % RATINGS.length]);
+                insert.addBatch();
+                if (i % 1000 == 0) {
+                    insert.executeBatch();
+                }
+            }
+            insert.executeBatch();
+        }
+        // the columns the service selects, read back by label as the service's mapper does
+        ratings = connection.createStatement(ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY)
+                            .executeQuery("select id, wine_id, user, date, rating from wine_rating_vw");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        connection.close();
+    }
+
+    @Benchmark
+    public List<WineResponse> wines() {
+        return wines.stream().map(WineService::convertRepositoryItemToWineResponse).collect(Collectors.toList());
+    }
+
+    @Benchmark
+    public List<WineryResponse> wineries() {
+        return wineries.stream().map(WineryService::convertRepositoryItemToWineryResponse).collect(Collectors.toList());
+    }
+
+    @Benchmark
+    public List<WineRatingResponse> ratings() throws SQLException {
+        final List<WineRatingResponse> responses = new ArrayList<>(items);
+        ratings.beforeFirst();
+        while (ratings.next()) {
+            responses.add(WineRatingService.convertResultSetToWineRatingResponse(ratings));
+        }
+        return responses;
+    }
+
+    private static RepositoryItem item(final Map<String, Object> properties) {
+        return (RepositoryItem) Proxy.newProxyInstance(RepositoryItem.class.getClassLoader(), new Class<?>[] {RepositoryItem.class}, (proxy, method, args) -> {
+            if ("getPropertyValue".equals(method.getName())) {
+                return properties.get((String) args[0]);
+            }
+            if ("toString".equals(method.getName())) {
+                return properties.toString();
+            }
+            throw new UnsupportedOperationException(method.getName());
+        });
+    }
+}
@@ -0,0 +1,162 @@
+package com.lordgasmic.wineservice.service;
+
+import com.lordgasmic.wineservice.models.BatchResponse;
+import com.lordgasmic.wineservice.models.WineNoteBatchItem;
+import com.lordgasmic.wineservice.models.WineNoteOutput;
+import com.lordgasmic.wineservice.models.WineNoteRequest;
+import com.lordgasmic.wineservice.models.WineNoteResponse;
+import com.lordgasmic.wineservice.models.WineNoteUpsert;
+import org.h2.jdbcx.JdbcDataSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Note saves against wines that already hold hundreds of notes: the single-wine save that locks and re-reads the
+ * wine's notes, an edit-only save, and the batch endpoint appending to several wines. The schema carries the unique
+ * (wine_id, ordinal) index, so a save that handed out a taken ordinal would fail here rather than pass silently.
+ * Appended notes are removed after each iteration to keep the wines at {@code notesPerWine}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NotesSaveBenchmark {
+    private static final int WINES = 200;
+    private static final int EDITS = 10;
+    private static final int BATCH_WINES = 5;
+
+    @Param({"100", "500"})
+    public int notesPerWine;
+
+    private Connection keepAlive;
+    private WineNotesService service;
+    private int wineId;
+    private List<Integer> noteIds;
+    private int counter;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        final JdbcDataSource h2 = new JdbcDataSource();
+        h2.setURL("jdbc:h2:mem:notes;MODE=MySQL;DATABASE_TO_LOWER=TRUE;NON_KEYWORDS=USER");
+        // the in-memory database lives as long as one connection to it does
+        keepAlive = h2.getConnection();
+        createSchema(keepAlive);
+        load(keepAlive);
+
+        final WineTastingDataSource dataSource = new WineTastingDataSource(h2);
+        service = new WineNotesService(dataSource, new WineQueryCompiler(new RatingScale(new String[] {"check:3"})), new DescriptorVersions());
+
+        wineId = WINES / 2;
+        noteIds = new ArrayList<>();
+        for (final WineNoteOutput output : service.getWineNotesByWineId(wineId).getWineNotes()) {
+            noteIds.add(output.getId());
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void trim() throws SQLException {
+        try (final PreparedStatement statement = keepAlive.prepareStatement("delete from wine_notes where ordinal >= ?")) {
+            statement.setInt(1, notesPerWine);
+            statement.executeUpdate();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        keepAlive.close();
+    }
+
+    @Benchmark
+    public WineNoteResponse append() throws SQLException {
+        final WineNoteRequest request = request();
+        request.setWineNotes(List.of("appended " + counter++));
+        return service.addWineNotes(request);
+    }
+
+    @Benchmark
+    public WineNoteResponse edit() throws SQLException {
+        final String note = "edited " + counter++;
+        final List<WineNoteUpsert> upserts = new ArrayList<>(EDITS);
+        for (int i = 0; i < EDITS; i++) {
+            final WineNoteUpsert upsert = new WineNoteUpsert();
+            upsert.setId(Integer.toString(noteIds.get(i)));
+            upsert.setNote(note);
+            upserts.add(upsert);
+        }
+        final WineNoteRequest request = request();
+        request.setUpsert(upserts);
+        return service.addWineNotes(request);
+    }
+
+    @Benchmark
+    public BatchResponse<WineNoteOutput> batchAppend() throws SQLException {
+        final List<WineNoteBatchItem> items = new ArrayList<>(BATCH_WINES * 2);
+        for (int i = 0; i < BATCH_WINES * 2; i++) {
+            final WineNoteBatchItem item = new WineNoteBatchItem();
+            item.setWineId(1 + i % BATCH_WINES);
+            item.setUser("user1");
+            item.setDate("10/18/26");
+            item.setNote("batched " + counter++);
+            items.add(item);
+        }
+        return service.saveWineNotes(items);
+    }
+
+    private WineNoteRequest request() {
+        final WineNoteRequest request = new WineNoteRequest();
+        request.setWineId(wineId);
+        request.setUser("user1");
+        request.setDate("10/18/26");
+        return request;
+    }
+
+    private static void createSchema(final Connection connection) throws SQLException {
+        try (final Statement statement = connection.createStatement()) {
+            statement.execute("create table wine_notes (id int auto_increment primary key, wine_id int, user varchar(255), note varchar(255),"
+                              + " ordinal int, date varchar(255))");
+            statement.execute("create unique index wine_notes_wine_id_ordinal_uk on wine_notes (wine_id, ordinal)");
+            statement.execute("create view wine_notes_vw as select * from wine_notes");
+        }
+    }
+
+    private void load(final Connection connection) throws SQLException {
+        connection.setAutoCommit(false);
+        try (final PreparedStatement insert = connection.prepareStatement("insert into wine_notes (wine_id, user, note, ordinal, date) values (?, ?, ?, ?, ?)")) {
+            for (int wine = 1; wine <= WINES; wine++) {
+                for (int ordinal = 0; ordinal < notesPerWine; ordinal++) {
+                    insert.setInt(1, wine);
+                    insert.setString(2, "user" + ordinal % 7);
+                    insert.setString(3, "note " + ordinal + " on wine " + wine);
+                    insert.setInt(4, ordinal);
+                    insert.setString(5, "10/18/26");
+                    insert.addBatch();
+                }
+                insert.executeBatch();
+            }
+            connection.commit();
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+}
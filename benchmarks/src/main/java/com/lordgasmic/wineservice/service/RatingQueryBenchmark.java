@@ -0,0 +1,210 @@
+package com.lordgasmic.wineservice.service;
+
+import com.lordgasmic.wineservice.models.RatingSummary;
+import com.lordgasmic.wineservice.models.WineQuery;
+import com.lordgasmic.wineservice.models.WineRatingResponse;
+import org.h2.jdbcx.JdbcDataSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rating lookups as the endpoints run them: a {@link WineQuery} compiled by {@link WineQueryCompiler} and mapped with
+ * the service's row mapper, plus the summary reads served from {@link WineRatingAggregates}. H2 in MySQL mode stands in
+ * for MariaDB, with {@code rating_date} as a plain column rather than a generated one, so absolute numbers are only
+ * comparable between runs of this suite.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RatingQueryBenchmark {
+    private static final String[] SCALE = {"minus:1", "check minus:2", "check:3", "check plus:4", "check plus plus:5", "check check:6", "ccccc:7"};
+    private static final String[] RATINGS = {"minus", "check minus", "check", "check plus", "check plus plus", "check check", "ccccc", "circle"};
+    private static final int WINERIES = 200;
+    private static final int WINES = 5000;
+    private static final int USERS = 50;
+
+    // flat times across three orders of magnitude are the point of the indexed lookups
+    @Param({"1000", "100000", "1000000"})
+    public int ratings;
+
+    @Param({"wine", "user", "wineAndUser", "userDateRange", "ratingRange", "winery", "style"})
+    public String filter;
+
+    private Connection keepAlive;
+    private WineTastingDataSource dataSource;
+    private WineQueryCompiler compiler;
+    private WineRatingAggregates aggregates;
+    private WineQuery query;
+    private int wineId;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        final JdbcDataSource h2 = new JdbcDataSource();
+        h2.setURL("jdbc:h2:mem:bench;MODE=MySQL;DATABASE_TO_LOWER=TRUE;NON_KEYWORDS=USER");
+        // the in-memory database lives as long as one connection to it does
+        keepAlive = h2.getConnection();
+        createSchema(keepAlive);
+        load(keepAlive);
+
+        final RatingScale scale = new RatingScale(SCALE);
+        dataSource = new WineTastingDataSource(h2);
+        compiler = new WineQueryCompiler(scale);
+        aggregates = new WineRatingAggregates(dataSource, scale, 60);
+        // pay for the first load here rather than in the first measured call
+        aggregates.getTopWines(1, 1);
+
+        wineId = WINES / 2;
+        query = new WineQuery();
+        switch (filter) {
+            case "wine":
+                query.setWineId(wineId);
+                break;
+            case "user":
+                query.setUser("user7");
+                break;
+            case "wineAndUser":
+                query.setWineId(wineId);
+                query.setUser("user7");
+                break;
+            case "userDateRange":
+                query.setUser("user7");
+                query.setFrom("2022-03-01");
+                query.setTo("2022-05-31");
+                query.setSort("date");
+                break;
+            case "ratingRange":
+                query.setMinRating("check plus");
+                query.setMaxRating("check check");
+                query.setLimit(100);
+                break;
+            case "winery":
+                query.setWineryId(WINERIES / 2);
+                break;
+            case "style":
+                query.setStyle("rose");
+                query.setLimit(100);
+                break;
+            default:
+                throw new IllegalArgumentException(filter);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        keepAlive.close();
+    }
+
+    @Benchmark
+    public List<WineRatingResponse> find() throws SQLException {
+        final WineQueryCompiler.Compiled compiled = compiler.compile(query, WineQueryCompiler.Target.RATINGS);
+        return dataSource.query(compiled.getSql(), compiled.getParams(), WineRatingService::convertResultSetToWineRatingResponse);
+    }
+
+    @Benchmark
+    public WineQueryCompiler.Compiled compile() {
+        return compiler.compile(query, WineQueryCompiler.Target.RATINGS);
+    }
+
+    @Benchmark
+    public List<RatingSummary> topWines() throws SQLException {
+        return aggregates.getTopWines(20, 3);
+    }
+
+    @Benchmark
+    public Optional<RatingSummary> wineSummary() throws SQLException {
+        return aggregates.getWineSummary(wineId);
+    }
+
+    private static void createSchema(final Connection connection) throws SQLException {
+        try (final Statement statement = connection.createStatement()) {
+            statement.execute("create table winery (id int auto_increment primary key, name varchar(255), location varchar(255))");
+            statement.execute("create table wine (id int auto_increment primary key, winery_id int, name varchar(255), style varchar(255))");
+            statement.execute("create index wine_winery_id_style_idx on wine (winery_id, style)");
+            statement.execute("create index wine_style_idx on wine (style)");
+            statement.execute("create table wine_rating (id int auto_increment primary key, wine_id int, user varchar(255), date varchar(255),"
+                              + " rating varchar(255), rating_date date)");
+            statement.execute("create index wine_rating_wine_id_rating_date_idx on wine_rating (wine_id, rating_date)");
+            statement.execute("create index wine_rating_user_rating_date_idx on wine_rating (user, rating_date)");
+            statement.execute("create index wine_rating_user_wine_id_idx on wine_rating (user, wine_id)");
+            statement.execute("create index wine_rating_rating_date_idx on wine_rating (rating_date)");
+            statement.execute("create index wine_rating_rating_rating_date_idx on wine_rating (rating, rating_date)");
+            statement.execute("create table wine_rating_summary (wine_id int, rating varchar(255), rating_count bigint, primary key (wine_id, rating))");
+            statement.execute("create table user_rating_summary (user varchar(255), rating varchar(255), rating_count bigint, primary key (user, rating))");
+            statement.execute("create view winery_vw as select * from winery");
+            statement.execute("create view wine_vw as select * from wine");
+            statement.execute("create view wine_rating_vw as select * from wine_rating");
+            statement.execute("create view wine_rating_summary_vw as select * from wine_rating_summary");
+            statement.execute("create view user_rating_summary_vw as select * from user_rating_summary");
+        }
+    }
+
+    private void load(final Connection connection) throws SQLException {
+        final String[] styles = {"red", "white", "rose", "sparkling", "dessert"};
+        final Random random = new Random(42);
+        connection.setAutoCommit(false);
+        try (final PreparedStatement winery = connection.prepareStatement("insert into winery (name, location) values (?, ?)");
+             final PreparedStatement wine = connection.prepareStatement("insert into wine (winery_id, name, style) values (?, ?, ?)");
+             final PreparedStatement rating = connection.prepareStatement("insert into wine_rating (wine_id, user, date, rating, rating_date) values (?, ?, ?, ?, ?)")) {
+            for (int i = 1; i <= WINERIES; i++) {
+                winery.setString(1, "Winery " + i);
+                winery.setString(2, "Finger Lakes, NY");
+                winery.addBatch();
+            }
+            winery.executeBatch();
+            for (int i = 1; i <= WINES; i++) {
+                wine.setInt(1, random.nextInt(WINERIES) + 1);
+                wine.setString(2, "Wine " + i);
+                wine.setString(3, styles[random.nextInt(styles.length)]);
+                wine.addBatch();
+            }
+            wine.executeBatch();
+            final LocalDate start = LocalDate.of(2021, 1, 1);
+            for (int i = 0; i < ratings; i++) {
+                final LocalDate date = start.plusDays(random.nextInt(730));
+                rating.setInt(1, random.nextInt(WINES) + 1);
+                rating.setString(2, "user" + random.nextInt(USERS));
+                rating.setString(3, date.getMonthValue() + "/" + date.getDayOfMonth() + "/" + date.getYear() % 100);
+                rating.setString(4, RATINGS[random.nextInt(RATINGS.length)]);
+                rating.setDate(5, Date.valueOf(date));
+                rating.addBatch();
+                if (i % 1000 == 999) {
+                    rating.executeBatch();
+                }
+            }
+            rating.executeBatch();
+            connection.commit();
+        } finally {
+            connection.setAutoCommit(true);
+        }
+
+        try (final Statement statement = connection.createStatement()) {
+            statement.execute("insert into wine_rating_summary select wine_id, rating, count(*) from wine_rating group by wine_id, rating");
+            statement.execute("insert into user_rating_summary select user, rating, count(*) from wine_rating group by user, rating");
+        }
+    }
+}
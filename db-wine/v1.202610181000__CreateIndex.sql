@@ -0,0 +1,2 @@
+-- wine_id lookups already have wine_rating_uk (wine_id, user, date)
+create index wine_rating_user_idx on wine_rating (user, wine_id);
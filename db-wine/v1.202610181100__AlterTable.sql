@@ -0,0 +1,11 @@
+alter table wine_image_thumbnail add column image_id int UNSIGNED;
+
+update wine_image_thumbnail t
+    join (select id, row_number() over (partition by wine_id, label order by id) as rn from wine_image_thumbnail) tr on tr.id = t.id
+    join (select id, wine_id, label, row_number() over (partition by wine_id, label order by id) as rn from wine_image) i
+        on i.wine_id = t.wine_id and i.label <=> t.label and i.rn = tr.rn
+set t.image_id = i.id;
+
+create index wine_image_wine_id_idx on wine_image (wine_id);
+create index wine_image_thumbnail_wine_id_idx on wine_image_thumbnail (wine_id);
+create index wine_image_thumbnail_image_id_idx on wine_image_thumbnail (image_id);
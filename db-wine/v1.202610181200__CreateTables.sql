@@ -0,0 +1,13 @@
+create table wine_image_job(
+    id int UNSIGNED NOT NULL AUTO_INCREMENT,
+    wine_id int UNSIGNED NOT NULL,
+    label varchar(255),
+    original MEDIUMBLOB,
+    mime_type varchar(255),
+    status varchar(32) NOT NULL,
+    image_id int UNSIGNED,
+    error nvarchar(1024),
+    created timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    updated timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
+    CONSTRAINT wine_image_job_pk PRIMARY KEY (id)
+);
@@ -0,0 +1 @@
+alter table wine_image_job add column keep_original tinyint NOT NULL DEFAULT 0;
@@ -0,0 +1,4 @@
+alter table wine_image add column content_hash char(64), add column ref_count int UNSIGNED NOT NULL DEFAULT 1;
+
+create index wine_image_content_hash_idx on wine_image (content_hash);
+create index wine_image_wine_id_content_hash_idx on wine_image (wine_id, content_hash);
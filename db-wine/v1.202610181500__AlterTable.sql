@@ -0,0 +1,2 @@
+alter table wine_image add column storage_key char(64);
+alter table wine_image_thumbnail add column storage_key char(64);
@@ -0,0 +1,20 @@
+create table wine_rating_summary(
+    wine_id int UNSIGNED NOT NULL,
+    rating nvarchar(255) NOT NULL,
+    rating_count int NOT NULL,
+    CONSTRAINT wine_rating_summary_pk PRIMARY KEY (wine_id, rating)
+);
+
+create table user_rating_summary(
+    user nvarchar(255) NOT NULL,
+    rating nvarchar(255) NOT NULL,
+    rating_count int NOT NULL,
+    CONSTRAINT user_rating_summary_pk PRIMARY KEY (user, rating)
+);
+
+-- the same normalization as RatingScale.normalize: lower case, runs of whitespace collapsed to one space, trimmed
+insert into wine_rating_summary (wine_id, rating, rating_count)
+    select wine_id, trim(regexp_replace(lower(coalesce(rating, '')), '[[:space:]]+', ' ')), count(*) from wine_rating group by wine_id, trim(regexp_replace(lower(coalesce(rating, '')), '[[:space:]]+', ' '));
+
+insert into user_rating_summary (user, rating, rating_count)
+    select user, trim(regexp_replace(lower(coalesce(rating, '')), '[[:space:]]+', ' ')), count(*) from wine_rating group by user, trim(regexp_replace(lower(coalesce(rating, '')), '[[:space:]]+', ' '));
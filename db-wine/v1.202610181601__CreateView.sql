@@ -0,0 +1,7 @@
+create or replace view wine_rating_summary_vw as select * from wine_rating_summary;
+grant select, insert, update, delete on web.wine_rating_summary_vw to 'web_appl'@'localhost';
+grant select, insert, update, delete on web.wine_rating_summary_vw to 'web_appl'@'%';
+
+create or replace view user_rating_summary_vw as select * from user_rating_summary;
+grant select, insert, update, delete on web.user_rating_summary_vw to 'web_appl'@'localhost';
+grant select, insert, update, delete on web.user_rating_summary_vw to 'web_appl'@'%';
@@ -0,0 +1,15 @@
+-- notes saved concurrently before the writes were locked can share an ordinal; renumber those wines' notes in
+-- (ordinal, id) order so the unique index below can be built
+create temporary table wine_notes_duplicate_wine as
+    select distinct wine_id from wine_notes group by wine_id, ordinal having count(*) > 1;
+
+create temporary table wine_notes_renumbered as
+    select n.id, row_number() over (partition by n.wine_id order by n.ordinal, n.id) - 1 as ordinal
+    from wine_notes n join wine_notes_duplicate_wine d on d.wine_id = n.wine_id;
+
+update wine_notes n join wine_notes_renumbered r on r.id = n.id set n.ordinal = r.ordinal;
+
+drop temporary table wine_notes_renumbered;
+drop temporary table wine_notes_duplicate_wine;
+
+create unique index wine_notes_wine_id_ordinal_uk on wine_notes (wine_id, ordinal);
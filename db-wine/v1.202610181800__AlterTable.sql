@@ -0,0 +1,17 @@
+-- dates are entered as m/d/yy text; anything else gets a null date rather than failing the write
+alter table wine_rating add column rating_date date generated always as (
+    case when date regexp '^(1[0-2]|0?[1-9])/(3[01]|[12][0-9]|0?[1-9])/[0-9]{2}$' then str_to_date(date, '%c/%e/%y') end) stored;
+alter table wine_notes add column note_date date generated always as (
+    case when date regexp '^(1[0-2]|0?[1-9])/(3[01]|[12][0-9]|0?[1-9])/[0-9]{2}$' then str_to_date(date, '%c/%e/%y') end) stored;
+
+create index wine_rating_wine_id_date_idx on wine_rating (wine_id, rating_date);
+create index wine_rating_user_date_idx on wine_rating (user, rating_date);
+create index wine_rating_date_idx on wine_rating (rating_date);
+create index wine_rating_rating_idx on wine_rating (rating, rating_date);
+
+create index wine_notes_user_wine_id_idx on wine_notes (user, wine_id);
+create index wine_notes_user_date_idx on wine_notes (user, note_date);
+create index wine_notes_date_idx on wine_notes (note_date);
+
+create index wine_winery_id_style_idx on wine (winery_id, style);
+create index wine_style_idx on wine (style);
@@ -0,0 +1,2 @@
+alter table wine_image_job add column claimed_at timestamp NULL;
+create index wine_image_job_status_idx on wine_image_job (status, claimed_at);
@@ -0,0 +1,3 @@
+create or replace view wine_image_job_vw as select * from wine_image_job;
+grant select, insert, update, delete on web.wine_image_job_vw to 'web_appl'@'localhost';
+grant select, insert, update, delete on web.wine_image_job_vw to 'web_appl'@'%';
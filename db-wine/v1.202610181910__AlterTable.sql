@@ -0,0 +1,27 @@
+-- a row with a content_id holds no bytes of its own and serves those of the row it names
+alter table wine_image add column content_id int UNSIGNED, modify wine_id int UNSIGNED;
+alter table wine_image_thumbnail add column content_id int UNSIGNED, modify wine_id int UNSIGNED;
+
+-- rows copied for another wine become references to the oldest row with the same upload
+create temporary table wine_image_owner as
+    select content_hash, min(id) as id from wine_image where content_hash is not null group by content_hash;
+update wine_image i join wine_image_owner o on o.content_hash = i.content_hash and o.id <> i.id
+    set i.content_id = o.id, i.content_hash = null, i.image = null;
+
+create temporary table wine_image_thumbnail_owner as
+    select image_id, min(id) as id from wine_image_thumbnail group by image_id;
+update wine_image_thumbnail t join wine_image i on i.id = t.image_id join wine_image_thumbnail_owner o on o.image_id = i.content_id
+    set t.content_id = o.id, t.thumbnail = null;
+
+-- ref_count now counts the rows sharing an owner's content, the owner included
+create temporary table wine_image_refs as
+    select content_id, count(*) as refs from wine_image where content_id is not null group by content_id;
+update wine_image set ref_count = 1;
+update wine_image i join wine_image_refs r on r.content_id = i.id set i.ref_count = i.ref_count + r.refs;
+
+drop temporary table wine_image_owner;
+drop temporary table wine_image_thumbnail_owner;
+drop temporary table wine_image_refs;
+
+drop index wine_image_content_hash_idx on wine_image;
+create unique index wine_image_content_hash_uk on wine_image (content_hash);
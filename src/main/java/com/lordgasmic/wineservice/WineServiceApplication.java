@@ -1,16 +1,25 @@
 package com.lordgasmic.wineservice;
 
-import com.lordgasmic.collections.Nucleus;
+import com.lordgasmic.wineservice.config.NucleusStartup;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.context.metrics.buffering.BufferingApplicationStartup;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
+@EnableScheduling
 @Slf4j
 public class WineServiceApplication {
+    private static final int STARTUP_STEPS = 4096;
 
     public static void main(final String... args) {
-        Nucleus.start();
-        SpringApplication.run(WineServiceApplication.class, args);
+        // Nucleus starts alongside the context rather than before it
+        final NucleusStartup nucleusStartup = NucleusStartup.begin();
+        final SpringApplication application = new SpringApplication(WineServiceApplication.class);
+        application.setApplicationStartup(new BufferingApplicationStartup(STARTUP_STEPS));
+        application.addInitializers(context -> context.getBeanFactory().registerSingleton(NucleusStartup.BEAN_NAME, nucleusStartup));
+        application.addListeners(nucleusStartup);
+        application.run(args);
     }
 }
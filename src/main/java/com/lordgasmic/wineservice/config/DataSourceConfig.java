@@ -0,0 +1,48 @@
+package com.lordgasmic.wineservice.config;
+
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+@Slf4j
+@Configuration
+public class DataSourceConfig {
+    private static final String DATA_SOURCE_NAME = "DataSource";
+
+    /**
+     * Pool meters for the Nucleus DataSource, which Boot's DataSource metrics can't see since it isn't a bean. Bound
+     * once Nucleus is up rather than holding up the registry.
+     */
+    @Bean
+    public MeterBinder dataSourceMetrics(final NucleusStartup nucleusStartup) {
+        return registry -> nucleusStartup.whenStarted(() -> {
+            final Object dataSource = nucleusStartup.getGenericService(DATA_SOURCE_NAME);
+            if (dataSource instanceof MeterBinder) {
+                ((MeterBinder) dataSource).bindTo(registry);
+            }
+        });
+    }
+
+    /**
+     * Closes the Nucleus DataSource's pool when the context closes. NucleusStartup is registered as a ready-made
+     * singleton, so Spring runs no destroy callbacks on it. If Nucleus is still starting, the pool closes once it's up.
+     */
+    @Bean
+    public DisposableBean dataSourceShutdown(final NucleusStartup nucleusStartup) {
+        return () -> nucleusStartup.whenStarted(() -> {
+            final Object dataSource = nucleusStartup.getGenericService(DATA_SOURCE_NAME);
+            if (dataSource instanceof Closeable) {
+                try {
+                    ((Closeable) dataSource).close();
+                } catch (final IOException e) {
+                    log.warn("failed to close {}", DATA_SOURCE_NAME, e);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,32 @@
+package com.lordgasmic.wineservice.config;
+
+import com.lordgasmic.wineservice.service.DatabaseImageStore;
+import com.lordgasmic.wineservice.service.FileSystemImageStore;
+import com.lordgasmic.wineservice.service.ImageStore;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+
+@Configuration
+public class ImageStoreConfig {
+
+    @Value("${lordgasmic.image.store}")
+    private String store;
+
+    /**
+     * The store new renditions are written to. Both stores stay registered for reads.
+     */
+    @Bean
+    @Primary
+    public ImageStore imageStore(final DatabaseImageStore databaseImageStore, final FileSystemImageStore fileSystemImageStore) {
+        switch (store) {
+            case DatabaseImageStore.NAME:
+                return databaseImageStore;
+            case FileSystemImageStore.NAME:
+                return fileSystemImageStore;
+            default:
+                throw new IllegalArgumentException("unknown lordgasmic.image.store " + store);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.lordgasmic.wineservice.config;
+
+import com.lordgasmic.collections.Nucleus;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationListener;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Starts Nucleus (parsing the repository definitions and loading table metadata) on its own thread, in parallel with
+ * the Spring context, and hands out Nucleus components once it's up. Callers that get here first block until it is.
+ * <p>
+ * Registered as the {@code repository} health indicator, which the readiness group includes, so the readiness probe
+ * stays out of service until the repository is ready. Logs how long each startup phase took, measured from JVM start.
+ */
+@Slf4j
+public class NucleusStartup implements HealthIndicator, ApplicationListener<ApplicationReadyEvent> {
+    public static final String BEAN_NAME = "repository";
+
+    private final long jvmStart = ManagementFactory.getRuntimeMXBean().getStartTime();
+    private final CompletableFuture<Void> started;
+
+    private NucleusStartup() {
+        log.info("main reached {}ms after JVM start", sinceJvmStart());
+        started = new CompletableFuture<>();
+        final Thread thread = new Thread(this::start, "nucleus-start");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public static NucleusStartup begin() {
+        return new NucleusStartup();
+    }
+
+    private void start() {
+        final long start = System.currentTimeMillis();
+        try {
+            Nucleus.start();
+            log.info("Nucleus started in {}ms, {}ms after JVM start", System.currentTimeMillis() - start, sinceJvmStart());
+            started.complete(null);
+        } catch (final RuntimeException | Error e) {
+            log.error("Nucleus failed to start", e);
+            started.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * @return the named Nucleus component, waiting for Nucleus to finish starting if it hasn't
+     */
+    public Object getGenericService(final String name) {
+        try {
+            started.join();
+        } catch (final CompletionException e) {
+            throw new IllegalStateException("Nucleus failed to start", e.getCause());
+        }
+        return Nucleus.getInstance().getGenericService(name);
+    }
+
+    /**
+     * Runs {@code action} once Nucleus has started, right away if it already has; never if it failed.
+     */
+    public void whenStarted(final Runnable action) {
+        started.thenRun(action);
+    }
+
+    @Override
+    public Health health() {
+        if (!started.isDone()) {
+            return Health.outOfService().withDetail("nucleus", "starting").build();
+        }
+        if (started.isCompletedExceptionally()) {
+            return Health.down().withDetail("nucleus", "failed").build();
+        }
+        return Health.up().build();
+    }
+
+    @Override
+    public void onApplicationEvent(final ApplicationReadyEvent event) {
+        log.info("Spring context ready {}ms after JVM start, Nucleus {}", sinceJvmStart(), started.isDone() ? "already started" : "still starting");
+    }
+
+    private long sinceJvmStart() {
+        return System.currentTimeMillis() - jvmStart;
+    }
+}
@@ -4,6 +4,7 @@ import org.springframework.amqp.core.Binding;
 import org.springframework.amqp.core.Declarables;
 import org.springframework.amqp.core.DirectExchange;
 import org.springframework.amqp.core.Queue;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
 import org.springframework.amqp.rabbit.connection.ConnectionFactory;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
@@ -30,6 +31,21 @@ public class RabbitMQConfig {
     @Value("${lordgasmic.rabbitmq.routingKey2}")
     private String routingKey2;
 
+    @Value("${lordgasmic.rabbitmq.imageJobQueue}")
+    private String imageJobQueueName;
+
+    @Value("${lordgasmic.rabbitmq.imageJobRoutingKey}")
+    private String imageJobRoutingKey;
+
+    @Value("${lordgasmic.rabbitmq.imageJob.concurrency}")
+    private int imageJobConcurrency;
+
+    @Value("${lordgasmic.rabbitmq.imageJob.maxConcurrency}")
+    private int imageJobMaxConcurrency;
+
+    @Value("${lordgasmic.rabbitmq.imageJob.prefetch}")
+    private int imageJobPrefetch;
+
     @Bean
     public DirectExchange exchange() {
         return new DirectExchange(exchange);
@@ -37,13 +53,14 @@ public class RabbitMQConfig {
 
     @Bean
     public Declarables queues() {
-        return new Declarables(new Queue(queueName, false), new Queue(queue2Name, false));
+        return new Declarables(new Queue(queueName, false), new Queue(queue2Name, false), new Queue(imageJobQueueName, true));
     }
 
     @Bean
     public Declarables bindings() {
         return new Declarables(new Binding(queueName, Binding.DestinationType.QUEUE, exchange, routingKey, null),
-                               new Binding(queue2Name, Binding.DestinationType.QUEUE, exchange, routingKey2, null));
+                               new Binding(queue2Name, Binding.DestinationType.QUEUE, exchange, routingKey2, null),
+                               new Binding(imageJobQueueName, Binding.DestinationType.QUEUE, exchange, imageJobRoutingKey, null));
     }
 
     @Bean
@@ -57,4 +74,17 @@ public class RabbitMQConfig {
         rabbitTemplate.setMessageConverter(jsonMessageConverter());
         return rabbitTemplate;
     }
+
+    @Bean
+    public SimpleRabbitListenerContainerFactory imageJobListenerContainerFactory(final ConnectionFactory connectionFactory) {
+        final SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+        factory.setConnectionFactory(connectionFactory);
+        factory.setMessageConverter(jsonMessageConverter());
+        factory.setConcurrentConsumers(imageJobConcurrency);
+        factory.setMaxConcurrentConsumers(imageJobMaxConcurrency);
+        factory.setPrefetchCount(imageJobPrefetch);
+        // failures are recorded on the job row; requeueing would just replay the same failure
+        factory.setDefaultRequeueRejected(false);
+        return factory;
+    }
 }
@@ -0,0 +1,106 @@
+package com.lordgasmic.wineservice.config;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caps how many requests run at once when each one has its own virtual thread. Without a Tomcat pool in front, a burst
+ * of clients all reach the connection pool together, and those that wait longer than its {@code connectionTimeout}
+ * fail with a 500. Past the cap, requests park here, which costs a virtual thread almost nothing. A request that can't
+ * get in within {@code admissionTimeoutMillis} gets a 503 with a Retry-After header instead.
+ * <p>
+ * A request that goes async, such as an NDJSON export streamed from a {@code StreamingResponseBody}, keeps its permit
+ * until the async work completes, as that is when it holds a pooled connection.
+ */
+public class RequestConcurrencyFilter extends OncePerRequestFilter {
+    private final Semaphore permits;
+    private final long admissionTimeoutMillis;
+    private final AtomicLong rejected = new AtomicLong();
+
+    public RequestConcurrencyFilter(final int maxConcurrentRequests, final long admissionTimeoutMillis, final MeterRegistry meterRegistry) {
+        permits = new Semaphore(maxConcurrentRequests, true);
+        this.admissionTimeoutMillis = admissionTimeoutMillis;
+        Gauge.builder("wine.request.admission.available", permits, Semaphore::availablePermits).register(meterRegistry);
+        Gauge.builder("wine.request.admission.waiting", permits, Semaphore::getQueueLength).register(meterRegistry);
+        FunctionCounter.builder("wine.request.rejected", rejected, AtomicLong::get).register(meterRegistry);
+    }
+
+    @Override
+    protected void doFilterInternal(final HttpServletRequest request, final HttpServletResponse response, final FilterChain chain)
+            throws ServletException, IOException {
+        final boolean admitted;
+        try {
+            admitted = permits.tryAcquire(admissionTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServletException("interrupted waiting for a request slot", e);
+        }
+        if (!admitted) {
+            rejected.incrementAndGet();
+            response.setHeader(HttpHeaders.RETRY_AFTER, Long.toString(Math.max(1, TimeUnit.MILLISECONDS.toSeconds(admissionTimeoutMillis))));
+            response.sendError(HttpStatus.SERVICE_UNAVAILABLE.value(), "too many concurrent requests");
+            return;
+        }
+        final Permit permit = new Permit();
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            if (request.isAsyncStarted()) {
+                request.getAsyncContext().addListener(permit);
+            } else {
+                permit.release();
+            }
+        }
+    }
+
+    /**
+     * Releases one permit exactly once, whether the request finishes on its first dispatch or later through whichever
+     * of the async completion events arrives first.
+     */
+    private final class Permit implements AsyncListener {
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private void release() {
+            if (released.compareAndSet(false, true)) {
+                permits.release();
+            }
+        }
+
+        @Override
+        public void onComplete(final AsyncEvent event) {
+            release();
+        }
+
+        @Override
+        public void onTimeout(final AsyncEvent event) {
+            release();
+        }
+
+        @Override
+        public void onError(final AsyncEvent event) {
+            release();
+        }
+
+        @Override
+        public void onStartAsync(final AsyncEvent event) {
+            // async restarted from an async dispatch; listeners have to register again to hear how it ends
+            event.getAsyncContext().addListener(this);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.lordgasmic.wineservice.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.task.TaskExecutionAutoConfiguration;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+
+import java.util.concurrent.Executors;
+
+/**
+ * Opt-in with {@code lordgasmic.server.virtualThreads}: Tomcat runs each request, and with it every blocking
+ * repository and JDBC call it makes, on its own virtual thread instead of a bounded pool of platform threads, so
+ * concurrency is capped by the connection pool rather than by {@code server.tomcat.threads.max}. Async MVC work (the
+ * NDJSON exports) moves to virtual threads too.
+ * <p>
+ * The pool is still {@code maximumPoolSize} connections that give up after {@code connectionTimeout}, so a
+ * {@link RequestConcurrencyFilter} admits {@code maxConcurrentRequests} requests at a time and parks the rest. Keep it
+ * at a few times the pool size: enough to keep every connection busy, few enough that a request never waits out the
+ * connection timeout behind the others.
+ */
+@Configuration
+@ConditionalOnProperty(name = VirtualThreadConfig.PROPERTY, havingValue = "true")
+@Slf4j
+public class VirtualThreadConfig {
+    public static final String PROPERTY = "lordgasmic.server.virtualThreads";
+
+    @Bean
+    public TomcatProtocolHandlerCustomizer<?> virtualThreadProtocolHandler() {
+        log.info("handling requests on virtual threads");
+        return protocolHandler -> protocolHandler.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+    }
+
+    @Bean
+    public FilterRegistrationBean<RequestConcurrencyFilter> requestConcurrencyFilter(
+            @Value("${lordgasmic.server.virtualThreads.maxConcurrentRequests}") final int maxConcurrentRequests,
+            @Value("${lordgasmic.server.virtualThreads.admissionTimeoutMillis}") final long admissionTimeoutMillis,
+            final MeterRegistry meterRegistry) {
+        final FilterRegistrationBean<RequestConcurrencyFilter> registration =
+                new FilterRegistrationBean<>(new RequestConcurrencyFilter(maxConcurrentRequests, admissionTimeoutMillis, meterRegistry));
+        registration.setOrder(Ordered.HIGHEST_PRECEDENCE);
+        return registration;
+    }
+
+    @Bean(name = TaskExecutionAutoConfiguration.APPLICATION_TASK_EXECUTOR_BEAN_NAME)
+    public AsyncTaskExecutor applicationTaskExecutor() {
+        return new TaskExecutorAdapter(Executors.newVirtualThreadPerTaskExecutor());
+    }
+}
@@ -7,7 +7,12 @@ public class WineImageConstants {
     public static final String PROPERTY_LABEL = "label";
     public static final String PROPERTY_IMAGE = "image";
     public static final String PROPERTY_MIME_TYPE = "mimeType";
+    public static final String PROPERTY_CONTENT_HASH = "contentHash";
+    public static final String PROPERTY_REF_COUNT = "refCount";
+    public static final String PROPERTY_STORAGE_KEY = "storageKey";
+    public static final String PROPERTY_CONTENT_ID = "contentId";
 
     public static final String WINE_IMAGE_THUMBNAIL_ITEM_DESCRIPTOR_NAME = "wineImageThumbnail";
     public static final String PROPERTY_THUMBNAIL = "thumbnail";
+    public static final String PROPERTY_IMAGE_ID = "imageId";
 }
@@ -0,0 +1,14 @@
+package com.lordgasmic.wineservice.config;
+
+public class WineImageJobConstants {
+    public static final String WINE_IMAGE_JOB_ITEM_DESCRIPTOR_NAME = "wineImageJob";
+    public static final String PROPERTY_ID = "id";
+    public static final String PROPERTY_WINE_ID = "wineId";
+    public static final String PROPERTY_LABEL = "label";
+    public static final String PROPERTY_ORIGINAL = "original";
+    public static final String PROPERTY_MIME_TYPE = "mimeType";
+    public static final String PROPERTY_KEEP_ORIGINAL = "keepOriginal";
+    public static final String PROPERTY_STATUS = "status";
+    public static final String PROPERTY_IMAGE_ID = "imageId";
+    public static final String PROPERTY_ERROR = "error";
+}
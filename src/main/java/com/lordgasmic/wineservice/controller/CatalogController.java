@@ -0,0 +1,23 @@
+package com.lordgasmic.wineservice.controller;
+
+import com.lordgasmic.wineservice.models.CatalogCacheStats;
+import com.lordgasmic.wineservice.service.WineCatalogCache;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+@Slf4j
+public class CatalogController {
+
+    private final WineCatalogCache catalogCache;
+
+    public CatalogController(WineCatalogCache catalogCache) {
+        this.catalogCache = catalogCache;
+    }
+
+    @GetMapping("/api/v1/catalog/stats")
+    public CatalogCacheStats getStats() {
+        return catalogCache.getStats();
+    }
+}
@@ -0,0 +1,165 @@
+package com.lordgasmic.wineservice.controller;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Writes list responses column by column for clients that ask for {@value #COMPACT_JSON_VALUE}. Every list of objects
+ * in the response, at the top level or one field down (a page's {@code items}, a notes response's
+ * {@code wineNotes}), becomes a table:
+ * <pre>
+ * {"columns": ["id", "wineId", "user", "date", "rating"],
+ *  "dictionaries": {"user": ["alice", "bob"], "date": ["9/3/22"]},
+ *  "rows": [[1, 12, 0, 0, "check"], [2, 12, 1, 0, "check plus"]]}
+ * </pre>
+ * String columns that repeat values are dictionary-encoded: their cells are indexes into the column's dictionary.
+ * <p>
+ * Only written when the compact type is what was negotiated, so an endpoint offers it by listing it in its
+ * {@code produces}, after {@code application/json} so that clients accepting anything still get plain JSON.
+ */
+@Component
+public class CompactJsonHttpMessageConverter extends AbstractHttpMessageConverter<Object> {
+    public static final String COMPACT_JSON_VALUE = "application/vnd.lordgasmic.compact+json";
+    public static final MediaType COMPACT_JSON = MediaType.parseMediaType(COMPACT_JSON_VALUE);
+
+    private final ObjectMapper objectMapper;
+
+    public CompactJsonHttpMessageConverter(final ObjectMapper objectMapper) {
+        super(COMPACT_JSON);
+        this.objectMapper = objectMapper;
+    }
+
+    @Override
+    protected boolean supports(final Class<?> clazz) {
+        return true;
+    }
+
+    @Override
+    protected boolean canRead(final MediaType mediaType) {
+        return false;
+    }
+
+    @Override
+    protected boolean canWrite(final MediaType mediaType) {
+        return mediaType != null && COMPACT_JSON.equalsTypeAndSubtype(mediaType);
+    }
+
+    @Override
+    protected Object readInternal(final Class<?> clazz, final HttpInputMessage inputMessage) {
+        throw new HttpMessageNotReadableException("compact JSON is response-only", inputMessage);
+    }
+
+    @Override
+    protected void writeInternal(final Object body, final HttpOutputMessage outputMessage) throws IOException {
+        objectMapper.writeValue(outputMessage.getBody(), compact(objectMapper.valueToTree(body)));
+    }
+
+    public static JsonNode compact(final JsonNode node) {
+        if (isTable(node)) {
+            return table((ArrayNode) node);
+        }
+        if (node.isObject()) {
+            final ObjectNode compacted = JsonNodeFactory.instance.objectNode();
+            final Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+            while (fields.hasNext()) {
+                final Map.Entry<String, JsonNode> field = fields.next();
+                compacted.set(field.getKey(), isTable(field.getValue()) ? table((ArrayNode) field.getValue()) : field.getValue());
+            }
+            return compacted;
+        }
+        return node;
+    }
+
+    private static boolean isTable(final JsonNode node) {
+        if (!node.isArray()) {
+            return false;
+        }
+        for (final JsonNode element : node) {
+            if (!element.isObject()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static ObjectNode table(final ArrayNode items) {
+        final Set<String> names = new LinkedHashSet<>();
+        for (final JsonNode item : items) {
+            item.fieldNames().forEachRemaining(names::add);
+        }
+        final List<String> columns = new ArrayList<>(names);
+
+        final ObjectNode table = JsonNodeFactory.instance.objectNode();
+        final ArrayNode rows = JsonNodeFactory.instance.arrayNode(items.size());
+        for (final JsonNode item : items) {
+            final ArrayNode row = rows.addArray();
+            for (final String column : columns) {
+                row.add(item.path(column).isMissingNode() ? JsonNodeFactory.instance.nullNode() : item.get(column));
+            }
+        }
+
+        final ObjectNode dictionaries = JsonNodeFactory.instance.objectNode();
+        for (int c = 0; c < columns.size(); c++) {
+            final ArrayNode dictionary = dictionaryEncode(rows, c);
+            if (dictionary != null) {
+                dictionaries.set(columns.get(c), dictionary);
+            }
+        }
+
+        final ArrayNode columnNames = table.putArray("columns");
+        columns.forEach(columnNames::add);
+        table.set("dictionaries", dictionaries);
+        table.set("rows", rows);
+        return table;
+    }
+
+    /**
+     * Replaces column {@code c}'s cells with dictionary indexes if they are all strings (or null) and some repeat.
+     *
+     * @return the dictionary, or null if the column was left as-is
+     */
+    private static ArrayNode dictionaryEncode(final ArrayNode rows, final int c) {
+        final Map<String, Integer> indexes = new HashMap<>();
+        final ArrayNode dictionary = JsonNodeFactory.instance.arrayNode();
+        for (final JsonNode row : rows) {
+            final JsonNode cell = row.get(c);
+            if (cell.isNull()) {
+                continue;
+            }
+            if (!cell.isTextual()) {
+                return null;
+            }
+            if (indexes.putIfAbsent(cell.textValue(), indexes.size()) == null) {
+                dictionary.add(cell.textValue());
+            }
+        }
+        if (indexes.isEmpty() || indexes.size() == rows.size()) {
+            return null;
+        }
+        for (final JsonNode row : rows) {
+            final JsonNode cell = row.get(c);
+            if (!cell.isNull()) {
+                ((ArrayNode) row).set(c, JsonNodeFactory.instance.numberNode(indexes.get(cell.textValue())));
+            }
+        }
+        return dictionary;
+    }
+}
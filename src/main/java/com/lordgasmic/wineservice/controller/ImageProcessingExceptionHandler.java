@@ -0,0 +1,36 @@
+package com.lordgasmic.wineservice.controller;
+
+import com.lordgasmic.wineservice.service.ImageProcessingRejectedException;
+import com.lordgasmic.wineservice.service.InvalidImageUploadException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+import org.springframework.web.multipart.MaxUploadSizeExceededException;
+
+@RestControllerAdvice
+@Slf4j
+public class ImageProcessingExceptionHandler {
+
+    @ExceptionHandler(ImageProcessingRejectedException.class)
+    public ResponseEntity<String> handleRejected(final ImageProcessingRejectedException e) {
+        log.warn("rejecting upload: {}", e.getMessage());
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                             .header(HttpHeaders.RETRY_AFTER, Long.toString(e.getRetryAfterSeconds()))
+                             .body(e.getMessage());
+    }
+
+    @ExceptionHandler(InvalidImageUploadException.class)
+    public ResponseEntity<String> handleInvalid(final InvalidImageUploadException e) {
+        log.warn("rejecting upload: {}", e.getMessage());
+        return ResponseEntity.status(e.getStatus()).body(e.getMessage());
+    }
+
+    @ExceptionHandler(MaxUploadSizeExceededException.class)
+    public ResponseEntity<String> handleTooLarge(final MaxUploadSizeExceededException e) {
+        log.warn("rejecting upload: {}", e.getMessage());
+        return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).body("upload exceeds " + e.getMaxUploadSize() + " bytes");
+    }
+}
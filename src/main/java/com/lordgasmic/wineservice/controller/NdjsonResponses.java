@@ -0,0 +1,47 @@
+package com.lordgasmic.wineservice.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.lordgasmic.wineservice.service.WineTastingDataSource.RowConsumer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.sql.SQLException;
+
+/**
+ * Writes an export as newline-delimited JSON, one object per line, as each row is read, so the first bytes go out
+ * straight away and nothing holds the whole result.
+ */
+@Component
+@Slf4j
+public class NdjsonResponses {
+    private final ObjectMapper objectMapper;
+
+    public NdjsonResponses(final ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    public <T> ResponseEntity<StreamingResponseBody> stream(final Export<T> export) {
+        final StreamingResponseBody body = out -> {
+            try {
+                export.writeTo(row -> {
+                    out.write(objectMapper.writeValueAsBytes(row));
+                    out.write('\n');
+                });
+            } catch (final SQLException e) {
+                // the status is long gone by now; the client only sees the stream end early
+                log.error("export failed part way", e);
+                throw new IOException(e);
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(body);
+    }
+
+    @FunctionalInterface
+    public interface Export<T> {
+        void writeTo(RowConsumer<T> consumer) throws SQLException, IOException;
+    }
+}
@@ -0,0 +1,56 @@
+package com.lordgasmic.wineservice.controller;
+
+import com.lordgasmic.wineservice.service.DescriptorVersions;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.util.DigestUtils;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.context.request.WebRequest;
+
+import javax.servlet.http.HttpServletResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Weak ETags for read endpoints, built from the versions of the descriptors a response is read from plus the request's
+ * parameters and {@code Accept}, so an unchanged poll is answered 304 before anything touches the database.
+ */
+@Component
+public class VersionETags {
+    private final DescriptorVersions versions;
+
+    public VersionETags(final DescriptorVersions versions) {
+        this.versions = versions;
+    }
+
+    /**
+     * @return true if the client's copy is current, in which case the 304 is already set up and the handler should
+     *         return null; otherwise the ETag has been added to the response
+     */
+    public boolean checkNotModified(final WebRequest request, final String... descriptors) {
+        final StringBuilder etag = new StringBuilder("W/\"").append(versions.getEpoch());
+        for (final String descriptor : descriptors) {
+            etag.append('-').append(versions.getVersion(descriptor));
+        }
+        etag.append('-').append(digest(request)).append('"');
+
+        final HttpServletResponse response = ((ServletWebRequest) request).getResponse();
+        if (response != null) {
+            response.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+            // revalidate every time rather than trust a cached copy for some heuristic lifetime
+            response.setHeader(HttpHeaders.CACHE_CONTROL, "no-cache");
+        }
+        return request.checkNotModified(etag.toString());
+    }
+
+    private static String digest(final WebRequest request) {
+        final StringBuilder key = new StringBuilder(request.getDescription(false));
+        for (final Map.Entry<String, String[]> parameter : new TreeMap<>(request.getParameterMap()).entrySet()) {
+            key.append('&').append(parameter.getKey()).append('=').append(Arrays.toString(parameter.getValue()));
+        }
+        key.append('|').append(request.getHeader(HttpHeaders.ACCEPT));
+        return DigestUtils.md5DigestAsHex(key.toString().getBytes(StandardCharsets.UTF_8)).substring(0, 16);
+    }
+}
@@ -1,14 +1,20 @@
 package com.lordgasmic.wineservice.controller;
 
+import com.lordgasmic.wineservice.models.WineDetailResponse;
 import com.lordgasmic.wineservice.models.WineRequest;
 import com.lordgasmic.wineservice.models.WineResponse;
+import com.lordgasmic.wineservice.service.WineDetailService;
 import com.lordgasmic.wineservice.service.WineService;
+import com.lordgasmic.wineservice.service.WineTastingDataSource;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.sql.SQLException;
 import java.util.Optional;
@@ -18,15 +24,24 @@ import java.util.Optional;
 public class WineController {
 
     private final WineService service;
+    private final WineDetailService detailService;
+    private final NdjsonResponses ndjson;
 
-    public WineController(WineService service) {
+    public WineController(WineService service, WineDetailService detailService, NdjsonResponses ndjson) {
         this.service = service;
+        this.detailService = detailService;
+        this.ndjson = ndjson;
     }
 
     @GetMapping("/api/v1/wines")
     public Object getWines(@RequestParam("wineId") final Optional<String> wineId,
-                           @RequestParam("wineryId") final Optional<String> wineryId) throws SQLException {
+                           @RequestParam("wineryId") final Optional<String> wineryId,
+                           @RequestParam("after") final Optional<Integer> after,
+                           @RequestParam("limit") final Optional<Integer> limit) throws SQLException {
         if (wineId.isEmpty() && wineryId.isEmpty()) {
+            if (after.isPresent() || limit.isPresent()) {
+                return service.getWinesPage(after.orElse(0), limit.orElse(WineTastingDataSource.DEFAULT_PAGE_SIZE));
+            }
             return service.getAllWines();
         } else if (wineId.isPresent()) {
             System.out.println("wineid: " + wineId.get());
@@ -36,6 +51,16 @@ public class WineController {
         }
     }
 
+    @GetMapping(value = "/api/v1/wines", params = {"format=ndjson", "!wineId", "!wineryId"})
+    public ResponseEntity<StreamingResponseBody> streamWines(@RequestParam(value = "after", defaultValue = "0") final int after) {
+        return ndjson.stream(consumer -> service.streamWines(after, consumer));
+    }
+
+    @GetMapping("/api/v1/wines/{id}/detail")
+    public ResponseEntity<WineDetailResponse> getWineDetail(@PathVariable final int id) throws SQLException {
+        return ResponseEntity.of(detailService.getWineDetail(id));
+    }
+
     @PutMapping("/api/v1/wines")
     public WineResponse addWine(@RequestBody final WineRequest wineRequest) throws SQLException {
         return service.addWine(wineRequest);
@@ -1,25 +1,57 @@
 package com.lordgasmic.wineservice.controller;
 
+import com.lordgasmic.wineservice.models.ImageProcessingStats;
+import com.lordgasmic.wineservice.models.WineImage;
+import com.lordgasmic.wineservice.models.WineImageContent;
+import com.lordgasmic.wineservice.models.WineImageRendition;
 import com.lordgasmic.wineservice.models.WineImageResponse;
+import com.lordgasmic.wineservice.models.WineImageThumbnail;
+import com.lordgasmic.wineservice.models.WineImageThumbnailResponse;
+import com.lordgasmic.wineservice.service.ImageProcessingExecutor;
+import com.lordgasmic.wineservice.service.WineImageContentService;
 import com.lordgasmic.wineservice.service.WineImageService;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import javax.servlet.http.HttpServletRequest;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.sql.SQLException;
+import java.util.List;
+import java.util.Optional;
 
 @RestController
 @Slf4j
 public class WineImageController {
 
+    private static final String IMMUTABLE_CACHE_CONTROL = "public, max-age=31536000, immutable";
+    // Tomcat sends the named file straight from the page cache to the socket once the handler returns
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
     private WineImageService service;
+    private WineImageContentService contentService;
+    private ImageProcessingExecutor imageProcessingExecutor;
 
-    public WineImageController(WineImageService service) {
+    public WineImageController(WineImageService service, WineImageContentService contentService, ImageProcessingExecutor imageProcessingExecutor) {
         this.service = service;
+        this.contentService = contentService;
+        this.imageProcessingExecutor = imageProcessingExecutor;
     }
 
     @PutMapping("/api/v1/wineImages")
@@ -30,7 +62,157 @@ public class WineImageController {
     }
 
     @GetMapping("/api/v1/wineImages")
-    public WineImageResponse getWineImages(@RequestParam("wineId") final int wineId) throws SQLException {
+    public Object getWineImages(@RequestParam("wineId") final int wineId,
+                                @RequestParam(value = "metadataOnly", defaultValue = "false") final boolean metadataOnly) throws SQLException {
+        if (metadataOnly) {
+            return service.getWineImageMetadata(wineId);
+        }
         return service.getWineImages(wineId);
     }
+
+    @GetMapping("/api/v1/wineImages/processing/stats")
+    public ImageProcessingStats getImageProcessingStats() {
+        return imageProcessingExecutor.getStats();
+    }
+
+    @GetMapping("/api/v1/wineImages/{id}")
+    public WineImage getWineImage(@PathVariable final int id) throws SQLException {
+        return service.getWineImage(id);
+    }
+
+    @DeleteMapping("/api/v1/wineImages/{id}")
+    public ResponseEntity<Void> deleteWineImage(@PathVariable final int id) throws SQLException {
+        return service.deleteWineImage(id) ? ResponseEntity.noContent().build() : ResponseEntity.notFound().build();
+    }
+
+    @GetMapping("/api/v1/wineImages/{id}/content")
+    public ResponseEntity<StreamingResponseBody> getWineImageContent(@PathVariable final int id,
+                                                                     @RequestHeader final HttpHeaders headers,
+                                                                     final HttpServletRequest request) throws SQLException, IOException {
+        return serveContent(id, WineImageRendition.IMAGE, headers, request);
+    }
+
+    @GetMapping("/api/v1/wineImages/thumbnails")
+    public WineImageThumbnailResponse getWineImageThumbnails(@RequestParam("wineId") final int wineId) throws SQLException {
+        return service.getWineImageThumbnails(wineId);
+    }
+
+    @GetMapping("/api/v1/wineImages/thumbnails/{id}")
+    public WineImageThumbnail getWineImageThumbnail(@PathVariable final int id) throws SQLException {
+        return service.getWineImageThumbnail(id);
+    }
+
+    @GetMapping("/api/v1/wineImages/thumbnails/{id}/content")
+    public ResponseEntity<StreamingResponseBody> getWineImageThumbnailContent(@PathVariable final int id,
+                                                                              @RequestHeader final HttpHeaders headers,
+                                                                              final HttpServletRequest request) throws SQLException, IOException {
+        return serveContent(id, WineImageRendition.THUMBNAIL, headers, request);
+    }
+
+    private ResponseEntity<StreamingResponseBody> serveContent(final int id,
+                                                               final WineImageRendition rendition,
+                                                               final HttpHeaders requestHeaders,
+                                                               final HttpServletRequest request) throws SQLException, IOException {
+        final Optional<WineImageContent> optional = contentService.getContent(id, rendition);
+        if (optional.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+
+        final WineImageContent content = optional.get();
+        final MediaType stored = content.getMimeType() == null ? MediaType.APPLICATION_OCTET_STREAM : MediaType.parseMediaType(content.getMimeType());
+        // an empty representation has nothing to transcode
+        final Optional<MediaType> transcodeTo = content.getLength() == 0 ? Optional.empty() : contentService.negotiate(stored, accept(requestHeaders));
+        // each encoding is its own representation to caches
+        final String etag = '"' + content.getHash() + transcodeTo.map(type -> '-' + type.getSubtype()).orElse("") + '"';
+        final HttpHeaders headers = new HttpHeaders();
+        headers.setETag(etag);
+        headers.setCacheControl(IMMUTABLE_CACHE_CONTROL);
+        headers.setVary(List.of(HttpHeaders.ACCEPT));
+        headers.set(HttpHeaders.ACCEPT_RANGES, "bytes");
+
+        final List<String> ifNoneMatch = requestHeaders.getIfNoneMatch();
+        if (ifNoneMatch.contains(etag) || ifNoneMatch.contains("*")) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).headers(headers).build();
+        }
+
+        headers.setContentType(transcodeTo.orElse(stored));
+        final byte[] transcoded = transcodeTo.isPresent() ? contentService.transcode(content, transcodeTo.get()) : null;
+        final long length = transcoded == null ? content.getLength() : transcoded.length;
+
+        // an empty representation has no byte to range over; the full (empty) body answers any Range
+        if (length == 0) {
+            headers.setContentLength(0);
+            return ResponseEntity.ok().headers(headers).build();
+        }
+
+        final String ifRange = requestHeaders.getFirst(HttpHeaders.IF_RANGE);
+        List<HttpRange> ranges;
+        try {
+            ranges = ifRange == null || ifRange.equals(etag) ? requestHeaders.getRange() : List.of();
+        } catch (final IllegalArgumentException e) {
+            // RFC 7233 3.1: a Range header that doesn't parse is ignored
+            log.debug("ignoring invalid Range {}", requestHeaders.getFirst(HttpHeaders.RANGE));
+            ranges = List.of();
+        }
+
+        // multiple ranges are rare for images; answering with the full body is allowed and keeps this single-part
+        if (ranges.size() != 1) {
+            headers.setContentLength(length);
+            return body(ResponseEntity.ok().headers(headers), content, transcoded, 0, length - 1, request);
+        }
+
+        // well formed but past the end of the content, e.g. bytes=500- of a 100-byte image
+        final long start = ranges.get(0).getRangeStart(length);
+        final long end = ranges.get(0).getRangeEnd(length);
+        if (start >= length || start > end) {
+            return unsatisfiableRange(length);
+        }
+        headers.set(HttpHeaders.CONTENT_RANGE, "bytes " + start + '-' + end + '/' + length);
+        headers.setContentLength(end - start + 1);
+        return body(ResponseEntity.status(HttpStatus.PARTIAL_CONTENT).headers(headers), content, transcoded, start, end, request);
+    }
+
+    private static List<MediaType> accept(final HttpHeaders requestHeaders) {
+        try {
+            return requestHeaders.getAccept();
+        } catch (final IllegalArgumentException e) {
+            // as with Range, an Accept that doesn't parse is treated as absent
+            log.debug("ignoring invalid Accept {}", requestHeaders.getFirst(HttpHeaders.ACCEPT));
+            return List.of();
+        }
+    }
+
+    /**
+     * @param transcoded the content re-encoded for this request, or null to serve it as stored
+     */
+    private ResponseEntity<StreamingResponseBody> body(final ResponseEntity.BodyBuilder builder,
+                                                       final WineImageContent content,
+                                                       final byte[] transcoded,
+                                                       final long start,
+                                                       final long end,
+                                                       final HttpServletRequest request) {
+        if (transcoded != null) {
+            return builder.body(out -> out.write(transcoded, (int) start, (int) (end - start + 1)));
+        }
+        if (contentService.isOnFileSystem(content) && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+            request.setAttribute(SENDFILE_FILENAME, contentService.getPath(content).toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_START, start);
+            // exclusive, unlike the Range header
+            request.setAttribute(SENDFILE_END, end + 1);
+            return builder.build();
+        }
+        return builder.body(out -> writeContent(content, start, end, out));
+    }
+
+    private void writeContent(final WineImageContent content, final long start, final long end, final OutputStream out) throws IOException {
+        try {
+            contentService.writeContent(content, start, end, out);
+        } catch (final SQLException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static ResponseEntity<StreamingResponseBody> unsatisfiableRange(final long length) {
+        return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE).header(HttpHeaders.CONTENT_RANGE, "bytes */" + length).build();
+    }
 }
@@ -0,0 +1,40 @@
+package com.lordgasmic.wineservice.controller;
+
+import com.lordgasmic.wineservice.models.WineImageJobResponse;
+import com.lordgasmic.wineservice.service.WineImageJobService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.sql.SQLException;
+
+@RestController
+@Slf4j
+public class WineImageJobController {
+
+    private final WineImageJobService service;
+
+    public WineImageJobController(WineImageJobService service) {
+        this.service = service;
+    }
+
+    @PutMapping("/api/v1/wineImages/jobs")
+    public ResponseEntity<WineImageJobResponse> submitWineImage(@RequestParam("wineId") final int wineId,
+                                                                @RequestParam("label") final String label,
+                                                                @RequestParam("imageFile") final MultipartFile imageFile,
+                                                                @RequestParam(value = "keepOriginal", defaultValue = "false") final boolean keepOriginal) throws IOException, SQLException {
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(service.submit(wineId, label, imageFile, keepOriginal));
+    }
+
+    @GetMapping("/api/v1/wineImages/jobs/{jobId}")
+    public ResponseEntity<WineImageJobResponse> getWineImageJob(@PathVariable final int jobId) throws SQLException {
+        return ResponseEntity.of(service.getJob(jobId));
+    }
+}
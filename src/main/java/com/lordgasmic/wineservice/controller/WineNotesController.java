@@ -1,43 +1,84 @@
 package com.lordgasmic.wineservice.controller;
 
+import com.lordgasmic.wineservice.models.PageResponse;
+import com.lordgasmic.wineservice.models.WineNoteBatchItem;
+import com.lordgasmic.wineservice.models.WineNoteOutput;
 import com.lordgasmic.wineservice.models.WineNoteRequest;
+import com.lordgasmic.wineservice.models.WineQuery;
 import com.lordgasmic.wineservice.service.WineNotesService;
+import com.lordgasmic.wineservice.service.WineTastingDataSource;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.sql.SQLException;
+import java.util.List;
 import java.util.Optional;
 
+import static com.lordgasmic.wineservice.config.WineConstants.WINE_REPOSITORY_ITEM;
+import static com.lordgasmic.wineservice.config.WineNotesConstants.WINE_NOTES_REPOSITORY_ITEM;
+import static com.lordgasmic.wineservice.controller.CompactJsonHttpMessageConverter.COMPACT_JSON_VALUE;
+
 @RestController
 @Slf4j
 public class WineNotesController {
 
     private WineNotesService service;
+    private NdjsonResponses ndjson;
+    private VersionETags etags;
 
-    public WineNotesController(WineNotesService service) {
+    public WineNotesController(WineNotesService service, NdjsonResponses ndjson, VersionETags etags) {
         this.service = service;
+        this.ndjson = ndjson;
+        this.etags = etags;
     }
 
-    @GetMapping("/api/v1/wineNotes")
+    @GetMapping(value = "/api/v1/wineNotes", produces = {MediaType.APPLICATION_JSON_VALUE, COMPACT_JSON_VALUE})
     public Object getWineNotes(@RequestParam("user") final Optional<String> user,
-                               @RequestParam("wineId") final Optional<Integer> wineId) throws SQLException {
-        if (user.isEmpty() && wineId.isEmpty()) {
-            return service.getAllWineNotes();
-        } else if (user.isPresent() && wineId.isPresent()) {
-            return service.getWineNotesByWineIdByUser(wineId.get(), user.get());
-        } else if (wineId.isPresent()) {
-            return service.getWineNotesByWineId(wineId.get());
-        } else {
-            return service.getWineNotesByUser(user.get());
+                               @RequestParam("wineId") final Optional<Integer> wineId,
+                               @RequestParam("after") final Optional<Integer> after,
+                               @RequestParam("limit") final Optional<Integer> limit,
+                               final WebRequest request) throws SQLException {
+        if (etags.checkNotModified(request, WINE_NOTES_REPOSITORY_ITEM)) {
+            return null;
+        }
+        if (user.isEmpty() && wineId.isEmpty() && (after.isPresent() || limit.isPresent())) {
+            return service.getWineNotesPage(after.orElse(0), limit.orElse(WineTastingDataSource.DEFAULT_PAGE_SIZE));
+        }
+        final WineQuery query = new WineQuery();
+        query.setUser(user.orElse(null));
+        query.setWineId(wineId.orElse(null));
+        return service.findWineNotes(query);
+    }
+
+    @GetMapping(value = "/api/v1/wineNotes/search", produces = {MediaType.APPLICATION_JSON_VALUE, COMPACT_JSON_VALUE})
+    public PageResponse<WineNoteOutput> searchWineNotes(final WineQuery query, final WebRequest request) throws SQLException {
+        // winery and style filters read the wine too
+        if (etags.checkNotModified(request, WINE_NOTES_REPOSITORY_ITEM, WINE_REPOSITORY_ITEM)) {
+            return null;
         }
+        return service.searchWineNotes(query);
+    }
+
+    @GetMapping(value = "/api/v1/wineNotes", params = {"format=ndjson", "!user", "!wineId"})
+    public ResponseEntity<StreamingResponseBody> streamWineNotes(@RequestParam(value = "after", defaultValue = "0") final int after) {
+        return ndjson.stream(consumer -> service.streamWineNotes(after, consumer));
     }
 
     @PutMapping("/api/v1/wineNotes")
     public Object addWineNotes(@RequestBody final WineNoteRequest wineNoteRequest) throws SQLException {
         return service.addWineNotes(wineNoteRequest);
     }
+
+    @PutMapping("/api/v1/wineNotes/batch")
+    public Object saveWineNotes(@RequestBody final List<WineNoteBatchItem> items) throws SQLException {
+        return service.saveWineNotes(items);
+    }
 }
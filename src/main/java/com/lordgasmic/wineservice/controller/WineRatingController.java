@@ -1,42 +1,82 @@
 package com.lordgasmic.wineservice.controller;
 
+import com.lordgasmic.wineservice.models.PageResponse;
+import com.lordgasmic.wineservice.models.RatingSummary;
 import com.lordgasmic.wineservice.models.WineFriendsRequest;
+import com.lordgasmic.wineservice.models.WineQuery;
 import com.lordgasmic.wineservice.models.WineRatingEditRequest;
 import com.lordgasmic.wineservice.models.WineRatingRequest;
+import com.lordgasmic.wineservice.models.WineRatingResponse;
+import com.lordgasmic.wineservice.service.WineRatingAggregates;
 import com.lordgasmic.wineservice.service.WineRatingService;
+import com.lordgasmic.wineservice.service.WineTastingDataSource;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.sql.SQLException;
+import java.util.List;
 import java.util.Optional;
 
+import static com.lordgasmic.wineservice.config.WineConstants.WINE_REPOSITORY_ITEM;
+import static com.lordgasmic.wineservice.config.WineRatingConstants.WINE_RATING_REPOSITORY_ITEM;
+import static com.lordgasmic.wineservice.controller.CompactJsonHttpMessageConverter.COMPACT_JSON_VALUE;
+
 @RestController
 @Slf4j
 public class WineRatingController {
 
     private WineRatingService service;
+    private WineRatingAggregates aggregates;
+    private NdjsonResponses ndjson;
+    private VersionETags etags;
 
-    public WineRatingController(WineRatingService service) {
+    public WineRatingController(WineRatingService service, WineRatingAggregates aggregates, NdjsonResponses ndjson, VersionETags etags) {
         this.service = service;
+        this.aggregates = aggregates;
+        this.ndjson = ndjson;
+        this.etags = etags;
     }
 
-    @GetMapping("/api/v1/wineRating")
+    @GetMapping(value = "/api/v1/wineRating", produces = {MediaType.APPLICATION_JSON_VALUE, COMPACT_JSON_VALUE})
     public Object getWineRating(@RequestParam("user") final Optional<String> user,
-                                @RequestParam("wineId") final Optional<Integer> wineId) throws SQLException {
-        if (user.isEmpty() && wineId.isEmpty()) {
-            return service.getAllWineRatings();
-        } else if (wineId.isPresent() && user.isPresent()) {
-            return service.getWineRatingsByWineIdByUser(wineId.get(), user.get());
-        } else if (wineId.isPresent()) {
-            return service.getWineRatingByWineId(wineId.get());
-        } else {
-            return service.getWineRatingsByUser(user.get());
+                                @RequestParam("wineId") final Optional<Integer> wineId,
+                                @RequestParam("after") final Optional<Integer> after,
+                                @RequestParam("limit") final Optional<Integer> limit,
+                                final WebRequest request) throws SQLException {
+        if (etags.checkNotModified(request, WINE_RATING_REPOSITORY_ITEM)) {
+            return null;
+        }
+        if (user.isEmpty() && wineId.isEmpty() && (after.isPresent() || limit.isPresent())) {
+            return service.getWineRatingsPage(after.orElse(0), limit.orElse(WineTastingDataSource.DEFAULT_PAGE_SIZE));
+        }
+        final WineQuery query = new WineQuery();
+        query.setUser(user.orElse(null));
+        query.setWineId(wineId.orElse(null));
+        return service.findWineRatings(query);
+    }
+
+    @GetMapping(value = "/api/v1/wineRating/search", produces = {MediaType.APPLICATION_JSON_VALUE, COMPACT_JSON_VALUE})
+    public PageResponse<WineRatingResponse> searchWineRatings(final WineQuery query, final WebRequest request) throws SQLException {
+        // winery and style filters read the wine too
+        if (etags.checkNotModified(request, WINE_RATING_REPOSITORY_ITEM, WINE_REPOSITORY_ITEM)) {
+            return null;
         }
+        return service.searchWineRatings(query);
+    }
+
+    @GetMapping(value = "/api/v1/wineRating", params = {"format=ndjson", "!user", "!wineId"})
+    public ResponseEntity<StreamingResponseBody> streamWineRatings(@RequestParam(value = "after", defaultValue = "0") final int after) {
+        return ndjson.stream(consumer -> service.streamWineRatings(after, consumer));
     }
 
     @PutMapping("/api/v1/wineRating")
@@ -44,7 +84,12 @@ public class WineRatingController {
         return service.addWineRating(wineRatingRequest);
     }
 
-    @PostMapping("/api/v1/wineRating")
+    @PutMapping("/api/v1/wineRating/batch")
+    public Object addWineRatings(@RequestBody final List<WineRatingRequest> requests) throws SQLException {
+        return service.addWineRatings(requests);
+    }
+
+    @PostMapping(value = "/api/v1/wineRating", produces = {MediaType.APPLICATION_JSON_VALUE, COMPACT_JSON_VALUE})
     public Object getWineRatingByUsersByWineIds(@RequestBody final WineFriendsRequest request) throws SQLException {
         return service.getWineRatingsByUsersByWineIds(request);
     }
@@ -53,4 +98,20 @@ public class WineRatingController {
     public Object editWineRating(@RequestBody final WineRatingEditRequest request) throws SQLException {
         return service.editWineRating(request);
     }
+
+    @GetMapping("/api/v1/wineRating/summary/wines/{wineId}")
+    public ResponseEntity<RatingSummary> getWineRatingSummary(@PathVariable final int wineId) throws SQLException {
+        return ResponseEntity.of(aggregates.getWineSummary(wineId));
+    }
+
+    @GetMapping("/api/v1/wineRating/summary/users/{user}")
+    public ResponseEntity<RatingSummary> getUserRatingSummary(@PathVariable final String user) throws SQLException {
+        return ResponseEntity.of(aggregates.getUserSummary(user));
+    }
+
+    @GetMapping("/api/v1/wineRating/summary/top")
+    public List<RatingSummary> getTopRatedWines(@RequestParam(value = "limit", defaultValue = "10") final int limit,
+                                                @RequestParam(value = "minCount", defaultValue = "1") final int minCount) throws SQLException {
+        return aggregates.getTopWines(limit, minCount);
+    }
 }
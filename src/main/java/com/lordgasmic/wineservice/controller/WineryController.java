@@ -2,32 +2,47 @@ package com.lordgasmic.wineservice.controller;
 
 import com.lordgasmic.wineservice.models.WineryRequest;
 import com.lordgasmic.wineservice.models.WineryResponse;
+import com.lordgasmic.wineservice.service.WineTastingDataSource;
 import com.lordgasmic.wineservice.service.WineryService;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.sql.SQLException;
-import java.util.List;
+import java.util.Optional;
 
 @RestController
 @Slf4j
 public class WineryController {
 
     private final WineryService service;
+    private final NdjsonResponses ndjson;
 
-    public WineryController(WineryService service) {
+    public WineryController(WineryService service, NdjsonResponses ndjson) {
         this.service = service;
+        this.ndjson = ndjson;
     }
 
     @GetMapping("/api/v1/wineries")
-    public List<WineryResponse> getWineries() throws SQLException {
+    public Object getWineries(@RequestParam("after") final Optional<Integer> after,
+                              @RequestParam("limit") final Optional<Integer> limit) throws SQLException {
+        if (after.isPresent() || limit.isPresent()) {
+            return service.getWineriesPage(after.orElse(0), limit.orElse(WineTastingDataSource.DEFAULT_PAGE_SIZE));
+        }
         return service.getWineries();
     }
 
+    @GetMapping(value = "/api/v1/wineries", params = "format=ndjson")
+    public ResponseEntity<StreamingResponseBody> streamWineries(@RequestParam(value = "after", defaultValue = "0") final int after) {
+        return ndjson.stream(consumer -> service.streamWineries(after, consumer));
+    }
+
     @GetMapping("/api/v1/wineries/{id}")
     public WineryResponse getWineryById(@PathVariable final String id) throws SQLException {
         return service.getWineryById(id);
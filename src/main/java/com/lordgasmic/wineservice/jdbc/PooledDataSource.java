@@ -0,0 +1,162 @@
+package com.lordgasmic.wineservice.jdbc;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.logging.Logger;
+
+/**
+ * A HikariCP connection pool for the Nucleus {@code DataSource} component, configured in
+ * {@code collections-config/jdbc/DataSource.properties} with the same host, database and credentials as the
+ * MySqlDataSource it replaces, so the GSARepository and WineTastingDataSource pick it up unchanged.
+ * <p>
+ * Nucleus sets properties one at a time with no completion callback, so the pool is built on first use. MariaDB
+ * Connector/J caches server-side prepared statements per connection, and rewrites batched inserts into multi-row
+ * statements. Pool meters ({@code hikaricp.connections.active}, {@code .idle}, {@code .pending}, {@code .acquire}, ...)
+ * are registered once the application binds a registry, and the application closes the pool on shutdown.
+ */
+@Getter
+@Setter
+@Slf4j
+public class PooledDataSource implements DataSource, MeterBinder, Closeable {
+    private String host;
+    private String database;
+    private String username;
+    private String password;
+
+    private String poolName = "WineTastingPool";
+    private int minimumIdle = 2;
+    private int maximumPoolSize = 10;
+    private long connectionTimeout = 5000;
+    private long validationTimeout = 2000;
+    private long idleTimeout = 600000;
+    private long maxLifetime = 1800000;
+    private long socketTimeout = 60000;
+
+    private boolean useServerPrepStmts = true;
+    private boolean cachePrepStmts = true;
+    private int prepStmtCacheSize = 250;
+    private int prepStmtCacheSqlLimit = 2048;
+    private boolean rewriteBatchedStatements = true;
+
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private HikariDataSource pool;
+
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private MeterRegistry meterRegistry;
+
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private boolean closed;
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return pool().getConnection();
+    }
+
+    @Override
+    public Connection getConnection(final String username, final String password) throws SQLException {
+        throw new SQLFeatureNotSupportedException("the pool connects as " + this.username);
+    }
+
+    @Override
+    public synchronized void bindTo(final MeterRegistry registry) {
+        meterRegistry = registry;
+        if (pool != null) {
+            pool.setMetricRegistry(registry);
+        }
+    }
+
+    /**
+     * Closes the pool, if it was ever built, waiting for borrowed connections to come back. Later calls fail rather
+     * than opening a new pool.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        if (pool != null) {
+            pool.close();
+            log.info("closed pool {}", poolName);
+        }
+    }
+
+    private synchronized HikariDataSource pool() {
+        if (closed && pool == null) {
+            throw new IllegalStateException("pool " + poolName + " is closed");
+        }
+        if (pool == null) {
+            final HikariConfig config = new HikariConfig();
+            config.setPoolName(poolName);
+            config.setJdbcUrl(host + "/" + database);
+            config.setUsername(username);
+            config.setPassword(password);
+            config.setMinimumIdle(minimumIdle);
+            config.setMaximumPoolSize(maximumPoolSize);
+            config.setConnectionTimeout(connectionTimeout);
+            config.setValidationTimeout(validationTimeout);
+            config.setIdleTimeout(idleTimeout);
+            config.setMaxLifetime(maxLifetime);
+            config.addDataSourceProperty("socketTimeout", socketTimeout);
+            config.addDataSourceProperty("useServerPrepStmts", useServerPrepStmts);
+            config.addDataSourceProperty("cachePrepStmts", cachePrepStmts);
+            config.addDataSourceProperty("prepStmtCacheSize", prepStmtCacheSize);
+            config.addDataSourceProperty("prepStmtCacheSqlLimit", prepStmtCacheSqlLimit);
+            config.addDataSourceProperty("rewriteBatchedStatements", rewriteBatchedStatements);
+            if (meterRegistry != null) {
+                config.setMetricRegistry(meterRegistry);
+            }
+            pool = new HikariDataSource(config);
+            log.info("started pool {} for {}/{}, {}-{} connections", poolName, host, database, minimumIdle, maximumPoolSize);
+        }
+        return pool;
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return pool().getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(final PrintWriter out) throws SQLException {
+        pool().setLogWriter(out);
+    }
+
+    @Override
+    public void setLoginTimeout(final int seconds) throws SQLException {
+        pool().setLoginTimeout(seconds);
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return pool().getLoginTimeout();
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        return Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+    }
+
+    @Override
+    public <T> T unwrap(final Class<T> type) throws SQLException {
+        return type.isInstance(this) ? type.cast(this) : pool().unwrap(type);
+    }
+
+    @Override
+    public boolean isWrapperFor(final Class<?> type) throws SQLException {
+        return type.isInstance(this) || pool().isWrapperFor(type);
+    }
+}
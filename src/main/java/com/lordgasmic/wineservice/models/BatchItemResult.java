@@ -0,0 +1,16 @@
+package com.lordgasmic.wineservice.models;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BatchItemResult<T> {
+    // position of the item in the request
+    private int index;
+    private BatchItemStatus status;
+    private T item;
+    private String error;
+}
@@ -0,0 +1,9 @@
+package com.lordgasmic.wineservice.models;
+
+public enum BatchItemStatus {
+    CREATED,
+    UPDATED,
+    UNCHANGED,
+    FAILED,
+    ROLLED_BACK
+}
@@ -0,0 +1,15 @@
+package com.lordgasmic.wineservice.models;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BatchResponse<T> {
+    private boolean committed;
+    private List<BatchItemResult<T>> results;
+}
@@ -0,0 +1,12 @@
+package com.lordgasmic.wineservice.models;
+
+import lombok.Data;
+
+@Data
+public class CatalogCacheStats {
+    private long hits;
+    private long misses;
+    private int wineries;
+    private int wines;
+    private long loadedAt;
+}
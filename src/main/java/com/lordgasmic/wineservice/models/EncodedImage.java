@@ -0,0 +1,13 @@
+package com.lordgasmic.wineservice.models;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class EncodedImage {
+    private byte[] bytes;
+    private String mimeType;
+}
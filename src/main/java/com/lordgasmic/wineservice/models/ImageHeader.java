@@ -0,0 +1,15 @@
+package com.lordgasmic.wineservice.models;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ImageHeader {
+    private String formatName;
+    private String mimeType;
+    private int width;
+    private int height;
+}
@@ -0,0 +1,15 @@
+package com.lordgasmic.wineservice.models;
+
+import lombok.Data;
+
+@Data
+public class ImageProcessingStats {
+    private int threads;
+    private int activeWorkers;
+    private int queueDepth;
+    private int queueCapacity;
+    private long completedJobs;
+    private long rejectedJobs;
+    private double meanJobMillis;
+    private double maxJobMillis;
+}
@@ -0,0 +1,16 @@
+package com.lordgasmic.wineservice.models;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class PageResponse<T> {
+    private List<T> items;
+    // pass as `after` to get the next page; null on the last page
+    private Integer next;
+}
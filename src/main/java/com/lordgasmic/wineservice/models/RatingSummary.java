@@ -0,0 +1,17 @@
+package com.lordgasmic.wineservice.models;
+
+import lombok.Data;
+
+import java.util.Map;
+
+@Data
+public class RatingSummary {
+    private Integer wineId;
+    private String user;
+    private long count;
+    private long unscored;
+    private Double mean;
+    private Integer min;
+    private Integer max;
+    private Map<String, Long> histogram;
+}
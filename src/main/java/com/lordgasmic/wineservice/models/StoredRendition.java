@@ -0,0 +1,13 @@
+package com.lordgasmic.wineservice.models;
+
+import lombok.Value;
+
+/**
+ * Where an {@link com.lordgasmic.wineservice.service.ImageStore ImageStore} put a rendition: the column of the
+ * rendition's view that finds it again, and the value to insert there.
+ */
+@Value
+public class StoredRendition {
+    String column;
+    Object value;
+}
@@ -0,0 +1,14 @@
+package com.lordgasmic.wineservice.models;
+
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+public class WineDetailResponse {
+    private WineResponse wine;
+    private WineryResponse winery;
+    private List<WineNoteOutput> wineNotes;
+    private List<WineRatingResponse> wineRatings;
+    private List<WineImageMetadata> wineImages;
+}
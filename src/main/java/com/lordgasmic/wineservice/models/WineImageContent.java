@@ -0,0 +1,13 @@
+package com.lordgasmic.wineservice.models;
+
+import lombok.Data;
+
+@Data
+public class WineImageContent {
+    private int id;
+    private WineImageRendition rendition;
+    private String mimeType;
+    private long length;
+    private String hash;
+    private String storageKey;
+}
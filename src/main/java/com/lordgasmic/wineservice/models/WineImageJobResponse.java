@@ -0,0 +1,13 @@
+package com.lordgasmic.wineservice.models;
+
+import lombok.Data;
+
+@Data
+public class WineImageJobResponse {
+    private int jobId;
+    private int wineId;
+    private String label;
+    private WineImageJobStatus status;
+    private Integer imageId;
+    private String error;
+}
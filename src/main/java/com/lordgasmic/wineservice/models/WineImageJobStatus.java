@@ -0,0 +1,8 @@
+package com.lordgasmic.wineservice.models;
+
+public enum WineImageJobStatus {
+    PENDING,
+    PROCESSING,
+    DONE,
+    FAILED
+}
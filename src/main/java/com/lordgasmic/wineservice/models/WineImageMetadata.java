@@ -0,0 +1,13 @@
+package com.lordgasmic.wineservice.models;
+
+import lombok.Data;
+
+@Data
+public class WineImageMetadata {
+    private int id;
+    private int wineId;
+    private String label;
+    private String mimeType;
+    private String imageUrl;
+    private String thumbnailUrl;
+}
@@ -0,0 +1,10 @@
+package com.lordgasmic.wineservice.models;
+
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+public class WineImageMetadataResponse {
+    private List<WineImageMetadata> wineImages;
+}
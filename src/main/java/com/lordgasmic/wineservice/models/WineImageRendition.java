@@ -0,0 +1,36 @@
+package com.lordgasmic.wineservice.models;
+
+import com.lordgasmic.wineservice.config.WineImageConstants;
+
+public enum WineImageRendition {
+    IMAGE("wine_image_vw", "image", WineImageConstants.PROPERTY_IMAGE, WineImageConstants.WINE_IMAGE_ITEM_DESCRIPTOR_NAME),
+    THUMBNAIL("wine_image_thumbnail_vw", "thumbnail", WineImageConstants.PROPERTY_THUMBNAIL, WineImageConstants.WINE_IMAGE_THUMBNAIL_ITEM_DESCRIPTOR_NAME);
+
+    private final String view;
+    private final String column;
+    private final String property;
+    private final String descriptor;
+
+    WineImageRendition(final String view, final String column, final String property, final String descriptor) {
+        this.view = view;
+        this.column = column;
+        this.property = property;
+        this.descriptor = descriptor;
+    }
+
+    public String getView() {
+        return view;
+    }
+
+    public String getColumn() {
+        return column;
+    }
+
+    public String getProperty() {
+        return property;
+    }
+
+    public String getDescriptor() {
+        return descriptor;
+    }
+}
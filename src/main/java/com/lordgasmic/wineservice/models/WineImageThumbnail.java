@@ -0,0 +1,13 @@
+package com.lordgasmic.wineservice.models;
+
+import lombok.Data;
+
+@Data
+public class WineImageThumbnail {
+    private int id;
+    private int imageId;
+    private int wineId;
+    private String label;
+    private byte[] thumbnail;
+    private String mimeType;
+}
@@ -0,0 +1,10 @@
+package com.lordgasmic.wineservice.models;
+
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+public class WineImageThumbnailResponse {
+    private List<WineImageThumbnail> wineImageThumbnails;
+}
@@ -0,0 +1,15 @@
+package com.lordgasmic.wineservice.models;
+
+import lombok.Data;
+
+/**
+ * One note in a batch write: without an id it is appended to the wine's notes, with one it replaces that note's text.
+ */
+@Data
+public class WineNoteBatchItem {
+    private Integer id;
+    private int wineId;
+    private String user;
+    private String date;
+    private String note;
+}
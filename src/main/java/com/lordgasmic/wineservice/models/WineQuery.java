@@ -0,0 +1,27 @@
+package com.lordgasmic.wineservice.models;
+
+import lombok.Data;
+
+/**
+ * Filters over ratings or notes. Every field is optional; the ones that are set are and-ed together.
+ */
+@Data
+public class WineQuery {
+    private Integer wineId;
+    private String user;
+    // inclusive, yyyy-MM-dd
+    private String from;
+    private String to;
+    // inclusive, rating labels compared by their score on the rating scale; ratings only
+    private String minRating;
+    private String maxRating;
+    private Integer wineryId;
+    private String style;
+    // id, date or wineId
+    private String sort;
+    // asc or desc
+    private String order;
+    private Integer limit;
+    // the previous page's next cursor: the id of its last row
+    private Integer after;
+}
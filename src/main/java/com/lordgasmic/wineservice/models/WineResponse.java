@@ -1,11 +1,16 @@
 package com.lordgasmic.wineservice.models;
 
-import lombok.Data;
+import lombok.Builder;
+import lombok.Value;
 
-@Data
+/**
+ * Immutable, as the catalog cache hands the same instance to every request.
+ */
+@Value
+@Builder
 public class WineResponse {
-    private int id;
-    private int wineryId;
-    private String name;
-    private String style;
+    int id;
+    int wineryId;
+    String name;
+    String style;
 }
@@ -1,10 +1,15 @@
 package com.lordgasmic.wineservice.models;
 
-import lombok.Data;
+import lombok.Builder;
+import lombok.Value;
 
-@Data
+/**
+ * Immutable, as the catalog cache hands the same instance to every request.
+ */
+@Value
+@Builder
 public class WineryResponse {
-    private int id;
-    private String name;
-    private String location;
+    int id;
+    String name;
+    String location;
 }
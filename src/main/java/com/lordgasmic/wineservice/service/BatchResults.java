@@ -0,0 +1,77 @@
+package com.lordgasmic.wineservice.service;
+
+import com.lordgasmic.wineservice.models.BatchItemResult;
+import com.lordgasmic.wineservice.models.BatchItemStatus;
+import com.lordgasmic.wineservice.models.BatchResponse;
+
+import java.sql.BatchUpdateException;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Per-item outcome of a batch write, indexed by the item's position in the request.
+ * <p>
+ * Items that fail validation, or that point at rows that don't exist, are marked failed and left out of the write; the
+ * rest are committed together. If the database rejects any statement the whole transaction is rolled back: the items
+ * the driver reported as failing are marked failed and everything else that would have been written is marked rolled
+ * back, so a client can tell exactly what to fix and resend.
+ */
+final class BatchResults<T> {
+    private final List<BatchItemResult<T>> results;
+
+    BatchResults(final int size) {
+        results = new ArrayList<>(Collections.nCopies(size, null));
+    }
+
+    boolean isResolved(final int index) {
+        return results.get(index) != null;
+    }
+
+    void fail(final int index, final String error) {
+        results.set(index, new BatchItemResult<>(index, BatchItemStatus.FAILED, null, error));
+    }
+
+    void succeed(final int index, final BatchItemStatus status, final T item) {
+        results.set(index, new BatchItemResult<>(index, status, item, null));
+    }
+
+    /**
+     * Runs a batch prepared from {@code sql} whose statements were added in the order of {@code indexes}, marking the
+     * items the driver reports as failing before rethrowing.
+     */
+    int[] execute(final WineTastingDataSource dataSource, final String sql, final PreparedStatement statement, final List<Integer> indexes) throws SQLException {
+        if (indexes.isEmpty()) {
+            return new int[0];
+        }
+        try {
+            return dataSource.executeBatch(sql, statement);
+        } catch (final BatchUpdateException e) {
+            final int[] counts = e.getUpdateCounts() == null ? new int[0] : e.getUpdateCounts();
+            for (int i = 0; i < indexes.size(); i++) {
+                // drivers that stop at the first error report the counts before it; the rest report every statement
+                if (i < counts.length ? counts[i] == Statement.EXECUTE_FAILED : i == counts.length) {
+                    fail(indexes.get(i), e.getMessage());
+                }
+            }
+            throw e;
+        }
+    }
+
+    BatchResponse<T> committed() {
+        return new BatchResponse<>(true, results);
+    }
+
+    BatchResponse<T> rolledBack() {
+        for (int i = 0; i < results.size(); i++) {
+            final BatchItemResult<T> result = results.get(i);
+            if (result == null || result.getStatus() != BatchItemStatus.FAILED) {
+                results.set(i, new BatchItemResult<>(i, BatchItemStatus.ROLLED_BACK, null, null));
+            }
+        }
+        return new BatchResponse<>(false, results);
+    }
+}
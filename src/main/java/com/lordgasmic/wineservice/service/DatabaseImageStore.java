@@ -0,0 +1,69 @@
+package com.lordgasmic.wineservice.service;
+
+import com.lordgasmic.wineservice.models.StoredRendition;
+import com.lordgasmic.wineservice.models.WineImageContent;
+import com.lordgasmic.wineservice.models.WineImageRendition;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Keeps renditions in the {@code MEDIUMBLOB} columns of their own rows. Content is copied to the response in
+ * fixed-size {@code substring()} chunks, so a request never holds more than {@link #CHUNK_SIZE} bytes of an image on
+ * the heap regardless of how large the blob is: Connector/J reads a whole row into memory before handing out its
+ * stream, so selecting the column itself would buffer the entire blob even for a one-byte range.
+ */
+@Component
+@Slf4j
+public class DatabaseImageStore implements ImageStore {
+    public static final String NAME = "database";
+    private static final int CHUNK_SIZE = 256 * 1024;
+
+    private final WineTastingDataSource dataSource;
+
+    public DatabaseImageStore(final WineTastingDataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    @Override
+    public StoredRendition store(final WineImageRendition rendition, final byte[] bytes) {
+        return new StoredRendition(rendition.getColumn(), bytes);
+    }
+
+    @Override
+    public void writeContent(final WineImageContent content, final long start, final long end, final OutputStream out) throws SQLException, IOException {
+        final WineImageRendition rendition = content.getRendition();
+        final String sql = "select substring(" + rendition.getColumn() + ", ?, ?) from " + rendition.getView() + " where id = ?";
+        try (final Connection connection = dataSource.getConnection(); final PreparedStatement statement = connection.prepareStatement(sql)) {
+            for (long position = start; position <= end; position += CHUNK_SIZE) {
+                final long length = Math.min(CHUNK_SIZE, end - position + 1);
+                // substring() positions are one-based
+                statement.setLong(1, position + 1);
+                statement.setLong(2, length);
+                statement.setInt(3, content.getId());
+                try (final ResultSet rs = statement.executeQuery()) {
+                    if (!rs.next()) {
+                        log.warn("image {} {} disappeared mid-stream", rendition, content.getId());
+                        return;
+                    }
+                    final byte[] chunk = rs.getBytes(1);
+                    if (chunk == null || chunk.length == 0) {
+                        log.warn("image {} {} shorter than expected", rendition, content.getId());
+                        return;
+                    }
+                    out.write(chunk);
+                    if (chunk.length < length) {
+                        log.warn("image {} {} shorter than expected", rendition, content.getId());
+                        return;
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.lordgasmic.wineservice.service;
+
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A version counter per item descriptor, bumped after every committed write to it through this service, so a read can
+ * tell whether anything it depends on has changed without asking the database. Versions are per process and start
+ * over on restart, hence the {@link #getEpoch() epoch} that goes with them; writes made by another instance or
+ * straight to the database aren't seen.
+ * <p>
+ * Writers bump after committing, and readers take the version before querying, so a response is never tagged with a
+ * version newer than its data.
+ */
+@Component
+public class DescriptorVersions {
+    private final String epoch = Long.toString(System.currentTimeMillis(), Character.MAX_RADIX);
+    private final ConcurrentMap<String, AtomicLong> versions = new ConcurrentHashMap<>();
+
+    public String getEpoch() {
+        return epoch;
+    }
+
+    public long getVersion(final String descriptor) {
+        final AtomicLong version = versions.get(descriptor);
+        return version == null ? 0 : version.get();
+    }
+
+    public void bump(final String descriptor) {
+        versions.computeIfAbsent(descriptor, d -> new AtomicLong()).incrementAndGet();
+    }
+}
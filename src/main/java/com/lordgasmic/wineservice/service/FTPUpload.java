@@ -1,40 +1,53 @@
 package com.lordgasmic.wineservice.service;
 
+import com.lordgasmic.wineservice.models.EncodedImage;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.FileSystemResource;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
-import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
-import java.util.Objects;
-import java.util.UUID;
+import java.nio.file.Path;
 
+/**
+ * Streams uploads into the {@link FileSystemImageStore} and keeps the display rendition beside the original, so
+ * uploading the same file again finds it already there and resizes nothing.
+ */
 @Service
 @Slf4j
 public class FTPUpload {
 
-    private static final String IMAGES = "/images/wine_images/";
+    private static final String RESIZED_SUFFIX = "_tb";
 
     @Autowired
     private ImageProcessor imageProcessor;
 
-    public void doUpload(final MultipartFile file) throws IOException {
-        final String shortMimeType = Objects.requireNonNull(file.getContentType()).substring(file.getContentType().indexOf('/') + 1);
-        final String dir = UUID.randomUUID().toString();
-        final String filename = UUID.randomUUID().toString();
-        final String fullFileName = filename + "." + shortMimeType;
-        final String tbFileName = filename + "_tb." + shortMimeType;
-        final byte[] resizeBytes = imageProcessor.resizeImage(file.getBytes(), shortMimeType);
+    @Autowired
+    private ImageProcessingExecutor imageProcessingExecutor;
 
-        final File directory = new File(IMAGES + dir);
-        Files.createDirectory(directory.toPath());
+    @Autowired
+    private FileSystemImageStore fileSystemImageStore;
 
-        final File fullSize = new File(IMAGES + dir + '/' + fullFileName);
-        final File thumbnail = new File(IMAGES + dir + '/' + tbFileName);
+    @Autowired
+    private ImageUploadValidator imageUploadValidator;
 
-        Files.write(fullSize.toPath(), file.getBytes());
-        Files.write(thumbnail.toPath(), resizeBytes);
+    public void doUpload(final MultipartFile file) throws IOException {
+        imageUploadValidator.validate(file);
+        final String key;
+        try (final InputStream in = file.getInputStream()) {
+            key = fileSystemImageStore.put(in);
+        }
+
+        final Path resized = fileSystemImageStore.resolve(key).resolveSibling(key + RESIZED_SUFFIX);
+        if (Files.exists(resized)) {
+            log.info("upload {} already stored", key);
+            return;
+        }
+
+        final EncodedImage rendition = imageProcessingExecutor.resize(new FileSystemResource(fileSystemImageStore.resolve(key)), imageProcessor.getDisplayHeight()).get(0);
+        fileSystemImageStore.write(resized, rendition.getBytes());
     }
 }
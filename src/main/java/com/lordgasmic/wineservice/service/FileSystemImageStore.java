@@ -0,0 +1,142 @@
+package com.lordgasmic.wineservice.service;
+
+import com.lordgasmic.wineservice.models.StoredRendition;
+import com.lordgasmic.wineservice.models.WineImageContent;
+import com.lordgasmic.wineservice.models.WineImageRendition;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+
+/**
+ * Keeps renditions as files named for the SHA-256 of their bytes, sharded two levels deep ({@code ab/cd/abcd...}) so
+ * no directory grows unbounded. Identical renditions share one file. Files are written to a temp file on the same
+ * filesystem and moved into place, so a reader never sees a partial file.
+ */
+@Component
+@Slf4j
+public class FileSystemImageStore implements ImageStore {
+    public static final String NAME = "filesystem";
+    private static final String TMP = "tmp";
+    private static final String STORAGE_KEY_COLUMN = "storage_key";
+
+    private final Path root;
+
+    public FileSystemImageStore(@Value("${lordgasmic.image.filesystem.root}") final String root) {
+        this.root = Paths.get(root);
+    }
+
+    @Override
+    public StoredRendition store(final WineImageRendition rendition, final byte[] bytes) throws IOException {
+        return new StoredRendition(STORAGE_KEY_COLUMN, put(bytes));
+    }
+
+    /**
+     * @return the key the bytes are stored under
+     */
+    public String put(final byte[] bytes) throws IOException {
+        final String key = ContentHash.sha256(bytes);
+        final Path target = resolve(key);
+        if (!Files.exists(target)) {
+            write(target, bytes);
+        }
+        return key;
+    }
+
+    /**
+     * Atomically writes {@code bytes} to {@code target}, for files derived from a stored one and kept beside it.
+     */
+    public void write(final Path target, final byte[] bytes) throws IOException {
+        final Path tmp = createTempFile();
+        try {
+            Files.write(tmp, bytes);
+            moveIntoPlace(tmp, target);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Streams {@code in} to disk, hashing as it goes, so the content never has to be held in memory.
+     *
+     * @return the key the content is stored under
+     */
+    public String put(final InputStream in) throws IOException {
+        final MessageDigest digest = ContentHash.newDigest();
+        final Path tmp = createTempFile();
+        try {
+            try (final DigestInputStream digesting = new DigestInputStream(in, digest)) {
+                Files.copy(digesting, tmp, StandardCopyOption.REPLACE_EXISTING);
+            }
+            final String key = ContentHash.hex(digest.digest());
+            final Path target = resolve(key);
+            if (!Files.exists(target)) {
+                moveIntoPlace(tmp, target);
+            }
+            return key;
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    public Path resolve(final String key) {
+        return root.resolve(key.substring(0, 2)).resolve(key.substring(2, 4)).resolve(key);
+    }
+
+    public boolean exists(final String key) {
+        return Files.exists(resolve(key));
+    }
+
+    public long length(final String key) throws IOException {
+        return Files.size(resolve(key));
+    }
+
+    public byte[] read(final String key) throws IOException {
+        return Files.readAllBytes(resolve(key));
+    }
+
+    /**
+     * Copies through {@link FileChannel#transferTo}, which lets the kernel move the bytes when {@code out} is backed by
+     * a socket or file. Tomcat's sendfile support, used by the controller when available, avoids even that.
+     */
+    @Override
+    public void writeContent(final WineImageContent content, final long start, final long end, final OutputStream out) throws IOException {
+        try (final FileChannel channel = FileChannel.open(resolve(content.getStorageKey()), StandardOpenOption.READ)) {
+            final WritableByteChannel target = Channels.newChannel(out);
+            long position = start;
+            while (position <= end) {
+                final long transferred = channel.transferTo(position, end - position + 1, target);
+                if (transferred <= 0) {
+                    log.warn("image {} {} shorter than expected", content.getRendition(), content.getId());
+                    return;
+                }
+                position += transferred;
+            }
+        }
+    }
+
+    private Path createTempFile() throws IOException {
+        final Path dir = root.resolve(TMP);
+        Files.createDirectories(dir);
+        return Files.createTempFile(dir, "upload", ".tmp");
+    }
+
+    private static void moveIntoPlace(final Path tmp, final Path target) throws IOException {
+        Files.createDirectories(target.getParent());
+        // if another writer got there first it wrote the same bytes
+        Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+}
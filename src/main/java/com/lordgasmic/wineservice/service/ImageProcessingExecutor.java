@@ -0,0 +1,183 @@
+package com.lordgasmic.wineservice.service;
+
+import com.lordgasmic.wineservice.models.EncodedImage;
+import com.lordgasmic.wineservice.models.ImageProcessingStats;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.InputStreamSource;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * Runs {@link ImageProcessor} work on its own fixed-size pools so a burst of uploads can't take CPU away from the
+ * request threads serving reads. {@code threads} is the budget for both pools together: part of it decodes and scales,
+ * the rest encodes finished renditions while the next is scaled. Admission is bounded: once every job worker is busy
+ * and {@code queueCapacity} jobs are waiting, request-path callers get an {@link ImageProcessingRejectedException}
+ * instead of piling up.
+ */
+@Component
+@Slf4j
+public class ImageProcessingExecutor {
+    private final ThreadPoolExecutor jobs;
+    // null when the budget is a single thread, which then encodes its own renditions
+    private final ExecutorService encoders;
+    private final Executor encoder;
+    private final Semaphore admission;
+    private final int threads;
+    private final int queueCapacity;
+    private final long retryAfterSeconds;
+
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+    private final ImageProcessor imageProcessor;
+    private final Timer resizeTimer;
+
+    public ImageProcessingExecutor(final ImageProcessor imageProcessor,
+                                   @Value("${lordgasmic.image.executor.threads}") final int threads,
+                                   @Value("${lordgasmic.image.executor.queueCapacity}") final int queueCapacity,
+                                   @Value("${lordgasmic.image.executor.retryAfterSeconds}") final long retryAfterSeconds,
+                                   final MeterRegistry meterRegistry) {
+        this.imageProcessor = imageProcessor;
+        // 0 means leave one core for the request threads
+        this.threads = threads > 0 ? threads : Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+        this.queueCapacity = queueCapacity;
+        this.retryAfterSeconds = retryAfterSeconds;
+
+        final int encodeThreads = this.threads / 2;
+        final int jobThreads = this.threads - encodeThreads;
+        admission = new Semaphore(jobThreads + queueCapacity);
+        jobs = new ThreadPoolExecutor(jobThreads, jobThreads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), threadFactory("image-job-"));
+        encoders = encodeThreads > 0 ? Executors.newFixedThreadPool(encodeThreads, threadFactory("image-encode-")) : null;
+        encoder = encoders != null ? encoders : Runnable::run;
+
+        // from submission to the last rendition encoded, so time spent queued for a worker counts
+        resizeTimer = Timer.builder("wine.image.resize").publishPercentiles(0.5, 0.95, 0.99).register(meterRegistry);
+        FunctionCounter.builder("wine.image.rejected", rejected, AtomicLong::get).register(meterRegistry);
+        Gauge.builder("wine.image.admission.available", admission, Semaphore::availablePermits).register(meterRegistry);
+        new ExecutorServiceMetrics(jobs, "image-job", Tags.empty()).bindTo(meterRegistry);
+        if (encoders != null) {
+            new ExecutorServiceMetrics(encoders, "image-encode", Tags.empty()).bindTo(meterRegistry);
+        }
+    }
+
+    /**
+     * Resizes on the image pool, failing fast when the pool is saturated. For request threads.
+     */
+    public List<EncodedImage> resize(final InputStreamSource original, final int... heights) throws IOException {
+        if (!admission.tryAcquire()) {
+            rejected.incrementAndGet();
+            throw new ImageProcessingRejectedException(retryAfterSeconds);
+        }
+        return run(original, heights);
+    }
+
+    /**
+     * Resizes on the image pool, waiting for capacity when the pool is saturated. For queue consumers, which can
+     * afford to wait and shouldn't fail a job just because uploads are bursting.
+     */
+    public List<EncodedImage> resizeWhenAvailable(final InputStreamSource original, final int... heights) throws IOException {
+        try {
+            admission.acquire();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted waiting for image processing capacity", e);
+        }
+        return run(original, heights);
+    }
+
+    public ImageProcessingStats getStats() {
+        final long jobCount = completed.get();
+        final ImageProcessingStats stats = new ImageProcessingStats();
+        stats.setThreads(threads);
+        stats.setActiveWorkers(jobs.getActiveCount());
+        stats.setQueueDepth(jobs.getQueue().size());
+        stats.setQueueCapacity(queueCapacity);
+        stats.setCompletedJobs(jobCount);
+        stats.setRejectedJobs(rejected.get());
+        stats.setMeanJobMillis(jobCount == 0 ? 0 : totalNanos.get() / (double) jobCount / 1_000_000);
+        stats.setMaxJobMillis(maxNanos.get() / 1_000_000d);
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        jobs.shutdown();
+        if (encoders != null) {
+            encoders.shutdown();
+        }
+    }
+
+    private List<EncodedImage> run(final InputStreamSource original, final int... heights) throws IOException {
+        final long submitted = System.nanoTime();
+        final Future<List<EncodedImage>> future;
+        try {
+            future = jobs.submit(() -> {
+                try {
+                    return imageProcessor.resize(original, encoder, heights);
+                } finally {
+                    admission.release();
+                    record(System.nanoTime() - submitted);
+                }
+            });
+        } catch (final RuntimeException e) {
+            admission.release();
+            throw e;
+        }
+
+        try {
+            return future.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted waiting for image processing", e);
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private void record(final long nanos) {
+        resizeTimer.record(nanos, TimeUnit.NANOSECONDS);
+        completed.incrementAndGet();
+        totalNanos.addAndGet(nanos);
+        maxNanos.accumulate(nanos);
+    }
+
+    private static ThreadFactory threadFactory(final String prefix) {
+        final AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            final Thread thread = new Thread(runnable, prefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
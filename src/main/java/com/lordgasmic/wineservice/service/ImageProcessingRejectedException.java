@@ -0,0 +1,14 @@
+package com.lordgasmic.wineservice.service;
+
+public class ImageProcessingRejectedException extends RuntimeException {
+    private final long retryAfterSeconds;
+
+    public ImageProcessingRejectedException(final long retryAfterSeconds) {
+        super("image processing queue is full");
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
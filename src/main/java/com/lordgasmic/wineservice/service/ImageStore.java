@@ -0,0 +1,28 @@
+package com.lordgasmic.wineservice.service;
+
+import com.lordgasmic.wineservice.models.WineImageContent;
+import com.lordgasmic.wineservice.models.StoredRendition;
+import com.lordgasmic.wineservice.models.WineImageRendition;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.SQLException;
+
+/**
+ * Where rendition bytes live. New renditions go to the store selected by {@code lordgasmic.image.store}; reads go to
+ * whichever store holds a given row, so rows written under either setting keep serving while blobs are migrated.
+ */
+public interface ImageStore {
+
+    /**
+     * Keeps {@code bytes} as the given rendition of a not-yet-inserted row.
+     *
+     * @return the column and value the new row records to find them again
+     */
+    StoredRendition store(WineImageRendition rendition, byte[] bytes) throws IOException;
+
+    /**
+     * Copies bytes {@code start} through {@code end} (inclusive, zero-based) of the content to {@code out}.
+     */
+    void writeContent(WineImageContent content, long start, long end, OutputStream out) throws SQLException, IOException;
+}
@@ -0,0 +1,126 @@
+package com.lordgasmic.wineservice.service;
+
+import com.lordgasmic.wineservice.models.WineImageRendition;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Moves blobs still stored in the database into the {@link FileSystemImageStore} when
+ * {@code lordgasmic.image.filesystem.migrate} is set. Ids are listed a batch at a time without their blobs, then each
+ * row is read, written out and updated on its own, so at most one blob is in flight and no update runs while a result
+ * set is open on the connection. Runs on its own thread so startup isn't held up, and rows keep
+ * serving from wherever they are while it runs. Safe to stop and restart; it picks up the rows that are left.
+ */
+@Component
+@Slf4j
+public class ImageStoreMigrator implements ApplicationRunner {
+    private static final int ID_BATCH_SIZE = 500;
+
+    private final WineTastingDataSource dataSource;
+    private final FileSystemImageStore fileSystemImageStore;
+    private final boolean migrate;
+
+    public ImageStoreMigrator(final WineTastingDataSource dataSource,
+                              final FileSystemImageStore fileSystemImageStore,
+                              @Value("${lordgasmic.image.filesystem.migrate}") final boolean migrate) {
+        this.dataSource = dataSource;
+        this.fileSystemImageStore = fileSystemImageStore;
+        this.migrate = migrate;
+    }
+
+    @Override
+    public void run(final ApplicationArguments args) {
+        if (!migrate) {
+            return;
+        }
+        final Thread thread = new Thread(this::migrateAll, "image-store-migrator");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void migrateAll() {
+        for (final WineImageRendition rendition : WineImageRendition.values()) {
+            try {
+                final int moved = migrate(rendition);
+                log.info("moved {} {} blobs to the filesystem", moved, rendition);
+            } catch (final SQLException e) {
+                log.error("migrating {} blobs failed", rendition, e);
+            }
+        }
+    }
+
+    private int migrate(final WineImageRendition rendition) throws SQLException {
+        final String column = rendition.getColumn();
+        final String selectIds = "select id from " + rendition.getView()
+                                 + " where id > ? and storage_key is null and " + column + " is not null order by id limit " + ID_BATCH_SIZE;
+        final String selectBlob = "select " + column + " from " + rendition.getView() + " where id = ? and storage_key is null";
+        // only clears the blob if nothing else has written the row in the meantime
+        final String update = "update " + rendition.getView() + " set storage_key = ?, " + column + " = null where id = ? and storage_key is null";
+
+        int moved = 0;
+        int lastId = 0;
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement selectIdsStatement = connection.prepareStatement(selectIds);
+             final PreparedStatement selectBlobStatement = connection.prepareStatement(selectBlob);
+             final PreparedStatement updateStatement = connection.prepareStatement(update)) {
+            while (true) {
+                selectIdsStatement.setInt(1, lastId);
+                final List<Integer> ids = new ArrayList<>();
+                try (final ResultSet rs = selectIdsStatement.executeQuery()) {
+                    while (rs.next()) {
+                        ids.add(rs.getInt(1));
+                    }
+                }
+
+                for (final int id : ids) {
+                    final String storageKey;
+                    try {
+                        storageKey = put(selectBlobStatement, id);
+                    } catch (final IOException e) {
+                        log.error("could not move {} {} to the filesystem, leaving it in the database", rendition, id, e);
+                        continue;
+                    }
+                    if (storageKey == null) {
+                        continue;
+                    }
+                    updateStatement.setString(1, storageKey);
+                    updateStatement.setInt(2, id);
+                    moved += updateStatement.executeUpdate();
+                }
+
+                if (ids.size() < ID_BATCH_SIZE) {
+                    return moved;
+                }
+                lastId = ids.get(ids.size() - 1);
+                log.info("moved {} {} blobs so far", moved, rendition);
+            }
+        }
+    }
+
+    /**
+     * @return the key the row's blob is now stored under, or null if it was moved or cleared since the ids were listed
+     */
+    private String put(final PreparedStatement selectBlobStatement, final int id) throws SQLException, IOException {
+        selectBlobStatement.setInt(1, id);
+        try (final ResultSet rs = selectBlobStatement.executeQuery()) {
+            if (!rs.next()) {
+                return null;
+            }
+            try (final InputStream in = rs.getBinaryStream(1)) {
+                return in == null ? null : fileSystemImageStore.put(in);
+            }
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.lordgasmic.wineservice.service;
+
+import com.lordgasmic.wineservice.models.ImageHeader;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.InputStreamSource;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Checks an upload from the first few bytes of its stream, before anything reads, hashes, stores or decodes the whole
+ * file. The format comes from the image header rather than the client's Content-Type, and the pixel count is bounded
+ * so a small, highly compressed file can't decode into an enormous raster.
+ */
+@Component
+public class ImageUploadValidator {
+    private final Set<String> formats;
+    private final long maxPixels;
+
+    public ImageUploadValidator(@Value("${lordgasmic.image.upload.formats}") final String[] formats,
+                                @Value("${lordgasmic.image.upload.maxPixels}") final long maxPixels) {
+        this.formats = Arrays.stream(formats).map(String::trim).map(String::toLowerCase).collect(Collectors.toSet());
+        this.maxPixels = maxPixels;
+    }
+
+    public ImageHeader validate(final InputStreamSource upload) throws IOException {
+        // a memory cache only holds what the reader has consumed, which for a header is a few KB
+        try (final InputStream in = upload.getInputStream(); final ImageInputStream iis = new MemoryCacheImageInputStream(in)) {
+            final Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+            if (!readers.hasNext()) {
+                throw new InvalidImageUploadException(HttpStatus.UNSUPPORTED_MEDIA_TYPE, "not a recognised image");
+            }
+            final ImageReader reader = readers.next();
+            try {
+                reader.setInput(iis, true, true);
+                final String formatName = reader.getFormatName().toLowerCase();
+                if (!formats.contains(formatName)) {
+                    throw new InvalidImageUploadException(HttpStatus.UNSUPPORTED_MEDIA_TYPE, formatName + " images are not accepted");
+                }
+
+                final int width;
+                final int height;
+                try {
+                    width = reader.getWidth(0);
+                    height = reader.getHeight(0);
+                } catch (final IOException e) {
+                    throw new InvalidImageUploadException(HttpStatus.BAD_REQUEST, "unreadable image header: " + e.getMessage());
+                }
+                if ((long) width * height > maxPixels) {
+                    throw new InvalidImageUploadException(HttpStatus.PAYLOAD_TOO_LARGE, width + "x" + height + " exceeds " + maxPixels + " pixels");
+                }
+
+                final String[] mimeTypes = reader.getOriginatingProvider().getMIMETypes();
+                return new ImageHeader(formatName, mimeTypes == null || mimeTypes.length == 0 ? null : mimeTypes[0], width, height);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+}
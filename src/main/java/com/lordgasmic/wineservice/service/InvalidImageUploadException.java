@@ -0,0 +1,16 @@
+package com.lordgasmic.wineservice.service;
+
+import org.springframework.http.HttpStatus;
+
+public class InvalidImageUploadException extends RuntimeException {
+    private final HttpStatus status;
+
+    public InvalidImageUploadException(final HttpStatus status, final String message) {
+        super(message);
+        this.status = status;
+    }
+
+    public HttpStatus getStatus() {
+        return status;
+    }
+}
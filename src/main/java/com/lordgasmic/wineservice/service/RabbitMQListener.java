@@ -1,14 +1,19 @@
 package com.lordgasmic.wineservice.service;
 
+import com.lordgasmic.wineservice.models.WineImageJobMessage;
 import com.lordgasmic.wineservice.models.WineImageTransfer;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 @Component
 @Slf4j
 public class RabbitMQListener {
 
+    @Autowired
+    private WineImageJobService wineImageJobService;
+
     @RabbitListener(queues = "${lordgasmic.rabbitmq.queue}")
     public void recievedMessage(final WineImageTransfer transfer) {
         log.info("Recieved Message From RabbitMQ " + transfer);
@@ -18,4 +23,10 @@ public class RabbitMQListener {
     public void recievedMessage2(final WineImageTransfer transfer) {
         log.info("Queue 2 From RabbitMQ " + transfer);
     }
+
+    @RabbitListener(queues = "${lordgasmic.rabbitmq.imageJobQueue}", containerFactory = "imageJobListenerContainerFactory")
+    public void recievedImageJob(final WineImageJobMessage message) {
+        log.info("Processing image job " + message.getJobId());
+        wineImageJobService.process(message.getJobId());
+    }
 }
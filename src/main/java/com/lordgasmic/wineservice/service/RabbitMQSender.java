@@ -1,5 +1,6 @@
 package com.lordgasmic.wineservice.service;
 
+import com.lordgasmic.wineservice.models.WineImageJobMessage;
 import com.lordgasmic.wineservice.models.WineImageTransfer;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.amqp.core.AmqpTemplate;
@@ -22,12 +23,20 @@ public class RabbitMQSender {
     @Value("${lordgasmic.rabbitmq.routingKey2}")
     private String routingKey2;
 
+    @Value("${lordgasmic.rabbitmq.imageJobRoutingKey}")
+    private String imageJobRoutingKey;
+
     public void send(final WineImageTransfer transfer) {
         rabbitTemplate.convertAndSend(exchange, routingKey, transfer);
         rabbitTemplate.convertAndSend(exchange, routingKey2, mutate(transfer));
         log.info("Send msg = " + transfer);
     }
 
+    public void sendImageJob(final WineImageJobMessage message) {
+        rabbitTemplate.convertAndSend(exchange, imageJobRoutingKey, message);
+        log.info("Queued image job " + message.getJobId());
+    }
+
     private static WineImageTransfer mutate(final WineImageTransfer transfer) {
         final WineImageTransfer x2 = new WineImageTransfer();
         x2.setData(transfer.getData() + " key2");
@@ -0,0 +1,86 @@
+package com.lordgasmic.wineservice.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maps the free-text ratings users enter ("check", "check plus", ...) onto ordered numeric scores, configured as
+ * {@code label:score} pairs in {@code lordgasmic.rating.scale}. Several labels may share a score, which is how common
+ * misspellings are folded in. Ratings that aren't on the scale (blank, "circle") are counted but not scored.
+ */
+@Component
+public class RatingScale {
+    private final Map<String, Integer> scores = new HashMap<>();
+    private final List<String> labels = new ArrayList<>();
+    private final int maxScore;
+
+    public RatingScale(@Value("${lordgasmic.rating.scale}") final String[] scale) {
+        int max = 0;
+        for (final String entry : scale) {
+            final int separator = entry.lastIndexOf(':');
+            if (separator < 0) {
+                throw new IllegalArgumentException("rating scale entry is not label:score: " + entry);
+            }
+            final String label = normalize(entry.substring(0, separator));
+            final int score = Integer.parseInt(entry.substring(separator + 1).trim());
+            if (score < 1) {
+                throw new IllegalArgumentException("rating scores start at 1: " + entry);
+            }
+            scores.put(label, score);
+            max = Math.max(max, score);
+        }
+        maxScore = max;
+
+        // the first label listed for a score names it
+        for (int score = 1; score <= maxScore; score++) {
+            labels.add(null);
+        }
+        for (final String entry : scale) {
+            final String label = normalize(entry.substring(0, entry.lastIndexOf(':')));
+            final int index = scores.get(label) - 1;
+            if (labels.get(index) == null) {
+                labels.set(index, label);
+            }
+        }
+    }
+
+    public static String normalize(final String rating) {
+        return rating == null ? "" : rating.trim().toLowerCase().replaceAll("\\s+", " ");
+    }
+
+    /**
+     * @return the rating's score, or 0 if it isn't on the scale
+     */
+    public int score(final String rating) {
+        return scores.getOrDefault(normalize(rating), 0);
+    }
+
+    /**
+     * @return every label, misspellings included, whose score is between {@code minScore} and {@code maxScore}
+     */
+    public List<String> labelsBetween(final int minScore, final int maxScore) {
+        final List<String> between = new ArrayList<>();
+        scores.forEach((label, score) -> {
+            if (score >= minScore && score <= maxScore) {
+                between.add(label);
+            }
+        });
+        return between;
+    }
+
+    public int getMaxScore() {
+        return maxScore;
+    }
+
+    /**
+     * @return the name of a score, or null if no label was configured for it
+     */
+    public String label(final int score) {
+        return labels.get(score - 1);
+    }
+}
@@ -0,0 +1,89 @@
+package com.lordgasmic.wineservice.service;
+
+import com.lordgasmic.collections.repository.GSARepository;
+import com.lordgasmic.collections.repository.MutableRepositoryItem;
+import com.lordgasmic.collections.repository.RepositoryItem;
+import com.lordgasmic.wineservice.config.NucleusStartup;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * The WineTastingRepository with every call timed as {@code wine.repository}, tagged by item descriptor, operation
+ * and outcome, so slow MariaDB round trips show up per descriptor rather than folded into the request time.
+ * <p>
+ * The one place the GSARepository is looked up, on first use rather than at construction, so the context doesn't wait
+ * on Nucleus to start. Adds and updates bump the descriptor's {@link DescriptorVersions version}.
+ */
+@Component
+public class TimedRepository {
+    private static final String REPO_NAME = "WineTastingRepository";
+    private static final String METRIC = "wine.repository";
+
+    private final NucleusStartup nucleusStartup;
+    private final DescriptorVersions versions;
+    private final MeterRegistry meterRegistry;
+
+    private volatile GSARepository wineRepository;
+
+    public TimedRepository(final NucleusStartup nucleusStartup, final DescriptorVersions versions, final MeterRegistry meterRegistry) {
+        this.nucleusStartup = nucleusStartup;
+        this.versions = versions;
+        this.meterRegistry = meterRegistry;
+    }
+
+    public List<RepositoryItem> getAllRepositoryItems(final String descriptor) throws SQLException {
+        return time(descriptor, "getAll", () -> repository().getAllRepositoryItems(descriptor));
+    }
+
+    public List<RepositoryItem> getRepositoryItems(final String value, final String property, final String descriptor) throws SQLException {
+        return time(descriptor, "getByProperty", () -> repository().getRepositoryItems(value, property, descriptor));
+    }
+
+    public RepositoryItem getRepositoryItem(final String id, final String descriptor) throws SQLException {
+        return time(descriptor, "get", () -> repository().getRepositoryItem(id, descriptor));
+    }
+
+    public MutableRepositoryItem createItem(final String descriptor) throws SQLException {
+        return time(descriptor, "create", () -> repository().createItem(descriptor));
+    }
+
+    public RepositoryItem addItem(final String descriptor, final MutableRepositoryItem item) throws SQLException {
+        final RepositoryItem added = time(descriptor, "add", () -> repository().addItem(item));
+        versions.bump(descriptor);
+        return added;
+    }
+
+    public RepositoryItem updateItem(final String descriptor, final MutableRepositoryItem item, final String property) throws SQLException {
+        final RepositoryItem updated = time(descriptor, "update", () -> repository().updateItem(item, property));
+        versions.bump(descriptor);
+        return updated;
+    }
+
+    private GSARepository repository() {
+        if (wineRepository == null) {
+            wineRepository = (GSARepository) nucleusStartup.getGenericService(REPO_NAME);
+        }
+        return wineRepository;
+    }
+
+    private <T> T time(final String descriptor, final String operation, final RepositoryCall<T> call) throws SQLException {
+        final Timer.Sample sample = Timer.start(meterRegistry);
+        String outcome = "error";
+        try {
+            final T result = call.call();
+            outcome = "success";
+            return result;
+        } finally {
+            sample.stop(meterRegistry.timer(METRIC, "descriptor", descriptor, "operation", operation, "outcome", outcome));
+        }
+    }
+
+    @FunctionalInterface
+    private interface RepositoryCall<T> {
+        T call() throws SQLException;
+    }
+}
@@ -0,0 +1,317 @@
+package com.lordgasmic.wineservice.service;
+
+import com.lordgasmic.collections.repository.RepositoryItem;
+import com.lordgasmic.wineservice.models.CatalogCacheStats;
+import com.lordgasmic.wineservice.models.WineResponse;
+import com.lordgasmic.wineservice.models.WineryResponse;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+import java.util.function.UnaryOperator;
+
+import static com.lordgasmic.wineservice.config.WineConstants.WINE_REPOSITORY_ITEM;
+import static com.lordgasmic.wineservice.config.WineryConstants.WINERY_REPOSITORY_ITEM;
+import static java.util.stream.Collectors.groupingBy;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toUnmodifiableList;
+import static java.util.stream.Collectors.toUnmodifiableMap;
+
+/**
+ * Read-through cache of the winery/wine catalog. The catalog is held as one immutable {@link Snapshot} that is
+ * swapped wholesale on reload, and patched copy-on-write when a wine or winery is added through this service.
+ * <p>
+ * Reloads are single-flight: callers that find the snapshot stale while a reload is running wait for that reload
+ * rather than starting their own. Wines and wineries added while a reload runs are replayed onto its result, and a
+ * reload running when {@link #invalidate()} is called is not published, so neither write is lost to a slower read.
+ * Lookups by id that miss the snapshot, or that arrive while the catalog is over {@code maxSize} and so isn't cached,
+ * read the one row instead of the whole catalog.
+ */
+@Component
+@Slf4j
+public class WineCatalogCache {
+    private static final Comparator<WineResponse> BY_NAME = Comparator.comparing(WineResponse::getName, String.CASE_INSENSITIVE_ORDER);
+
+    private final TimedRepository wineRepository;
+    private final long ttlMillis;
+    private final int maxSize;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    // guards snapshot, loading, pendingWrites and oversizedUntil; never held across a repository call
+    private final ReentrantLock lock = new ReentrantLock();
+    private volatile Snapshot snapshot;
+    private CompletableFuture<Snapshot> loading;
+    // adds made while the reload in loading runs, to replay onto what it read
+    private List<UnaryOperator<Snapshot>> pendingWrites;
+    // until this time, lookups by id skip the full load, as the last one found the catalog over maxSize
+    private volatile long oversizedUntil;
+
+    public WineCatalogCache(final TimedRepository wineRepository,
+                            @Value("${lordgasmic.catalog.cache.ttlSeconds}") final long ttlSeconds,
+                            @Value("${lordgasmic.catalog.cache.maxSize}") final int maxSize,
+                            final MeterRegistry meterRegistry) {
+        this.wineRepository = wineRepository;
+        ttlMillis = ttlSeconds * 1000;
+        this.maxSize = maxSize;
+
+        FunctionCounter.builder("wine.catalog.cache.requests", hits, AtomicLong::get).tag("result", "hit").register(meterRegistry);
+        FunctionCounter.builder("wine.catalog.cache.requests", misses, AtomicLong::get).tag("result", "miss").register(meterRegistry);
+        Gauge.builder("wine.catalog.cache.entries", this, cache -> cache.getStats().getWines()).tag("type", "wine").register(meterRegistry);
+        Gauge.builder("wine.catalog.cache.entries", this, cache -> cache.getStats().getWineries()).tag("type", "winery").register(meterRegistry);
+    }
+
+    public List<WineryResponse> getWineries() throws SQLException {
+        return current().wineries;
+    }
+
+    public List<WineResponse> getWines() throws SQLException {
+        return current().wines;
+    }
+
+    public List<WineResponse> getWinesByWineryId(final int wineryId) throws SQLException {
+        return current().winesByWineryId.getOrDefault(wineryId, List.of());
+    }
+
+    public Optional<WineResponse> getWine(final int id) throws SQLException {
+        final WineResponse wine = isOversized() ? null : current().winesById.get(id);
+        if (wine != null) {
+            return Optional.of(wine);
+        }
+        // e.g. added through another instance since the last load
+        final RepositoryItem item = wineRepository.getRepositoryItem(Integer.toString(id), WINE_REPOSITORY_ITEM);
+        return item == null ? Optional.empty() : Optional.of(WineService.convertRepositoryItemToWineResponse(item));
+    }
+
+    public Optional<WineryResponse> getWinery(final int id) throws SQLException {
+        final WineryResponse winery = isOversized() ? null : current().wineriesById.get(id);
+        if (winery != null) {
+            return Optional.of(winery);
+        }
+        final RepositoryItem item = wineRepository.getRepositoryItem(Integer.toString(id), WINERY_REPOSITORY_ITEM);
+        return item == null ? Optional.empty() : Optional.of(WineryService.convertRepositoryItemToWineryResponse(item));
+    }
+
+    public void addWinery(final WineryResponse winery) {
+        patch(current -> current.withWinery(winery));
+    }
+
+    public void addWine(final WineResponse wine) {
+        patch(current -> current.withWine(wine));
+    }
+
+    public void invalidate() {
+        lock.lock();
+        try {
+            snapshot = null;
+            oversizedUntil = 0;
+            // a reload already running may have read the old rows; later callers start a fresh one
+            loading = null;
+            pendingWrites = null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public CatalogCacheStats getStats() {
+        final Snapshot current = snapshot;
+        final CatalogCacheStats stats = new CatalogCacheStats();
+        stats.setHits(hits.get());
+        stats.setMisses(misses.get());
+        stats.setWineries(current == null ? 0 : current.wineries.size());
+        stats.setWines(current == null ? 0 : current.wines.size());
+        stats.setLoadedAt(current == null ? 0 : current.loadedAt);
+        return stats;
+    }
+
+    private Snapshot current() throws SQLException {
+        final Snapshot current = snapshot;
+        if (current != null && !current.isExpired(System.currentTimeMillis(), ttlMillis)) {
+            hits.incrementAndGet();
+            return current;
+        }
+        misses.incrementAndGet();
+        return load();
+    }
+
+    private boolean isOversized() {
+        return System.currentTimeMillis() < oversizedUntil;
+    }
+
+    private void patch(final UnaryOperator<Snapshot> write) {
+        lock.lock();
+        try {
+            if (snapshot != null) {
+                snapshot = write.apply(snapshot);
+            }
+            if (pendingWrites != null) {
+                pendingWrites.add(write);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Snapshot load() throws SQLException {
+        final CompletableFuture<Snapshot> reload;
+        final boolean leader;
+        lock.lock();
+        try {
+            // another request may have reloaded while this one waited on the lock
+            if (snapshot != null && !snapshot.isExpired(System.currentTimeMillis(), ttlMillis)) {
+                return snapshot;
+            }
+            leader = loading == null;
+            if (leader) {
+                loading = new CompletableFuture<>();
+                pendingWrites = new ArrayList<>();
+            }
+            reload = loading;
+        } finally {
+            lock.unlock();
+        }
+        if (!leader) {
+            return join(reload);
+        }
+
+        final Snapshot loaded;
+        try {
+            loaded = read();
+        } catch (final SQLException | RuntimeException e) {
+            finish(reload, null);
+            reload.completeExceptionally(e);
+            throw e;
+        }
+        final Snapshot result = finish(reload, loaded);
+        reload.complete(result);
+        return result;
+    }
+
+    /**
+     * Replays the adds made while the reload ran onto its result and publishes that, if it fits. A reload that
+     * {@link #invalidate()} detached while it ran is handed to its own callers but not published. Otherwise clears
+     * {@link #loading} so the next stale read starts a new reload.
+     *
+     * @return what the reload's callers get
+     */
+    private Snapshot finish(final CompletableFuture<Snapshot> reload, final Snapshot loaded) {
+        lock.lock();
+        try {
+            if (loading != reload) {
+                log.info("catalog invalidated during reload; not caching it");
+                return loaded;
+            }
+            final List<UnaryOperator<Snapshot>> writes = pendingWrites;
+            loading = null;
+            pendingWrites = null;
+            if (loaded == null) {
+                return null;
+            }
+            Snapshot patched = loaded;
+            for (final UnaryOperator<Snapshot> write : writes) {
+                patched = write.apply(patched);
+            }
+            final int entries = patched.wineries.size() + patched.wines.size();
+            if (entries > maxSize) {
+                log.warn("catalog has {} entries, over the cache bound of {}; serving uncached", entries, maxSize);
+                snapshot = null;
+                oversizedUntil = patched.loadedAt + ttlMillis;
+            } else {
+                snapshot = patched;
+                oversizedUntil = 0;
+            }
+            return patched;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Snapshot read() throws SQLException {
+        final List<WineryResponse> wineries = wineRepository.getAllRepositoryItems(WINERY_REPOSITORY_ITEM)
+                                                            .stream()
+                                                            .map(WineryService::convertRepositoryItemToWineryResponse)
+                                                            .collect(toList());
+        final List<WineResponse> wines = wineRepository.getAllRepositoryItems(WINE_REPOSITORY_ITEM)
+                                                       .stream()
+                                                       .map(WineService::convertRepositoryItemToWineResponse)
+                                                       .collect(toList());
+        return new Snapshot(wineries, wines, System.currentTimeMillis());
+    }
+
+    private static Snapshot join(final CompletableFuture<Snapshot> reload) throws SQLException {
+        try {
+            return reload.join();
+        } catch (final CompletionException e) {
+            if (e.getCause() instanceof SQLException) {
+                throw (SQLException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private static final class Snapshot {
+        private final List<WineryResponse> wineries;
+        private final List<WineResponse> wines;
+        private final Map<Integer, List<WineResponse>> winesByWineryId;
+        private final Map<Integer, WineResponse> winesById;
+        private final Map<Integer, WineryResponse> wineriesById;
+        private final long loadedAt;
+
+        private Snapshot(final List<WineryResponse> wineries, final List<WineResponse> wines, final long loadedAt) {
+            this.wineries = List.copyOf(wineries);
+            this.wines = List.copyOf(wines);
+            this.loadedAt = loadedAt;
+
+            final Map<Integer, List<WineResponse>> index = new HashMap<>();
+            wines.stream()
+                 .collect(groupingBy(WineResponse::getWineryId))
+                 .forEach((wineryId, group) -> index.put(wineryId, group.stream().sorted(BY_NAME).collect(toUnmodifiableList())));
+            winesByWineryId = Map.copyOf(index);
+            winesById = wines.stream().collect(toUnmodifiableMap(WineResponse::getId, Function.identity()));
+            wineriesById = wineries.stream().collect(toUnmodifiableMap(WineryResponse::getId, Function.identity()));
+        }
+
+        private boolean isExpired(final long now, final long ttlMillis) {
+            return now - loadedAt >= ttlMillis;
+        }
+
+        private Snapshot withWinery(final WineryResponse winery) {
+            return new Snapshot(replaceById(wineries, winery, WineryResponse::getId), wines, loadedAt);
+        }
+
+        private Snapshot withWine(final WineResponse wine) {
+            return new Snapshot(wineries, replaceById(wines, wine, WineResponse::getId), loadedAt);
+        }
+
+        private static <T> List<T> replaceById(final List<T> items, final T item, final ToIntFunction<T> id) {
+            final List<T> copy = new ArrayList<>(items.size() + 1);
+            for (final T existing : items) {
+                if (id.applyAsInt(existing) != id.applyAsInt(item)) {
+                    copy.add(existing);
+                }
+            }
+            copy.add(item);
+            return copy;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.lordgasmic.wineservice.service;
+
+import com.lordgasmic.wineservice.config.VirtualThreadConfig;
+import com.lordgasmic.wineservice.models.WineDetailResponse;
+import com.lordgasmic.wineservice.models.WineImageMetadata;
+import com.lordgasmic.wineservice.models.WineNoteOutput;
+import com.lordgasmic.wineservice.models.WineRatingResponse;
+import com.lordgasmic.wineservice.models.WineResponse;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Everything the wine detail page shows, in one call. The wine and winery come from the catalog cache; notes, ratings
+ * and image metadata are independent queries, so they run concurrently and the response takes about as long as the
+ * slowest of them.
+ * <p>
+ * At most {@code lordgasmic.detail.executor.threads} of those queries run at once in either mode: the fixed pool
+ * bounds them on platform threads, and a semaphore does on virtual threads, where there is no pool to do it.
+ */
+@Service
+@Slf4j
+public class WineDetailService {
+    private final WineCatalogCache catalogCache;
+    private final WineNotesService wineNotesService;
+    private final WineRatingService wineRatingService;
+    private final WineImageService wineImageService;
+    private final ExecutorService executor;
+    private final Semaphore queries;
+
+    public WineDetailService(final WineCatalogCache catalogCache,
+                             final WineNotesService wineNotesService,
+                             final WineRatingService wineRatingService,
+                             final WineImageService wineImageService,
+                             @Value("${lordgasmic.detail.executor.threads}") final int threads,
+                             @Value("${" + VirtualThreadConfig.PROPERTY + "}") final boolean virtualThreads,
+                             final MeterRegistry meterRegistry) {
+        this.catalogCache = catalogCache;
+        this.wineNotesService = wineNotesService;
+        this.wineRatingService = wineRatingService;
+        this.wineImageService = wineImageService;
+
+        final ExecutorService delegate;
+        if (virtualThreads) {
+            delegate = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("wine-detail-", 1).factory());
+        } else {
+            final AtomicInteger count = new AtomicInteger();
+            delegate = Executors.newFixedThreadPool(threads, runnable -> {
+                final Thread thread = new Thread(runnable, "wine-detail-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        // times every task in both modes, and adds the pool gauges when there is a pool
+        executor = ExecutorServiceMetrics.monitor(meterRegistry, delegate, "wine-detail", Tags.empty());
+        queries = new Semaphore(threads);
+        Gauge.builder("wine.detail.queries.available", queries, Semaphore::availablePermits).register(meterRegistry);
+    }
+
+    public Optional<WineDetailResponse> getWineDetail(final int wineId) throws SQLException {
+        final Optional<WineResponse> wine = catalogCache.getWine(wineId);
+        if (wine.isEmpty()) {
+            return Optional.empty();
+        }
+
+        final CompletableFuture<List<WineNoteOutput>> notes = supply(() -> wineNotesService.getWineNotesByWineId(wineId).getWineNotes());
+        final CompletableFuture<List<WineRatingResponse>> ratings = supply(() -> wineRatingService.getWineRatingByWineId(wineId));
+        final CompletableFuture<List<WineImageMetadata>> images = supply(() -> wineImageService.getWineImageMetadata(wineId).getWineImages());
+
+        final WineDetailResponse response = new WineDetailResponse();
+        response.setWine(wine.get());
+        response.setWinery(catalogCache.getWinery(wine.get().getWineryId()).orElse(null));
+        response.setWineNotes(join(notes));
+        response.setWineRatings(join(ratings));
+        response.setWineImages(join(images));
+        return Optional.of(response);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private <T> CompletableFuture<T> supply(final Callable<T> query) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                queries.acquire();
+                try {
+                    return query.call();
+                } finally {
+                    queries.release();
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CompletionException(e);
+            } catch (final Exception e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    private static <T> T join(final CompletableFuture<T> future) throws SQLException {
+        try {
+            return future.join();
+        } catch (final CompletionException e) {
+            if (e.getCause() instanceof SQLException) {
+                throw (SQLException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+}
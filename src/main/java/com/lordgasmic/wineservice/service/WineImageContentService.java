@@ -0,0 +1,160 @@
+package com.lordgasmic.wineservice.service;
+
+import com.lordgasmic.wineservice.models.WineImageContent;
+import com.lordgasmic.wineservice.models.WineImageRendition;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Serves raw image bytes from whichever {@link ImageStore} holds them: rows with a storage key live on the filesystem,
+ * the rest in their blob columns.
+ * <p>
+ * Each rendition is stored in one format. A client whose {@code Accept} rules that format out gets it transcoded to
+ * the first of {@link #TRANSCODE_TYPES} it does accept; the renditions are small, so this is cheap next to storing
+ * every rendition in every format.
+ */
+@Service
+@Slf4j
+public class WineImageContentService {
+    // what any browser or image library can decode, in order of preference for photos
+    private static final List<MediaType> TRANSCODE_TYPES = List.of(MediaType.IMAGE_JPEG, MediaType.IMAGE_PNG);
+
+    private final WineTastingDataSource dataSource;
+    private final DatabaseImageStore databaseImageStore;
+    private final FileSystemImageStore fileSystemImageStore;
+    private final ImageProcessor imageProcessor;
+
+    public WineImageContentService(final WineTastingDataSource dataSource,
+                                   final DatabaseImageStore databaseImageStore,
+                                   final FileSystemImageStore fileSystemImageStore,
+                                   final ImageProcessor imageProcessor) {
+        this.dataSource = dataSource;
+        this.databaseImageStore = databaseImageStore;
+        this.fileSystemImageStore = fileSystemImageStore;
+        this.imageProcessor = imageProcessor;
+    }
+
+    /**
+     * The ETag is the stored hash of the upload the rendition was made from, suffixed with the rendition, so it costs
+     * nothing to compute and doesn't change when the bytes move to the filesystem. Older rows without a hash fall back to
+     * the storage key, or to the holding row's id and length, which are just as fixed for the life of the row.
+     */
+    public Optional<WineImageContent> getContent(final int id, final WineImageRendition rendition) throws SQLException, IOException {
+        final String column = rendition.getColumn();
+        // thumbnails take the hash of the image they were made with
+        final String hashSource = rendition == WineImageRendition.IMAGE ? "c" : "i";
+        // reference rows serve the bytes of the row their content_id points at;
+        // octet_length() over the blob only runs for rows still stored in the database
+        final String sql = "select c.id, c.mime_type, c.storage_key, " + hashSource + ".content_hash,"
+                           + " case when c.storage_key is null then octet_length(c." + column + ") end as length"
+                           + " from " + rendition.getView() + " r join " + rendition.getView() + " c on c.id = coalesce(r.content_id, r.id)"
+                           + (rendition == WineImageRendition.IMAGE ? "" : " left join wine_image_vw i on i.id = c.image_id")
+                           + " where r.id = ? and (c.storage_key is not null or c." + column + " is not null)";
+        final List<WineImageContent> contents = dataSource.query(sql, List.of(id), rs -> {
+            final WineImageContent content = new WineImageContent();
+            content.setId(rs.getInt("id"));
+            content.setRendition(rendition);
+            content.setMimeType(rs.getString("mime_type"));
+            content.setStorageKey(rs.getString("storage_key"));
+            content.setLength(rs.getLong("length"));
+            content.setHash(rs.getString("content_hash"));
+            return content;
+        });
+
+        final Optional<WineImageContent> content = contents.stream().findFirst();
+        if (content.isPresent()) {
+            final WineImageContent found = content.get();
+            if (isOnFileSystem(found)) {
+                found.setLength(fileSystemImageStore.length(found.getStorageKey()));
+            }
+            if (found.getHash() != null) {
+                found.setHash(found.getHash() + '-' + rendition.getColumn());
+            } else if (isOnFileSystem(found)) {
+                found.setHash(found.getStorageKey());
+            } else {
+                found.setHash(rendition.getColumn() + '-' + found.getId() + '-' + found.getLength());
+            }
+        }
+        return content;
+    }
+
+    /**
+     * @param accept the request's {@code Accept} ranges; none means anything is acceptable
+     * @return the type to transcode {@code stored} content to, or empty to serve it as stored: when it is acceptable,
+     *         when it isn't an image, or when no type it could be transcoded to is acceptable either
+     */
+    public Optional<MediaType> negotiate(final MediaType stored, final List<MediaType> accept) {
+        if (accept.isEmpty() || !"image".equals(stored.getType()) || quality(accept, stored) > 0) {
+            return Optional.empty();
+        }
+        MediaType best = null;
+        double bestQuality = 0;
+        for (final MediaType candidate : TRANSCODE_TYPES) {
+            final double quality = quality(accept, candidate);
+            if (quality > bestQuality && imageProcessor.canEncode(candidate.getSubtype())) {
+                best = candidate;
+                bestQuality = quality;
+            }
+        }
+        return Optional.ofNullable(best);
+    }
+
+    /**
+     * @return the whole of {@code content}, re-encoded as {@code type}
+     */
+    public byte[] transcode(final WineImageContent content, final MediaType type) throws SQLException, IOException {
+        final ByteArrayOutputStream stored = new ByteArrayOutputStream((int) content.getLength());
+        writeContent(content, 0, content.getLength() - 1, stored);
+        return imageProcessor.transcode(new ByteArrayResource(stored.toByteArray()), type.getSubtype()).getBytes();
+    }
+
+    public boolean isOnFileSystem(final WineImageContent content) {
+        return content.getStorageKey() != null;
+    }
+
+    /**
+     * @return the file holding content that {@link #isOnFileSystem is on the filesystem}
+     */
+    public Path getPath(final WineImageContent content) {
+        return fileSystemImageStore.resolve(content.getStorageKey());
+    }
+
+    /**
+     * Copies bytes {@code start} through {@code end} (inclusive, zero-based) of the content to {@code out}.
+     */
+    public void writeContent(final WineImageContent content, final long start, final long end, final OutputStream out) throws SQLException, IOException {
+        final ImageStore store = isOnFileSystem(content) ? fileSystemImageStore : databaseImageStore;
+        store.writeContent(content, start, end, out);
+    }
+
+    /**
+     * The quality of the most specific range that matches {@code type}, so {@code image/webp;q=0} rules WebP out even
+     * alongside {@code image/*}.
+     */
+    private static double quality(final List<MediaType> accept, final MediaType type) {
+        MediaType match = null;
+        for (final MediaType range : accept) {
+            if (range.includes(type) && (match == null || specificity(range) > specificity(match))) {
+                match = range;
+            }
+        }
+        return match == null ? 0 : match.getQualityValue();
+    }
+
+    private static int specificity(final MediaType range) {
+        if (range.isWildcardType()) {
+            return 0;
+        }
+        return range.isWildcardSubtype() ? 1 : 2;
+    }
+}
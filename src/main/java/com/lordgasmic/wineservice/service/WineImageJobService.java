@@ -0,0 +1,234 @@
+package com.lordgasmic.wineservice.service;
+
+import com.lordgasmic.collections.repository.RepositoryItem;
+import com.lordgasmic.wineservice.config.WineImageConstants;
+import com.lordgasmic.wineservice.models.WineImageJobMessage;
+import com.lordgasmic.wineservice.models.WineImageJobResponse;
+import com.lordgasmic.wineservice.models.WineImageJobStatus;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.amqp.AmqpException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.List;
+import java.util.Optional;
+
+import static com.lordgasmic.wineservice.config.WineImageJobConstants.PROPERTY_LABEL;
+import static com.lordgasmic.wineservice.config.WineImageJobConstants.PROPERTY_ORIGINAL;
+import static com.lordgasmic.wineservice.config.WineImageJobConstants.PROPERTY_WINE_ID;
+import static com.lordgasmic.wineservice.config.WineImageJobConstants.WINE_IMAGE_JOB_ITEM_DESCRIPTOR_NAME;
+
+/**
+ * Accepts uploads by persisting the original and queueing a resize job, so the HTTP thread never decodes or resizes.
+ * Renditions are produced by {@link RabbitMQListener} calling {@link #process(int)}.
+ */
+@Service
+@Slf4j
+public class WineImageJobService {
+    // the original blob is left out so status polling stays cheap
+    private static final String SELECT_JOB = "select id, wine_id, label, status, image_id, error from wine_image_job_vw where id = ?";
+    private static final String UPDATE_STATUS = "update wine_image_job_vw set status = ?, image_id = ?, error = ? where id = ?";
+    private static final String DISCARD_ORIGINAL = "update wine_image_job_vw set original = null where id = ? and keep_original = 0";
+    private static final String INSERT_JOB = "insert into wine_image_job_vw (wine_id, label, original, mime_type, keep_original, status) values (?, ?, ?, ?, ?, ?)";
+    // a PROCESSING claim older than the timeout belongs to a worker that died mid-job, so it can be taken over
+    private static final String CLAIM = "update wine_image_job_vw set status = ?, claimed_at = current_timestamp where id = ? "
+                                        + "and (status = ? or (status = ? and claimed_at < timestampadd(second, ?, current_timestamp)))";
+    private static final String SELECT_STALE = "select id from wine_image_job_vw where status = ? and claimed_at < timestampadd(second, ?, current_timestamp)";
+    private static final String REQUEUE = "update wine_image_job_vw set status = ?, claimed_at = null where id = ? and status = ? "
+                                          + "and claimed_at < timestampadd(second, ?, current_timestamp)";
+    private static final int MAX_ERROR_LENGTH = 1024;
+
+    private final TimedRepository wineRepository;
+    private final WineTastingDataSource dataSource;
+    private final WineImageService wineImageService;
+    private final RabbitMQSender sender;
+    private final ImageUploadValidator imageUploadValidator;
+    private final MeterRegistry meterRegistry;
+    private final int claimTimeoutSeconds;
+
+    public WineImageJobService(final TimedRepository wineRepository,
+                               final WineTastingDataSource dataSource,
+                               final WineImageService wineImageService,
+                               final RabbitMQSender sender,
+                               final ImageUploadValidator imageUploadValidator,
+                               final MeterRegistry meterRegistry,
+                               @Value("${lordgasmic.rabbitmq.imageJob.claimTimeoutSeconds}") final int claimTimeoutSeconds) {
+        this.wineRepository = wineRepository;
+        this.dataSource = dataSource;
+        this.wineImageService = wineImageService;
+        this.sender = sender;
+        this.imageUploadValidator = imageUploadValidator;
+        this.meterRegistry = meterRegistry;
+        this.claimTimeoutSeconds = claimTimeoutSeconds;
+    }
+
+    public WineImageJobResponse submit(final int wineId, final String label, final MultipartFile file, final boolean keepOriginal) throws SQLException, IOException {
+        imageUploadValidator.validate(file);
+        final int jobId = insertJob(wineId, label, file, keepOriginal);
+
+        try {
+            sender.sendImageJob(new WineImageJobMessage(jobId));
+        } catch (final AmqpException e) {
+            updateStatus(jobId, WineImageJobStatus.FAILED, null, "could not queue job: " + e.getMessage());
+            throw e;
+        }
+
+        final WineImageJobResponse response = new WineImageJobResponse();
+        response.setJobId(jobId);
+        response.setWineId(wineId);
+        response.setLabel(label);
+        response.setStatus(WineImageJobStatus.PENDING);
+        return response;
+    }
+
+    public Optional<WineImageJobResponse> getJob(final int jobId) throws SQLException {
+        return dataSource.query(SELECT_JOB, List.of(jobId), WineImageJobService::convertResultSetToWineImageJobResponse).stream().findFirst();
+    }
+
+    public void process(final int jobId) {
+        final Timer.Sample sample = Timer.start(meterRegistry);
+        String outcome = "failed";
+        try {
+            // redeliveries and competing consumers lose the race here instead of resizing the same upload twice
+            if (!claim(jobId)) {
+                log.info("image job {} is not pending or is claimed by a live worker, skipping", jobId);
+                outcome = "skipped";
+                return;
+            }
+
+            final RepositoryItem job = wineRepository.getRepositoryItem(Integer.toString(jobId), WINE_IMAGE_JOB_ITEM_DESCRIPTOR_NAME);
+            final RepositoryItem image = wineImageService.addRenditions((Integer) job.getPropertyValue(PROPERTY_WINE_ID),
+                                                                        (String) job.getPropertyValue(PROPERTY_LABEL),
+                                                                        new ByteArrayResource((byte[]) job.getPropertyValue(PROPERTY_ORIGINAL)),
+                                                                        true);
+            updateStatus(jobId, WineImageJobStatus.DONE, (Integer) image.getPropertyValue(WineImageConstants.PROPERTY_ID), null);
+            outcome = "done";
+            discardOriginal(jobId);
+        } catch (final Exception e) {
+            log.error("image job {} failed", jobId, e);
+            try {
+                updateStatus(jobId, WineImageJobStatus.FAILED, null, e.getMessage());
+            } catch (final SQLException ex) {
+                log.error("could not mark image job {} failed", jobId, ex);
+            }
+        } finally {
+            sample.stop(meterRegistry.timer("wine.image.job", "outcome", outcome));
+        }
+    }
+
+    /**
+     * Puts jobs whose worker died mid-job back to PENDING and queues them again. A redelivery of the original message
+     * usually arrives before the claim has timed out and is skipped, so without this such a job would stay PROCESSING.
+     */
+    @Scheduled(fixedDelayString = "${lordgasmic.rabbitmq.imageJob.reapIntervalMillis}")
+    public void requeueStale() {
+        try {
+            final List<Integer> stale = dataSource.query(SELECT_STALE,
+                                                         List.of(WineImageJobStatus.PROCESSING.name(), -claimTimeoutSeconds),
+                                                         rs -> rs.getInt("id"));
+            for (final int jobId : stale) {
+                // another instance's reaper may get there first
+                if (requeue(jobId)) {
+                    log.warn("image job {} was stuck in PROCESSING, requeueing", jobId);
+                    sender.sendImageJob(new WineImageJobMessage(jobId));
+                }
+            }
+        } catch (final SQLException | AmqpException e) {
+            log.error("could not requeue stale image jobs", e);
+        }
+    }
+
+    /**
+     * Streams the upload into the blob column, so a spooled upload is never read into memory on the request thread.
+     */
+    private int insertJob(final int wineId, final String label, final MultipartFile file, final boolean keepOriginal) throws SQLException, IOException {
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement statement = connection.prepareStatement(INSERT_JOB, Statement.RETURN_GENERATED_KEYS);
+             final InputStream in = file.getInputStream()) {
+            statement.setInt(1, wineId);
+            statement.setString(2, label);
+            statement.setBinaryStream(3, in, file.getSize());
+            statement.setString(4, file.getContentType());
+            statement.setInt(5, keepOriginal ? 1 : 0);
+            statement.setString(6, WineImageJobStatus.PENDING.name());
+            statement.executeUpdate();
+            try (final ResultSet keys = statement.getGeneratedKeys()) {
+                keys.next();
+                return keys.getInt(1);
+            }
+        }
+    }
+
+    private boolean claim(final int jobId) throws SQLException {
+        try (final Connection connection = dataSource.getConnection(); final PreparedStatement statement = connection.prepareStatement(CLAIM)) {
+            statement.setString(1, WineImageJobStatus.PROCESSING.name());
+            statement.setInt(2, jobId);
+            statement.setString(3, WineImageJobStatus.PENDING.name());
+            statement.setString(4, WineImageJobStatus.PROCESSING.name());
+            statement.setInt(5, -claimTimeoutSeconds);
+            return statement.executeUpdate() == 1;
+        }
+    }
+
+    private boolean requeue(final int jobId) throws SQLException {
+        try (final Connection connection = dataSource.getConnection(); final PreparedStatement statement = connection.prepareStatement(REQUEUE)) {
+            statement.setString(1, WineImageJobStatus.PENDING.name());
+            statement.setInt(2, jobId);
+            statement.setString(3, WineImageJobStatus.PROCESSING.name());
+            statement.setInt(4, -claimTimeoutSeconds);
+            return statement.executeUpdate() == 1;
+        }
+    }
+
+    /**
+     * Once the renditions are stored the original upload is only dead weight, unless the uploader asked to keep it.
+     */
+    private void discardOriginal(final int jobId) {
+        try (final Connection connection = dataSource.getConnection(); final PreparedStatement statement = connection.prepareStatement(DISCARD_ORIGINAL)) {
+            statement.setInt(1, jobId);
+            statement.executeUpdate();
+        } catch (final SQLException e) {
+            // the job itself succeeded; a leftover original only costs space
+            log.warn("could not discard original of image job {}", jobId, e);
+        }
+    }
+
+    private void updateStatus(final int jobId, final WineImageJobStatus status, final Integer imageId, final String error) throws SQLException {
+        try (final Connection connection = dataSource.getConnection(); final PreparedStatement statement = connection.prepareStatement(UPDATE_STATUS)) {
+            statement.setString(1, status.name());
+            if (imageId == null) {
+                statement.setNull(2, Types.INTEGER);
+            } else {
+                statement.setInt(2, imageId);
+            }
+            statement.setString(3, StringUtils.truncate(error, MAX_ERROR_LENGTH));
+            statement.setInt(4, jobId);
+            statement.executeUpdate();
+        }
+    }
+
+    private static WineImageJobResponse convertResultSetToWineImageJobResponse(final ResultSet rs) throws SQLException {
+        final WineImageJobResponse response = new WineImageJobResponse();
+        response.setJobId(rs.getInt("id"));
+        response.setWineId(rs.getInt("wine_id"));
+        response.setLabel(rs.getString("label"));
+        response.setStatus(WineImageJobStatus.valueOf(rs.getString("status")));
+        response.setImageId(rs.getObject("image_id") == null ? null : rs.getInt("image_id"));
+        response.setError(rs.getString("error"));
+        return response;
+    }
+}
@@ -1,80 +1,412 @@
 package com.lordgasmic.wineservice.service;
 
-import com.lordgasmic.collections.Nucleus;
-import com.lordgasmic.collections.repository.GSARepository;
-import com.lordgasmic.collections.repository.MutableRepositoryItem;
 import com.lordgasmic.collections.repository.RepositoryItem;
 import com.lordgasmic.wineservice.config.WineImageConstants;
+import com.lordgasmic.wineservice.models.EncodedImage;
+import com.lordgasmic.wineservice.models.StoredRendition;
 import com.lordgasmic.wineservice.models.WineImage;
+import com.lordgasmic.wineservice.models.WineImageMetadata;
+import com.lordgasmic.wineservice.models.WineImageMetadataResponse;
+import com.lordgasmic.wineservice.models.WineImageRendition;
 import com.lordgasmic.wineservice.models.WineImageResponse;
+import com.lordgasmic.wineservice.models.WineImageThumbnail;
+import com.lordgasmic.wineservice.models.WineImageThumbnailResponse;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.core.io.InputStreamSource;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Objects;
-
-import static java.util.stream.Collectors.toList;
+import java.util.Optional;
 
 @Service
 @Slf4j
 public class WineImageService {
-    private static final String REPO_NAME = "WineTastingRepository";
+    private static final String IMAGE_URL = "/api/v1/wineImages/";
+    private static final String THUMBNAIL_URL = "/api/v1/wineImages/thumbnails/";
+    private static final String CONTENT = "/content";
+    private static final String SELECT_METADATA = "select i.id, i.wine_id, i.label, i.mime_type, t.id as thumbnail_id"
+                                                  + " from wine_image_vw i left join wine_image_thumbnail_vw t on t.image_id = i.id"
+                                                  + " where i.wine_id = ? order by i.id";
+    // a reference row's hash lives on the row it points at
+    private static final String SELECT_BY_WINE_AND_HASH = "select i.id from wine_image_vw i left join wine_image_vw o on o.id = i.content_id"
+                                                          + " where i.wine_id = ? and coalesce(o.content_hash, i.content_hash) = ? order by i.id limit 1";
+    private static final String SELECT_BY_HASH = "select id from wine_image_vw where content_hash = ?";
+    private static final String INCREMENT_REF_COUNT = "update wine_image_vw set ref_count = ref_count + 1 where id = ?";
+    private static final String DECREMENT_REF_COUNT = "update wine_image_vw set ref_count = ref_count - 1 where id = ?";
+    private static final String INSERT_REFERENCE = "insert into wine_image_vw (wine_id, label, mime_type, content_id)"
+                                                   + " select ?, ?, mime_type, id from wine_image_vw where id = ?";
+    private static final String INSERT_THUMBNAIL_REFERENCE = "insert into wine_image_thumbnail_vw (image_id, wine_id, label, mime_type, content_id)"
+                                                             + " select ?, ?, ?, mime_type, id from wine_image_thumbnail_vw where image_id = ? order by id limit 1";
+    private static final String SELECT_FOR_DELETE = "select content_id from wine_image_vw where id = ? and wine_id is not null for update";
+    private static final String SELECT_REF_COUNT = "select ref_count from wine_image_vw where id = ?";
+    private static final String DETACH_IMAGE = "update wine_image_vw set wine_id = null where id = ?";
+    private static final String DETACH_THUMBNAILS = "update wine_image_thumbnail_vw set wine_id = null where image_id = ?";
+    private static final String DELETE_IMAGE = "delete from wine_image_vw where id = ?";
+    private static final String DELETE_THUMBNAILS = "delete from wine_image_thumbnail_vw where image_id = ?";
+    private static final String DUPLICATE_KEY_STATE = "23";
 
-    private final GSARepository wineRepository;
+    private final TimedRepository wineRepository;
     private final ImageProcessor imageProcessor;
+    private final ImageProcessingExecutor imageProcessingExecutor;
+    private final WineTastingDataSource dataSource;
+    private final ImageStore imageStore;
+    private final FileSystemImageStore fileSystemImageStore;
+    private final ImageUploadValidator imageUploadValidator;
+    private final DescriptorVersions versions;
 
-    public WineImageService() {
-        wineRepository = (GSARepository) Nucleus.getInstance().getGenericService(REPO_NAME);
-        imageProcessor = new ImageProcessor();
+    public WineImageService(final TimedRepository wineRepository,
+                            final WineTastingDataSource dataSource,
+                            final ImageProcessor imageProcessor,
+                            final ImageProcessingExecutor imageProcessingExecutor,
+                            final ImageStore imageStore,
+                            final FileSystemImageStore fileSystemImageStore,
+                            final ImageUploadValidator imageUploadValidator,
+                            final DescriptorVersions versions) {
+        this.wineRepository = wineRepository;
+        this.imageProcessor = imageProcessor;
+        this.imageProcessingExecutor = imageProcessingExecutor;
+        this.dataSource = dataSource;
+        this.imageStore = imageStore;
+        this.fileSystemImageStore = fileSystemImageStore;
+        this.imageUploadValidator = imageUploadValidator;
+        this.versions = versions;
     }
 
     public WineImageResponse addWineImage(final int wineId, final String label, final MultipartFile file) throws SQLException, IOException {
-        final String shortMimeType = Objects.requireNonNull(file.getContentType()).substring(file.getContentType().indexOf('/') + 1);
-        log.info("resizing...");
-        final byte[] resizeBytes = imageProcessor.resizeImage(file.getBytes(), shortMimeType);
-        final MutableRepositoryItem item = wineRepository.createItem(WineImageConstants.WINE_IMAGE_ITEM_DESCRIPTOR_NAME);
-        item.setProperty(WineImageConstants.PROPERTY_WINE_ID, wineId);
-        item.setProperty(WineImageConstants.PROPERTY_LABEL, label);
-        item.setProperty(WineImageConstants.PROPERTY_IMAGE, resizeBytes);
-        item.setProperty(WineImageConstants.PROPERTY_MIME_TYPE, file.getContentType());
-        log.info("adding image to repository");
-        final RepositoryItem repositoryItem = wineRepository.addItem(item);
-
-        log.info("resizing thumbnail...");
-        final byte[] thumbnailBytes = imageProcessor.resizeImageToThumbnail(file.getBytes(), shortMimeType);
-        final MutableRepositoryItem thumbnailItem = wineRepository.createItem(WineImageConstants.WINE_IMAGE_THUMBNAIL_ITEM_DESCRIPTOR_NAME);
-        thumbnailItem.setProperty(WineImageConstants.PROPERTY_WINE_ID, wineId);
-        thumbnailItem.setProperty(WineImageConstants.PROPERTY_LABEL, label);
-        thumbnailItem.setProperty(WineImageConstants.PROPERTY_THUMBNAIL, thumbnailBytes);
-        thumbnailItem.setProperty(WineImageConstants.PROPERTY_MIME_TYPE, file.getContentType());
-        log.info("adding thumbnail to repository");
-        wineRepository.addItem(thumbnailItem);
+        imageUploadValidator.validate(file);
+        final RepositoryItem repositoryItem = addRenditions(wineId, label, file, false);
 
         final WineImageResponse response = new WineImageResponse();
         response.setWineImages(List.of(convertRepositoryItemToWineImage(repositoryItem)));
         return response;
     }
 
+    /**
+     * Resizes an original upload into the display image and thumbnail and stores both, each with the mime type it was
+     * actually encoded in.
+     * <p>
+     * Uploads are keyed by the SHA-256 of the original bytes, and only one row per hash holds content. Re-uploading an
+     * image a wine already has returns the existing row; uploading an image another wine already has adds rows that
+     * point at the stored renditions through {@code content_id} and bumps the holder's {@code ref_count}. Either way
+     * nothing is resized or copied.
+     *
+     * @param original        read as a stream more than once: a spooled upload, a file or an in-memory resource
+     * @param waitForCapacity whether to wait for a free image worker rather than fail with
+     *                        {@link ImageProcessingRejectedException} when they are all busy
+     * @return the stored display image item
+     */
+    public RepositoryItem addRenditions(final int wineId,
+                                        final String label,
+                                        final InputStreamSource original,
+                                        final boolean waitForCapacity) throws SQLException, IOException {
+        final String contentHash;
+        try (final InputStream in = original.getInputStream()) {
+            contentHash = ContentHash.sha256(in);
+        }
+        final Optional<Integer> sameWine = dataSource.query(SELECT_BY_WINE_AND_HASH, List.of(wineId, contentHash), rs -> rs.getInt("id")).stream().findFirst();
+        if (sameWine.isPresent()) {
+            log.info("image {} already stored for wine {}", contentHash, wineId);
+            return wineRepository.getRepositoryItem(Integer.toString(sameWine.get()), WineImageConstants.WINE_IMAGE_ITEM_DESCRIPTOR_NAME);
+        }
+
+        final Optional<RepositoryItem> reference = addReference(contentHash, wineId, label);
+        if (reference.isPresent()) {
+            return reference.get();
+        }
+
+        final int[] heights = {imageProcessor.getDisplayHeight(), imageProcessor.getThumbnailHeight()};
+        log.info("resizing...");
+        final List<EncodedImage> renditions = waitForCapacity
+                                              ? imageProcessingExecutor.resizeWhenAvailable(original, heights)
+                                              : imageProcessingExecutor.resize(original, heights);
+        final int id;
+        try {
+            id = addHolder(wineId, label, contentHash, renditions.get(0), renditions.get(1));
+        } catch (final SQLException e) {
+            // a concurrent upload of the same bytes won the unique content_hash index
+            if (!isDuplicateKey(e)) {
+                throw e;
+            }
+            return addReference(contentHash, wineId, label).orElseThrow(() -> e);
+        }
+        return wineRepository.getRepositoryItem(Integer.toString(id), WineImageConstants.WINE_IMAGE_ITEM_DESCRIPTOR_NAME);
+    }
+
+    /**
+     * Inserts the row holding the content for {@code contentHash} together with its thumbnail, so the holder is never
+     * visible to {@link #addReference} without a thumbnail to point at.
+     *
+     * @return the new display image id
+     */
+    private int addHolder(final int wineId,
+                          final String label,
+                          final String contentHash,
+                          final EncodedImage resized,
+                          final EncodedImage thumbnail) throws SQLException, IOException {
+        final StoredRendition image = imageStore.store(WineImageRendition.IMAGE, resized.getBytes());
+        final StoredRendition thumbnailImage = imageStore.store(WineImageRendition.THUMBNAIL, thumbnail.getBytes());
+        final String insertImage = "insert into wine_image_vw (wine_id, label, mime_type, content_hash, " + image.getColumn() + ") values (?, ?, ?, ?, ?)";
+        final String insertThumbnail = "insert into wine_image_thumbnail_vw (image_id, wine_id, label, mime_type, " + thumbnailImage.getColumn()
+                                       + ") values (?, ?, ?, ?, ?)";
+        log.info("adding image and thumbnail to repository");
+        final int id;
+        try (final Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try (final PreparedStatement imageInsert = connection.prepareStatement(insertImage, Statement.RETURN_GENERATED_KEYS);
+                 final PreparedStatement thumbnailInsert = connection.prepareStatement(insertThumbnail)) {
+                WineTastingDataSource.bind(imageInsert, List.of(wineId, label, resized.getMimeType(), contentHash, image.getValue()));
+                imageInsert.executeUpdate();
+                try (final ResultSet keys = imageInsert.getGeneratedKeys()) {
+                    keys.next();
+                    id = keys.getInt(1);
+                }
+                WineTastingDataSource.bind(thumbnailInsert, List.of(id, wineId, label, thumbnail.getMimeType(), thumbnailImage.getValue()));
+                thumbnailInsert.executeUpdate();
+                connection.commit();
+            } catch (final SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        }
+        versions.bump(WineImageConstants.WINE_IMAGE_ITEM_DESCRIPTOR_NAME);
+        versions.bump(WineImageConstants.WINE_IMAGE_THUMBNAIL_ITEM_DESCRIPTOR_NAME);
+        return id;
+    }
+
+    /**
+     * Adds metadata-only rows for {@code wineId} pointing at the renditions already stored for {@code contentHash}.
+     *
+     * @return the new display image item, or empty if nothing holds that content
+     */
+    private Optional<RepositoryItem> addReference(final String contentHash, final int wineId, final String label) throws SQLException {
+        final Optional<Integer> owner = dataSource.query(SELECT_BY_HASH, List.of(contentHash), rs -> rs.getInt("id")).stream().findFirst();
+        if (owner.isEmpty()) {
+            return Optional.empty();
+        }
+
+        log.info("image {} already stored, referencing it for wine {}", contentHash, wineId);
+        final int id;
+        try (final Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try (final PreparedStatement increment = connection.prepareStatement(INCREMENT_REF_COUNT);
+                 final PreparedStatement image = connection.prepareStatement(INSERT_REFERENCE, Statement.RETURN_GENERATED_KEYS);
+                 final PreparedStatement thumbnail = connection.prepareStatement(INSERT_THUMBNAIL_REFERENCE)) {
+                // taking the holder's row lock first orders this against a delete releasing its last reference
+                increment.setInt(1, owner.get());
+                if (increment.executeUpdate() == 0) {
+                    connection.rollback();
+                    return Optional.empty();
+                }
+                WineTastingDataSource.bind(image, List.of(wineId, label, owner.get()));
+                image.executeUpdate();
+                try (final ResultSet keys = image.getGeneratedKeys()) {
+                    keys.next();
+                    id = keys.getInt(1);
+                }
+                WineTastingDataSource.bind(thumbnail, List.of(id, wineId, label, owner.get()));
+                if (thumbnail.executeUpdate() != 1) {
+                    // holders and their thumbnails are inserted together, so this is a holder that lost its thumbnail
+                    throw new SQLException("image " + owner.get() + " holding " + contentHash + " has no thumbnail to reference");
+                }
+                connection.commit();
+            } catch (final SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        }
+        versions.bump(WineImageConstants.WINE_IMAGE_ITEM_DESCRIPTOR_NAME);
+        versions.bump(WineImageConstants.WINE_IMAGE_THUMBNAIL_ITEM_DESCRIPTOR_NAME);
+        return Optional.of(wineRepository.getRepositoryItem(Integer.toString(id), WineImageConstants.WINE_IMAGE_ITEM_DESCRIPTOR_NAME));
+    }
+
+    /**
+     * Removes an image and its thumbnail from their wine. A reference row goes straight away and releases its hold on
+     * the row it points at; a row holding content other wines still reference is only detached from its wine. Content
+     * in the database is deleted with the last row referencing it. Files in the filesystem store are keyed by their
+     * bytes and may be shared by unrelated rows, so they are left in place.
+     *
+     * @return whether the image existed
+     */
+    public boolean deleteWineImage(final int id) throws SQLException {
+        try (final Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                final List<Integer> rows = query(connection, SELECT_FOR_DELETE, id, rs -> rs.getObject("content_id") == null ? id : rs.getInt("content_id"));
+                if (rows.isEmpty()) {
+                    connection.rollback();
+                    return false;
+                }
+                final int owner = rows.get(0);
+                if (owner == id) {
+                    update(connection, DETACH_THUMBNAILS, id);
+                    update(connection, DETACH_IMAGE, id);
+                } else {
+                    update(connection, DELETE_THUMBNAILS, id);
+                    update(connection, DELETE_IMAGE, id);
+                }
+                update(connection, DECREMENT_REF_COUNT, owner);
+                if (query(connection, SELECT_REF_COUNT, owner, rs -> rs.getInt("ref_count")).get(0) == 0) {
+                    log.info("image {} is no longer referenced, deleting its content", owner);
+                    update(connection, DELETE_THUMBNAILS, owner);
+                    update(connection, DELETE_IMAGE, owner);
+                }
+                connection.commit();
+            } catch (final SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        }
+        versions.bump(WineImageConstants.WINE_IMAGE_ITEM_DESCRIPTOR_NAME);
+        versions.bump(WineImageConstants.WINE_IMAGE_THUMBNAIL_ITEM_DESCRIPTOR_NAME);
+        return true;
+    }
+
+    private static <T> List<T> query(final Connection connection, final String sql, final int id, final WineTastingDataSource.RowMapper<T> mapper) throws SQLException {
+        try (final PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setInt(1, id);
+            try (final ResultSet rs = statement.executeQuery()) {
+                final List<T> results = new ArrayList<>();
+                while (rs.next()) {
+                    results.add(mapper.map(rs));
+                }
+                return results;
+            }
+        }
+    }
+
+    private static void update(final Connection connection, final String sql, final int id) throws SQLException {
+        try (final PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setInt(1, id);
+            statement.executeUpdate();
+        }
+    }
+
+    private static boolean isDuplicateKey(final SQLException e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof SQLException && StringUtils.startsWith(((SQLException) t).getSQLState(), DUPLICATE_KEY_STATE)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public WineImageResponse getWineImages(final int wineId) throws SQLException {
         final List<RepositoryItem> items = wineRepository.getRepositoryItems(Integer.toString(wineId),
                                                                              WineImageConstants.PROPERTY_WINE_ID,
                                                                              WineImageConstants.WINE_IMAGE_ITEM_DESCRIPTOR_NAME);
-        final List<WineImage> images = items.stream().map(WineImageService::convertRepositoryItemToWineImage).collect(toList());
+        final List<WineImage> images = new ArrayList<>();
+        for (final RepositoryItem item : items) {
+            images.add(convertRepositoryItemToWineImage(item));
+        }
         final WineImageResponse response = new WineImageResponse();
         response.setWineImages(images);
         return response;
     }
 
-    private static WineImage convertRepositoryItemToWineImage(final RepositoryItem repositoryItem) {
+    public WineImage getWineImage(final int id) throws SQLException {
+        final RepositoryItem item = wineRepository.getRepositoryItem(Integer.toString(id), WineImageConstants.WINE_IMAGE_ITEM_DESCRIPTOR_NAME);
+        return convertRepositoryItemToWineImage(item);
+    }
+
+    /**
+     * Lists a wine's images without their blobs; clients fetch the bytes they actually need through the returned URLs.
+     */
+    public WineImageMetadataResponse getWineImageMetadata(final int wineId) throws SQLException {
+        final List<WineImageMetadata> images = dataSource.query(SELECT_METADATA, List.of(wineId), WineImageService::convertResultSetToWineImageMetadata);
+        final WineImageMetadataResponse response = new WineImageMetadataResponse();
+        response.setWineImages(images);
+        return response;
+    }
+
+    public WineImageThumbnailResponse getWineImageThumbnails(final int wineId) throws SQLException {
+        final List<RepositoryItem> items = wineRepository.getRepositoryItems(Integer.toString(wineId),
+                                                                             WineImageConstants.PROPERTY_WINE_ID,
+                                                                             WineImageConstants.WINE_IMAGE_THUMBNAIL_ITEM_DESCRIPTOR_NAME);
+        final List<WineImageThumbnail> thumbnails = new ArrayList<>();
+        for (final RepositoryItem item : items) {
+            thumbnails.add(convertRepositoryItemToWineImageThumbnail(item));
+        }
+        final WineImageThumbnailResponse response = new WineImageThumbnailResponse();
+        response.setWineImageThumbnails(thumbnails);
+        return response;
+    }
+
+    public WineImageThumbnail getWineImageThumbnail(final int id) throws SQLException {
+        final RepositoryItem item = wineRepository.getRepositoryItem(Integer.toString(id), WineImageConstants.WINE_IMAGE_THUMBNAIL_ITEM_DESCRIPTOR_NAME);
+        return convertRepositoryItemToWineImageThumbnail(item);
+    }
+
+    private WineImage convertRepositoryItemToWineImage(final RepositoryItem repositoryItem) throws SQLException {
         final WineImage image = new WineImage();
         image.setId((Integer) repositoryItem.getPropertyValue(WineImageConstants.PROPERTY_ID));
         image.setWineId((Integer) repositoryItem.getPropertyValue(WineImageConstants.PROPERTY_WINE_ID));
         image.setLabel((String) repositoryItem.getPropertyValue(WineImageConstants.PROPERTY_LABEL));
-        image.setImage((byte[]) repositoryItem.getPropertyValue(WineImageConstants.PROPERTY_IMAGE));
+        image.setImage(readRendition(repositoryItem, WineImageRendition.IMAGE));
         image.setMimeType((String) repositoryItem.getPropertyValue(WineImageConstants.PROPERTY_MIME_TYPE));
         return image;
     }
+
+    private WineImageThumbnail convertRepositoryItemToWineImageThumbnail(final RepositoryItem repositoryItem) throws SQLException {
+        final Integer imageId = (Integer) repositoryItem.getPropertyValue(WineImageConstants.PROPERTY_IMAGE_ID);
+        final WineImageThumbnail thumbnail = new WineImageThumbnail();
+        thumbnail.setId((Integer) repositoryItem.getPropertyValue(WineImageConstants.PROPERTY_ID));
+        thumbnail.setImageId(imageId == null ? 0 : imageId);
+        thumbnail.setWineId((Integer) repositoryItem.getPropertyValue(WineImageConstants.PROPERTY_WINE_ID));
+        thumbnail.setLabel((String) repositoryItem.getPropertyValue(WineImageConstants.PROPERTY_LABEL));
+        thumbnail.setThumbnail(readRendition(repositoryItem, WineImageRendition.THUMBNAIL));
+        thumbnail.setMimeType((String) repositoryItem.getPropertyValue(WineImageConstants.PROPERTY_MIME_TYPE));
+        return thumbnail;
+    }
+
+    /**
+     * Rows written to the filesystem store keep only a storage key, so the inline-bytes endpoints read the file back.
+     * Reference rows hold nothing themselves and read the row their {@code content_id} points at.
+     */
+    private byte[] readRendition(final RepositoryItem repositoryItem, final WineImageRendition rendition) throws SQLException {
+        final Integer contentId = (Integer) repositoryItem.getPropertyValue(WineImageConstants.PROPERTY_CONTENT_ID);
+        final RepositoryItem holder = contentId == null
+                                      ? repositoryItem
+                                      : wineRepository.getRepositoryItem(Integer.toString(contentId), rendition.getDescriptor());
+        final String storageKey = (String) holder.getPropertyValue(WineImageConstants.PROPERTY_STORAGE_KEY);
+        if (storageKey == null) {
+            return (byte[]) holder.getPropertyValue(rendition.getProperty());
+        }
+        try {
+            return fileSystemImageStore.read(storageKey);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static WineImageMetadata convertResultSetToWineImageMetadata(final ResultSet rs) throws SQLException {
+        final WineImageMetadata metadata = new WineImageMetadata();
+        metadata.setId(rs.getInt("id"));
+        metadata.setWineId(rs.getInt("wine_id"));
+        metadata.setLabel(rs.getString("label"));
+        metadata.setMimeType(rs.getString("mime_type"));
+        metadata.setImageUrl(IMAGE_URL + metadata.getId() + CONTENT);
+
+        final int thumbnailId = rs.getInt("thumbnail_id");
+        if (!rs.wasNull()) {
+            metadata.setThumbnailUrl(THUMBNAIL_URL + thumbnailId + CONTENT);
+        }
+        return metadata;
+    }
 }
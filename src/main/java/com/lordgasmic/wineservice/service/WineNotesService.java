@@ -1,127 +1,397 @@
 package com.lordgasmic.wineservice.service;
 
-import com.lordgasmic.collections.Nucleus;
-import com.lordgasmic.collections.repository.GSARepository;
-import com.lordgasmic.collections.repository.MutableRepositoryItem;
-import com.lordgasmic.collections.repository.RepositoryItem;
-import com.lordgasmic.wineservice.config.WineNotesConstants;
+import com.lordgasmic.wineservice.models.BatchItemStatus;
+import com.lordgasmic.wineservice.models.BatchResponse;
+import com.lordgasmic.wineservice.models.PageResponse;
+import com.lordgasmic.wineservice.models.WineNoteBatchItem;
 import com.lordgasmic.wineservice.models.WineNoteOutput;
 import com.lordgasmic.wineservice.models.WineNoteRequest;
 import com.lordgasmic.wineservice.models.WineNoteResponse;
 import com.lordgasmic.wineservice.models.WineNoteUpsert;
+import com.lordgasmic.wineservice.models.WineQuery;
+import com.lordgasmic.wineservice.service.WineTastingDataSource.RowConsumer;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Optional;
+import java.util.Map;
+import java.util.Set;
 
-import static com.lordgasmic.wineservice.config.WineNotesConstants.PROPERTY_DATE;
-import static com.lordgasmic.wineservice.config.WineNotesConstants.PROPERTY_NOTE;
-import static com.lordgasmic.wineservice.config.WineNotesConstants.PROPERTY_ORDINAL;
-import static com.lordgasmic.wineservice.config.WineNotesConstants.PROPERTY_USER;
-import static com.lordgasmic.wineservice.config.WineNotesConstants.PROPERTY_WINE_ID;
 import static com.lordgasmic.wineservice.config.WineNotesConstants.WINE_NOTES_REPOSITORY_ITEM;
-import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toSet;
 
 @Service
 @Slf4j
 public class WineNotesService {
-    private static final String REPO_NAME = "WineTastingRepository";
+    private static final String SELECT_NOTES = "select id, wine_id, user, note, ordinal, date from wine_notes_vw";
+    private static final String INSERT_NOTE = "insert into wine_notes_vw (wine_id, user, note, ordinal, date) values (?, ?, ?, ?, ?)";
+    private static final String UPDATE_NOTE = "update wine_notes_vw set note = ? where id = ?";
+    private static final String DUPLICATE_KEY_STATE = "23";
+    private static final String DEADLOCK_STATE = "40001";
+    // ER_LOCK_DEADLOCK, for drivers that don't map it to 40001
+    private static final int DEADLOCK_ERROR = 1213;
 
-    private final GSARepository wineRepository;
+    private final WineTastingDataSource dataSource;
+    private final WineQueryCompiler queryCompiler;
+    private final DescriptorVersions versions;
 
-    public WineNotesService() {
-        wineRepository = (GSARepository) Nucleus.getInstance().getGenericService(REPO_NAME);
+    public WineNotesService(final WineTastingDataSource dataSource, final WineQueryCompiler queryCompiler, final DescriptorVersions versions) {
+        this.dataSource = dataSource;
+        this.queryCompiler = queryCompiler;
+        this.versions = versions;
     }
 
-    public WineNoteResponse getAllWineNotes() throws SQLException {
-        final List<RepositoryItem> items = wineRepository.getAllRepositoryItems(WINE_NOTES_REPOSITORY_ITEM);
-        final List<WineNoteOutput> wineNotes = items.stream().map(WineNotesService::convertRepositoryItemToWineNoteResponse).collect(toList());
+    public PageResponse<WineNoteOutput> searchWineNotes(final WineQuery query) throws SQLException {
+        final WineQueryCompiler.Compiled compiled = queryCompiler.compile(query, WineQueryCompiler.Target.NOTES);
+        return compiled.page(dataSource.query(compiled.getSql(), compiled.getParams(), WineNotesService::convertResultSetToWineNoteOutput),
+                             WineNoteOutput::getId);
+    }
+
+    /**
+     * Every note matching {@code query}, for the user and wine lists that have always returned the whole list. Read
+     * {@link WineQueryCompiler#MAX_LIMIT} rows at a time, so no one query is unbounded.
+     */
+    public WineNoteResponse findWineNotes(final WineQuery query) throws SQLException {
+        final List<WineNoteOutput> wineNotes = new ArrayList<>();
+        query.setLimit(WineQueryCompiler.MAX_LIMIT);
+        PageResponse<WineNoteOutput> page;
+        do {
+            page = searchWineNotes(query);
+            wineNotes.addAll(page.getItems());
+            query.setAfter(page.getNext());
+        } while (page.getNext() != null);
 
         return WineNoteResponse.builder().wineNotes(wineNotes).build();
     }
 
-    public WineNoteResponse getWineNotesByUser(final String user) throws SQLException {
-        final List<RepositoryItem> items = wineRepository.getRepositoryItems(user, PROPERTY_USER, WINE_NOTES_REPOSITORY_ITEM);
-        final List<WineNoteOutput> wineNotes = items.stream().map(WineNotesService::convertRepositoryItemToWineNoteResponse).collect(toList());
+    public PageResponse<WineNoteOutput> getWineNotesPage(final int after, final int limit) throws SQLException {
+        return dataSource.page(SELECT_NOTES, after, limit, WineNotesService::convertResultSetToWineNoteOutput, WineNoteOutput::getId);
+    }
 
-        return WineNoteResponse.builder().wineNotes(wineNotes).build();
+    public void streamWineNotes(final int after, final RowConsumer<? super WineNoteOutput> consumer) throws SQLException, IOException {
+        dataSource.stream(SELECT_NOTES, after, WineNotesService::convertResultSetToWineNoteOutput, consumer);
     }
 
     public WineNoteResponse getWineNotesByWineId(final int wineId) throws SQLException {
-        final List<RepositoryItem> items = wineRepository.getRepositoryItems(Integer.toString(wineId), PROPERTY_WINE_ID, WINE_NOTES_REPOSITORY_ITEM);
-        final List<WineNoteOutput> wineNotes = items.stream().map(WineNotesService::convertRepositoryItemToWineNoteResponse).collect(toList());
+        final WineQuery query = new WineQuery();
+        query.setWineId(wineId);
+        return findWineNotes(query);
+    }
+
+    /**
+     * Appends {@code wineNotes} and applies {@code upsert} edits to one wine's notes in a single transaction. The wine's
+     * notes are read once, under lock, and the response is built from that read plus what was written.
+     * <p>
+     * A wine with no notes has no rows to lock, only a gap, and two first saves can both take that gap lock. One of
+     * them then deadlocks or hits the unique (wine_id, ordinal) index on insert; it is retried once, by which time the
+     * other's notes are there to lock and number after.
+     */
+    public WineNoteResponse addWineNotes(final WineNoteRequest request) throws SQLException {
+        final Map<Integer, String> upserts = new HashMap<>();
+        if (request.getUpsert() != null) {
+            for (final WineNoteUpsert upsert : request.getUpsert()) {
+                upserts.put(Integer.parseInt(upsert.getId()), upsert.getNote());
+            }
+        }
+        final List<String> notes = request.getWineNotes() == null ? List.of() : request.getWineNotes();
+
+        List<WineNoteOutput> wineNotes;
+        try {
+            wineNotes = addWineNotes(request, upserts, notes);
+        } catch (final SQLException e) {
+            if (!isLostRace(e)) {
+                throw e;
+            }
+            log.info("retrying notes for wine {} after a concurrent save: {}", request.getWineId(), e.getMessage());
+            wineNotes = addWineNotes(request, upserts, notes);
+        }
+        if (!notes.isEmpty() || !upserts.isEmpty()) {
+            versions.bump(WINE_NOTES_REPOSITORY_ITEM);
+        }
 
         return WineNoteResponse.builder().wineNotes(wineNotes).build();
     }
 
-    public WineNoteResponse getWineNotesByWineIdByUser(final int wineId, final String user) throws SQLException {
-        final List<RepositoryItem> items = wineRepository.getRepositoryItems(Integer.toString(wineId), PROPERTY_WINE_ID, WINE_NOTES_REPOSITORY_ITEM);
-        final List<WineNoteOutput> wineNotes = items.stream()
-                                                    .filter(ri -> ri.getPropertyValue(PROPERTY_USER).equals(user))
-                                                    .map(WineNotesService::convertRepositoryItemToWineNoteResponse)
-                                                    .collect(toList());
+    private List<WineNoteOutput> addWineNotes(final WineNoteRequest request, final Map<Integer, String> upserts, final List<String> notes) throws SQLException {
+        final List<WineNoteOutput> wineNotes;
+        try (final Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try (final PreparedStatement insert = connection.prepareStatement(INSERT_NOTE, Statement.RETURN_GENERATED_KEYS);
+                 final PreparedStatement update = connection.prepareStatement(UPDATE_NOTE)) {
+                wineNotes = selectWineNotesForUpdate(connection, request.getWineId());
 
-        return WineNoteResponse.builder().wineNotes(wineNotes).build();
+                int maxOrdinal = -1;
+                boolean updated = false;
+                for (final WineNoteOutput output : wineNotes) {
+                    maxOrdinal = Math.max(maxOrdinal, output.getOrdinal());
+                    final String note = upserts.get(output.getId());
+                    // upserts naming another wine's notes are ignored, as they always have been
+                    if (note != null && !note.equals(output.getNote())) {
+                        update.setString(1, note);
+                        update.setInt(2, output.getId());
+                        update.addBatch();
+                        output.setNote(note);
+                        updated = true;
+                    }
+                }
+                if (updated) {
+                    dataSource.executeBatch(UPDATE_NOTE, update);
+                }
+
+                if (!notes.isEmpty()) {
+                    final List<WineNoteOutput> added = new ArrayList<>(notes.size());
+                    for (final String note : notes) {
+                        final WineNoteOutput output = new WineNoteOutput();
+                        output.setWineId(request.getWineId());
+                        output.setUser(request.getUser());
+                        output.setNote(note);
+                        output.setOrdinal(++maxOrdinal);
+                        output.setDate(request.getDate());
+                        insert.setInt(1, output.getWineId());
+                        insert.setString(2, output.getUser());
+                        insert.setString(3, output.getNote());
+                        insert.setInt(4, output.getOrdinal());
+                        insert.setString(5, output.getDate());
+                        insert.addBatch();
+                        added.add(output);
+                    }
+                    dataSource.executeBatch(INSERT_NOTE, insert);
+                    try (final ResultSet keys = insert.getGeneratedKeys()) {
+                        for (final WineNoteOutput output : added) {
+                            keys.next();
+                            output.setId(keys.getInt(1));
+                        }
+                    }
+                    wineNotes.addAll(added);
+                }
+                connection.commit();
+            } catch (final SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        }
+        return wineNotes;
     }
 
-    public WineNoteResponse addWineNotes(final WineNoteRequest request) throws SQLException {
-        final WineNoteResponse response = new WineNoteResponse();
-        List<RepositoryItem> items = wineRepository.getRepositoryItems(Integer.toString(request.getWineId()),
-                                                                       PROPERTY_WINE_ID,
-                                                                       WINE_NOTES_REPOSITORY_ITEM);
-        int maxOrdinal = items.stream().mapToInt(item -> (Integer) item.getPropertyValue(PROPERTY_ORDINAL)).max().orElseGet(() -> -1);
-
-        for (final String note : request.getWineNotes()) {
-            final MutableRepositoryItem item = wineRepository.createItem(WINE_NOTES_REPOSITORY_ITEM);
-            item.setProperty(PROPERTY_WINE_ID, request.getWineId());
-            item.setProperty(PROPERTY_USER, request.getUser());
-            item.setProperty(PROPERTY_DATE, request.getDate());
-            item.setProperty(PROPERTY_NOTE, note);
-            item.setProperty(PROPERTY_ORDINAL, ++maxOrdinal);
-
-            addItem(item);
-        }
-
-        for (final RepositoryItem item : items) {
-            final MutableRepositoryItem mItem = (MutableRepositoryItem) item;
-            final Optional<WineNoteUpsert> optional = request.getUpsert()
-                                                             .stream()
-                                                             .filter(i -> mItem.getPropertyValue(WineNotesConstants.PROPERTY_ID)
-                                                                               .equals(Integer.parseInt(i.getId())))
-                                                             .findFirst();
-            if (optional.isPresent()) {
-                log.info("found optional");
-                mItem.setProperty(PROPERTY_NOTE, optional.get().getNote());
-                wineRepository.updateItem(mItem, PROPERTY_NOTE);
+    /**
+     * Appends and edits many notes in one transaction. New notes take the next ordinals of their wine, in request
+     * order. See {@link BatchResults} for how failures are reported.
+     */
+    public BatchResponse<WineNoteOutput> saveWineNotes(final List<WineNoteBatchItem> items) throws SQLException {
+        final BatchResults<WineNoteOutput> results = new BatchResults<>(items.size());
+        final Map<Integer, Integer> indexesById = new LinkedHashMap<>();
+        final List<Integer> inserts = new ArrayList<>();
+        for (int i = 0; i < items.size(); i++) {
+            final WineNoteBatchItem item = items.get(i);
+            final String error = validate(item);
+            if (error != null) {
+                results.fail(i, error);
+            } else if (item.getId() == null) {
+                inserts.add(i);
+            } else {
+                final Integer duplicate = indexesById.putIfAbsent(item.getId(), i);
+                if (duplicate != null) {
+                    results.fail(i, "duplicates item " + duplicate);
+                }
             }
         }
+        if (inserts.isEmpty() && indexesById.isEmpty()) {
+            return results.committed();
+        }
+
+        try (final Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try (final PreparedStatement insert = connection.prepareStatement(INSERT_NOTE, Statement.RETURN_GENERATED_KEYS);
+                 final PreparedStatement update = connection.prepareStatement(UPDATE_NOTE)) {
+                final Map<Integer, WineNoteOutput> existing = selectForUpdate(connection, indexesById.keySet());
+                final List<Integer> updates = new ArrayList<>();
+                final Map<Integer, WineNoteOutput> written = new HashMap<>();
+                for (final Map.Entry<Integer, Integer> entry : indexesById.entrySet()) {
+                    final int index = entry.getValue();
+                    final WineNoteOutput current = existing.get(entry.getKey());
+                    if (current == null) {
+                        results.fail(index, "no note with id " + entry.getKey());
+                    } else if (current.getNote().equals(items.get(index).getNote())) {
+                        results.succeed(index, BatchItemStatus.UNCHANGED, current);
+                    } else {
+                        update.setString(1, items.get(index).getNote());
+                        update.setInt(2, current.getId());
+                        update.addBatch();
+                        updates.add(index);
+                        written.put(index, current);
+                    }
+                }
 
-        items = wineRepository.getRepositoryItems(Integer.toString(request.getWineId()), PROPERTY_WINE_ID, WINE_NOTES_REPOSITORY_ITEM);
-        for (final RepositoryItem item : items) {
-            response.getWineNotes().add(convertRepositoryItemToWineNoteResponse(item));
+                final Map<Integer, Integer> maxOrdinals = selectMaxOrdinalsForUpdate(connection, inserts.stream().map(i -> items.get(i).getWineId()).collect(toSet()));
+                for (final int index : inserts) {
+                    final WineNoteBatchItem item = items.get(index);
+                    final WineNoteOutput output = new WineNoteOutput();
+                    output.setWineId(item.getWineId());
+                    output.setUser(item.getUser());
+                    output.setNote(item.getNote());
+                    output.setOrdinal(maxOrdinals.merge(item.getWineId(), 1, Integer::sum));
+                    output.setDate(item.getDate());
+                    insert.setInt(1, output.getWineId());
+                    insert.setString(2, output.getUser());
+                    insert.setString(3, output.getNote());
+                    insert.setInt(4, output.getOrdinal());
+                    insert.setString(5, output.getDate());
+                    insert.addBatch();
+                    written.put(index, output);
+                }
+
+                results.execute(dataSource, INSERT_NOTE, insert, inserts);
+                if (!inserts.isEmpty()) {
+                    try (final ResultSet keys = insert.getGeneratedKeys()) {
+                        for (final int index : inserts) {
+                            keys.next();
+                            final WineNoteOutput output = written.get(index);
+                            output.setId(keys.getInt(1));
+                            results.succeed(index, BatchItemStatus.CREATED, output);
+                        }
+                    }
+                }
+                results.execute(dataSource, UPDATE_NOTE, update, updates);
+                for (final int index : updates) {
+                    final WineNoteOutput output = written.get(index);
+                    output.setNote(items.get(index).getNote());
+                    results.succeed(index, BatchItemStatus.UPDATED, output);
+                }
+                connection.commit();
+            } catch (final BatchUpdateException e) {
+                connection.rollback();
+                log.warn("rolled back a batch of {} notes: {}", items.size(), e.getMessage());
+                return results.rolledBack();
+            } catch (final SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
         }
+        versions.bump(WINE_NOTES_REPOSITORY_ITEM);
+        return results.committed();
+    }
 
-        return response;
+    /**
+     * Locks the wine's notes, and through the unique (wine_id, ordinal) index the gap after them, so a concurrent save
+     * to the same wine waits here rather than reading the same max ordinal. Should a writer bypass the lock, the index
+     * rejects the duplicate ordinal and the transaction rolls back.
+     */
+    private List<WineNoteOutput> selectWineNotesForUpdate(final Connection connection, final int wineId) throws SQLException {
+        final List<WineNoteOutput> wineNotes = new ArrayList<>();
+        try (final PreparedStatement statement = connection.prepareStatement(SELECT_NOTES + " where wine_id = ? order by ordinal for update")) {
+            statement.setInt(1, wineId);
+            try (final ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    wineNotes.add(convertResultSetToWineNoteOutput(rs));
+                }
+            }
+        }
+        return wineNotes;
     }
 
-    private void addItem(final MutableRepositoryItem item) {
-        try {
-            wineRepository.addItem(item);
-        } catch (final SQLException e) {
-            throw new RuntimeException(e);
+    private Map<Integer, WineNoteOutput> selectForUpdate(final Connection connection, final Set<Integer> ids) throws SQLException {
+        final Map<Integer, WineNoteOutput> existing = new HashMap<>();
+        if (ids.isEmpty()) {
+            return existing;
+        }
+        final String sql = SELECT_NOTES + " where id in " + WineTastingDataSource.placeholders(ids) + " for update";
+        try (final PreparedStatement statement = connection.prepareStatement(sql)) {
+            WineTastingDataSource.bind(statement, new ArrayList<>(ids));
+            try (final ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    final WineNoteOutput output = convertResultSetToWineNoteOutput(rs);
+                    existing.put(output.getId(), output);
+                }
+            }
+        }
+        return existing;
+    }
+
+    /**
+     * Locks each wine's notes while the batch appends to them, so two concurrent writers can't hand out the same
+     * ordinal.
+     *
+     * @return the highest ordinal per wine, -1 for wines with no notes yet
+     */
+    private Map<Integer, Integer> selectMaxOrdinalsForUpdate(final Connection connection, final Set<Integer> wineIds) throws SQLException {
+        final Map<Integer, Integer> maxOrdinals = new HashMap<>();
+        if (wineIds.isEmpty()) {
+            return maxOrdinals;
+        }
+        for (final int wineId : wineIds) {
+            maxOrdinals.put(wineId, -1);
+        }
+        final String sql = "select wine_id, ordinal from wine_notes_vw where wine_id in " + WineTastingDataSource.placeholders(wineIds) + " for update";
+        try (final PreparedStatement statement = connection.prepareStatement(sql)) {
+            WineTastingDataSource.bind(statement, new ArrayList<>(wineIds));
+            try (final ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    maxOrdinals.merge(rs.getInt("wine_id"), rs.getInt("ordinal"), Math::max);
+                }
+            }
+        }
+        return maxOrdinals;
+    }
+
+    private static boolean isLostRace(final SQLException e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof SQLException) {
+                final SQLException sqlException = (SQLException) t;
+                if (StringUtils.startsWith(sqlException.getSQLState(), DUPLICATE_KEY_STATE)
+                    || DEADLOCK_STATE.equals(sqlException.getSQLState())
+                    || sqlException.getErrorCode() == DEADLOCK_ERROR) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static String validate(final WineNoteBatchItem item) {
+        if (item == null) {
+            return "item is empty";
+        }
+        if (item.getNote() == null || item.getNote().isBlank()) {
+            return "note is required";
+        }
+        if (item.getId() != null) {
+            return null;
+        }
+        if (item.getWineId() <= 0) {
+            return "wineId is required";
+        }
+        if (item.getUser() == null || item.getUser().isBlank()) {
+            return "user is required";
+        }
+        if (item.getDate() == null || item.getDate().isBlank()) {
+            return "date is required";
         }
+        return null;
     }
 
-    private static WineNoteOutput convertRepositoryItemToWineNoteResponse(final RepositoryItem repositoryItem) {
+    private static WineNoteOutput convertResultSetToWineNoteOutput(final ResultSet rs) throws SQLException {
         final WineNoteOutput output = new WineNoteOutput();
-        output.setId((Integer) repositoryItem.getPropertyValue(WineNotesConstants.PROPERTY_ID));
-        output.setWineId((Integer) repositoryItem.getPropertyValue(WineNotesConstants.PROPERTY_WINE_ID));
-        output.setUser((String) repositoryItem.getPropertyValue(WineNotesConstants.PROPERTY_USER));
-        output.setNote((String) repositoryItem.getPropertyValue(WineNotesConstants.PROPERTY_NOTE));
-        output.setOrdinal((Integer) repositoryItem.getPropertyValue(WineNotesConstants.PROPERTY_ORDINAL));
-        output.setDate((String) repositoryItem.getPropertyValue(WineNotesConstants.PROPERTY_DATE));
+        output.setId(rs.getInt("id"));
+        output.setWineId(rs.getInt("wine_id"));
+        output.setUser(rs.getString("user"));
+        output.setNote(rs.getString("note"));
+        output.setOrdinal(rs.getInt("ordinal"));
+        output.setDate(rs.getString("date"));
         return output;
     }
 }
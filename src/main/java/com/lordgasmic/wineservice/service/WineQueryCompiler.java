@@ -0,0 +1,210 @@
+package com.lordgasmic.wineservice.service;
+
+import com.lordgasmic.wineservice.models.PageResponse;
+import com.lordgasmic.wineservice.models.WineQuery;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.function.ToIntFunction;
+
+/**
+ * Compiles a {@link WineQuery} into a single parameterized select over ratings or notes. Every filter is a sargable
+ * condition on an indexed column (see the {@code 202610181800} migration), winery and style through a join to the
+ * wine, and rating ranges as an IN list of the labels on the rating scale that fall in the range. Results come a page
+ * at a time, continuing from the {@code after} cursor of the previous page.
+ */
+@Component
+public class WineQueryCompiler {
+    public static final int MAX_LIMIT = 1000;
+    private static final Set<String> SORTS = Set.of("id", "wineId", "date");
+
+    private final RatingScale scale;
+
+    public WineQueryCompiler(final RatingScale scale) {
+        this.scale = scale;
+    }
+
+    public enum Target {
+        RATINGS("wine_rating_vw", "rating_date", true, "id", "wine_id", "user", "date", "rating"),
+        NOTES("wine_notes_vw", "note_date", false, "id", "wine_id", "user", "note", "ordinal", "date");
+
+        private final String view;
+        private final String dateColumn;
+        private final boolean rated;
+        private final String[] columns;
+
+        Target(final String view, final String dateColumn, final boolean rated, final String... columns) {
+            this.view = view;
+            this.dateColumn = dateColumn;
+            this.rated = rated;
+            this.columns = columns;
+        }
+    }
+
+    /**
+     * Compiles one page of the query: at most {@code limit} rows, {@link WineTastingDataSource#DEFAULT_PAGE_SIZE} when
+     * none is given, after the row whose id is {@code after} in the query's sort order.
+     */
+    public Compiled compile(final WineQuery query, final Target target) {
+        final String sort = query.getSort() == null ? "id" : query.getSort();
+        if (!SORTS.contains(sort)) {
+            throw badRequest("sort must be one of " + SORTS);
+        }
+        final String order = query.getOrder() == null ? "asc" : query.getOrder().toLowerCase();
+        if (!"asc".equals(order) && !"desc".equals(order)) {
+            throw badRequest("order must be asc or desc");
+        }
+        final String column;
+        if ("wineId".equals(sort)) {
+            column = "wine_id";
+        } else if ("date".equals(sort)) {
+            column = target.dateColumn;
+        } else {
+            column = "id";
+        }
+
+        final StringBuilder sql = new StringBuilder("select ");
+        for (int i = 0; i < target.columns.length; i++) {
+            sql.append(i == 0 ? "t." : ", t.").append(target.columns[i]);
+        }
+        sql.append(" from ").append(target.view).append(" t");
+
+        final List<String> conditions = new ArrayList<>();
+        final List<Object> params = new ArrayList<>();
+        if (query.getWineryId() != null || query.getStyle() != null) {
+            sql.append(" join wine_vw w on w.id = t.wine_id");
+        }
+        if (query.getAfter() != null) {
+            if ("id".equals(column)) {
+                conditions.add("t.id " + ("asc".equals(order) ? '>' : '<') + " ?");
+            } else {
+                // the previous page's last row, by primary key, so the cursor is just its id whatever the sort
+                sql.append(" join (select ").append(column).append(" as sort_value, id as sort_id from ").append(target.view).append(" where id = ?) c on 1 = 1");
+                conditions.add(after(column, order));
+            }
+            params.add(query.getAfter());
+        }
+        if (query.getWineryId() != null) {
+            conditions.add("w.winery_id = ?");
+            params.add(query.getWineryId());
+        }
+        if (query.getStyle() != null) {
+            conditions.add("w.style = ?");
+            params.add(query.getStyle());
+        }
+        if (query.getWineId() != null) {
+            conditions.add("t.wine_id = ?");
+            params.add(query.getWineId());
+        }
+        if (query.getUser() != null) {
+            conditions.add("t.user = ?");
+            params.add(query.getUser());
+        }
+        if (query.getFrom() != null) {
+            conditions.add("t." + target.dateColumn + " >= ?");
+            params.add(parseDate("from", query.getFrom()));
+        }
+        if (query.getTo() != null) {
+            conditions.add("t." + target.dateColumn + " <= ?");
+            params.add(parseDate("to", query.getTo()));
+        }
+        if (query.getMinRating() != null || query.getMaxRating() != null) {
+            if (!target.rated) {
+                throw badRequest("notes can't be filtered by rating");
+            }
+            final int min = query.getMinRating() == null ? 1 : score("minRating", query.getMinRating());
+            final int max = query.getMaxRating() == null ? scale.getMaxScore() : score("maxRating", query.getMaxRating());
+            final List<String> labels = scale.labelsBetween(min, max);
+            if (labels.isEmpty()) {
+                conditions.add("1 = 0");
+            } else {
+                conditions.add("t.rating in " + WineTastingDataSource.placeholders(labels));
+                params.addAll(labels);
+            }
+        }
+        if (!conditions.isEmpty()) {
+            sql.append(" where ").append(String.join(" and ", conditions));
+        }
+
+        sql.append(" order by t.").append(column).append(' ').append(order);
+        if (!"id".equals(column)) {
+            sql.append(", t.id ").append(order);
+        }
+
+        final int pageSize = query.getLimit() == null ? WineTastingDataSource.DEFAULT_PAGE_SIZE : Math.max(1, Math.min(query.getLimit(), MAX_LIMIT));
+        sql.append(" limit ?");
+        params.add(pageSize);
+        return new Compiled(sql.toString(), params, pageSize);
+    }
+
+    /**
+     * Rows after the cursor row {@code c} in {@code (column, id)} order. Dates can be null, which sort first ascending
+     * and last descending, so a null cursor value and null rows are compared explicitly.
+     */
+    private static String after(final String column, final String order) {
+        final String value = "t." + column;
+        final String same = "(" + value + " = c.sort_value or " + value + " is null and c.sort_value is null)";
+        if ("asc".equals(order)) {
+            return "(" + value + " > c.sort_value or " + same + " and t.id > c.sort_id or c.sort_value is null and " + value + " is not null)";
+        }
+        return "(" + value + " < c.sort_value or " + same + " and t.id < c.sort_id or c.sort_value is not null and " + value + " is null)";
+    }
+
+    private int score(final String name, final String rating) {
+        final int score = scale.score(rating);
+        if (score == 0) {
+            throw badRequest(name + " '" + rating + "' is not on the rating scale");
+        }
+        return score;
+    }
+
+    private static Date parseDate(final String name, final String value) {
+        try {
+            return Date.valueOf(LocalDate.parse(value));
+        } catch (final DateTimeParseException e) {
+            throw badRequest(name + " must be a yyyy-MM-dd date");
+        }
+    }
+
+    private static ResponseStatusException badRequest(final String reason) {
+        return new ResponseStatusException(HttpStatus.BAD_REQUEST, reason);
+    }
+
+    public static final class Compiled {
+        private final String sql;
+        private final List<Object> params;
+        private final int pageSize;
+
+        private Compiled(final String sql, final List<Object> params, final int pageSize) {
+            this.sql = sql;
+            this.params = params;
+            this.pageSize = pageSize;
+        }
+
+        public String getSql() {
+            return sql;
+        }
+
+        public List<Object> getParams() {
+            return params;
+        }
+
+        public int getPageSize() {
+            return pageSize;
+        }
+
+        /**
+         * @return {@code items} with a cursor to the next page: the last row's id if the page came back full
+         */
+        public <T> PageResponse<T> page(final List<T> items, final ToIntFunction<T> id) {
+            return new PageResponse<>(items, items.size() < pageSize ? null : id.applyAsInt(items.get(items.size() - 1)));
+        }
+    }
+}
@@ -0,0 +1,370 @@
+package com.lordgasmic.wineservice.service;
+
+import com.lordgasmic.wineservice.models.RatingSummary;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Per-wine and per-user rating counts, kept as a histogram over {@link RatingScale} scores so count, mean, min and max
+ * can all be maintained incrementally, including when a rating is edited. The histograms are persisted as
+ * {@code (key, rating, count)} rows in the summary tables and updated in the same transaction as every rating write,
+ * so nothing here ever scans {@code wine_rating}.
+ * <p>
+ * A wine's or user's summary is read from its few summary rows by primary key, so it reflects every committed write,
+ * whichever instance made it. Only the top-rated ranking, which needs every wine, is held in memory. It is reloaded
+ * from the wine summary table once it is {@code refreshSeconds} old, and local writes are applied to it as they
+ * commit, so writes through other instances or direct SQL show up within one refresh.
+ */
+@Service
+@Slf4j
+public class WineRatingAggregates {
+    private static final String SELECT_WINE_SUMMARY = "select wine_id, rating, rating_count from wine_rating_summary_vw";
+    private static final String SELECT_ONE_WINE_SUMMARY = "select rating, rating_count from wine_rating_summary_vw where wine_id = ?";
+    private static final String SELECT_ONE_USER_SUMMARY = "select rating, rating_count from user_rating_summary_vw where user = ?";
+    private static final String UPSERT_WINE_SUMMARY = "insert into wine_rating_summary_vw (wine_id, rating, rating_count) values (?, ?, ?)"
+                                                      + " on duplicate key update rating_count = rating_count + values(rating_count)";
+    private static final String UPSERT_USER_SUMMARY = "insert into user_rating_summary_vw (user, rating, rating_count) values (?, ?, ?)"
+                                                      + " on duplicate key update rating_count = rating_count + values(rating_count)";
+    private static final Comparator<Ranked> BY_RANK = Comparator.comparingDouble((Ranked r) -> r.mean)
+                                                                .thenComparingLong(r -> r.count)
+                                                                .thenComparingInt(r -> -r.wineId);
+
+    private final WineTastingDataSource dataSource;
+    private final RatingScale scale;
+    private final long refreshMillis;
+
+    // guards ranking and applied; held only around in-memory work, never across a database call. A lock rather than
+    // synchronized so virtual threads waiting on it don't pin their carriers
+    private final ReentrantLock lock = new ReentrantLock();
+    // one reload at a time; the others keep serving the ranking they have
+    private final ReentrantLock refreshLock = new ReentrantLock();
+    private volatile Ranking ranking;
+    // commits applied to the ranking, so a reload that raced one is known not to be safe to publish
+    private long applied;
+
+    public WineRatingAggregates(final WineTastingDataSource dataSource,
+                                final RatingScale scale,
+                                @Value("${lordgasmic.rating.summary.refreshSeconds}") final long refreshSeconds) {
+        this.dataSource = dataSource;
+        this.scale = scale;
+        refreshMillis = refreshSeconds * 1000;
+    }
+
+    public Optional<RatingSummary> getWineSummary(final int wineId) throws SQLException {
+        return read(SELECT_ONE_WINE_SUMMARY, wineId).map(h -> summarize(h, wineId, null));
+    }
+
+    public Optional<RatingSummary> getUserSummary(final String user) throws SQLException {
+        return read(SELECT_ONE_USER_SUMMARY, user).map(h -> summarize(h, null, user));
+    }
+
+    /**
+     * @param minCount wines with fewer scored ratings than this are left out, so one lucky rating doesn't top the list
+     * @return the best rated wines, highest mean first, ties going to the wine with more ratings
+     */
+    public List<RatingSummary> getTopWines(final int limit, final int minCount) throws SQLException {
+        final Map<Integer, Histogram> wines = ranking().wines;
+        // a min-heap of the best `limit` seen so far
+        final PriorityQueue<Ranked> top = new PriorityQueue<>(Math.max(1, limit), BY_RANK);
+        for (final Map.Entry<Integer, Histogram> wine : wines.entrySet()) {
+            final Histogram histogram = wine.getValue();
+            final long count = histogram.count();
+            if (count == 0 || count < minCount) {
+                continue;
+            }
+            top.add(new Ranked(wine.getKey(), histogram, histogram.sum() / (double) count, count));
+            if (top.size() > limit) {
+                top.poll();
+            }
+        }
+
+        final List<Ranked> ranked = new ArrayList<>(top);
+        ranked.sort(BY_RANK.reversed());
+        final List<RatingSummary> summaries = new ArrayList<>(ranked.size());
+        for (final Ranked r : ranked) {
+            summaries.add(summarize(r.histogram, r.wineId, null));
+        }
+        return summaries;
+    }
+
+    /**
+     * Writes the summary deltas of {@code changes} on the caller's transaction and commits it, so the ratings and their
+     * summary rows land together or not at all. The caller rolls back if this throws.
+     */
+    public void commit(final Connection connection, final List<Change> changes) throws SQLException {
+        final List<Delta> deltas = new ArrayList<>();
+        for (final Change change : changes) {
+            if (change.oldRating != null) {
+                if (RatingScale.normalize(change.oldRating).equals(RatingScale.normalize(change.newRating))) {
+                    continue;
+                }
+                deltas.add(new Delta(change.wineId, change.user, change.oldRating, -1));
+            }
+            deltas.add(new Delta(change.wineId, change.user, change.newRating, 1));
+        }
+        if (!deltas.isEmpty()) {
+            upsert(connection, deltas);
+        }
+        connection.commit();
+
+        if (deltas.isEmpty()) {
+            return;
+        }
+        lock.lock();
+        try {
+            applied++;
+            if (ranking != null) {
+                for (final Delta delta : deltas) {
+                    final int score = scale.score(delta.rating);
+                    ranking.wines.compute(delta.wineId, (id, h) -> (h == null ? new Histogram(scale.getMaxScore()) : h).plus(score, delta.delta));
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void upsert(final Connection connection, final List<Delta> deltas) throws SQLException {
+        try (final PreparedStatement wine = connection.prepareStatement(UPSERT_WINE_SUMMARY);
+             final PreparedStatement users = connection.prepareStatement(UPSERT_USER_SUMMARY)) {
+            for (final Delta delta : deltas) {
+                final String rating = RatingScale.normalize(delta.rating);
+                wine.setInt(1, delta.wineId);
+                wine.setString(2, rating);
+                wine.setInt(3, delta.delta);
+                wine.addBatch();
+                users.setString(1, delta.user);
+                users.setString(2, rating);
+                users.setInt(3, delta.delta);
+                users.addBatch();
+            }
+            dataSource.executeBatch(UPSERT_WINE_SUMMARY, wine);
+            dataSource.executeBatch(UPSERT_USER_SUMMARY, users);
+        } catch (final BatchUpdateException e) {
+            // not a failure of any one rating in a batch write, so not reported as one
+            throw new SQLException("could not update rating summaries: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return one wine's or user's histogram, or empty if it has no summary rows
+     */
+    private Optional<Histogram> read(final String sql, final Object key) throws SQLException {
+        final List<Histogram> rows = dataSource.query(sql, List.of(key), rs -> new Histogram(scale.getMaxScore()).plus(scale.score(rs.getString("rating")),
+                                                                                                                  rs.getLong("rating_count")));
+        return rows.stream().reduce(Histogram::plus);
+    }
+
+    /**
+     * The ranking, reloaded first if it is older than {@link #refreshMillis}. Only the first load makes callers wait;
+     * after that, one caller reloads while the rest keep using the current ranking.
+     */
+    private Ranking ranking() throws SQLException {
+        final Ranking current = ranking;
+        if (current != null && System.currentTimeMillis() - current.loadedAt < refreshMillis) {
+            return current;
+        }
+        if (current == null) {
+            refreshLock.lock();
+        } else if (!refreshLock.tryLock()) {
+            return current;
+        }
+        try {
+            final Ranking latest = ranking;
+            if (latest != null && latest != current) {
+                return latest;
+            }
+            return reload();
+        } finally {
+            refreshLock.unlock();
+        }
+    }
+
+    private Ranking reload() throws SQLException {
+        final long startedAt;
+        lock.lock();
+        try {
+            startedAt = applied;
+        } finally {
+            lock.unlock();
+        }
+
+        final long start = System.currentTimeMillis();
+        final Map<Integer, Histogram> wines = new ConcurrentHashMap<>();
+        dataSource.query(SELECT_WINE_SUMMARY, List.of(), rs -> {
+            final int score = scale.score(rs.getString("rating"));
+            final long count = rs.getLong("rating_count");
+            return wines.merge(rs.getInt("wine_id"), new Histogram(scale.getMaxScore()).plus(score, count), Histogram::plus);
+        });
+        final Ranking loaded = new Ranking(wines, start);
+
+        lock.lock();
+        try {
+            // a local commit landed while the table was read, and may or may not be in what was read; keep the
+            // ranking it was applied to, or this one if it is the first, and reload on the next read rather than count
+            // it twice or lose it
+            if (applied != startedAt) {
+                ranking = new Ranking(ranking == null ? wines : ranking.wines, 0);
+                return ranking;
+            }
+            ranking = loaded;
+        } finally {
+            lock.unlock();
+        }
+        log.info("loaded rating summaries for {} wines in {}ms", wines.size(), System.currentTimeMillis() - start);
+        return loaded;
+    }
+
+    private RatingSummary summarize(final Histogram histogram, final Integer wineId, final String user) {
+        final RatingSummary summary = new RatingSummary();
+        summary.setWineId(wineId);
+        summary.setUser(user);
+        summary.setUnscored(histogram.unscored);
+
+        final long count = histogram.count();
+        summary.setCount(count);
+        final Map<String, Long> counts = new LinkedHashMap<>();
+        for (int score = 1; score <= histogram.counts.length; score++) {
+            final long n = histogram.counts[score - 1];
+            if (n > 0) {
+                counts.put(scale.label(score) == null ? Integer.toString(score) : scale.label(score), n);
+                if (summary.getMin() == null) {
+                    summary.setMin(score);
+                }
+                summary.setMax(score);
+            }
+        }
+        summary.setHistogram(counts);
+        if (count > 0) {
+            summary.setMean(histogram.sum() / (double) count);
+        }
+        return summary;
+    }
+
+    private static final class Histogram {
+        // counts[score - 1]
+        private final long[] counts;
+        private final long unscored;
+
+        private Histogram(final int maxScore) {
+            this(new long[maxScore], 0);
+        }
+
+        private Histogram(final long[] counts, final long unscored) {
+            this.counts = counts;
+            this.unscored = unscored;
+        }
+
+        private Histogram plus(final int score, final long delta) {
+            if (score == 0) {
+                return new Histogram(counts, unscored + delta);
+            }
+            final long[] added = counts.clone();
+            added[score - 1] += delta;
+            return new Histogram(added, unscored);
+        }
+
+        private Histogram plus(final Histogram other) {
+            final long[] added = counts.clone();
+            for (int i = 0; i < added.length; i++) {
+                added[i] += other.counts[i];
+            }
+            return new Histogram(added, unscored + other.unscored);
+        }
+
+        private long count() {
+            long count = 0;
+            for (final long n : counts) {
+                count += n;
+            }
+            return count;
+        }
+
+        private long sum() {
+            long sum = 0;
+            for (int i = 0; i < counts.length; i++) {
+                sum += (i + 1) * counts[i];
+            }
+            return sum;
+        }
+    }
+
+    /**
+     * A rating that was added, or edited from {@code oldRating}.
+     */
+    public static final class Change {
+        private final int wineId;
+        private final String user;
+        private final String oldRating;
+        private final String newRating;
+
+        private Change(final int wineId, final String user, final String oldRating, final String newRating) {
+            this.wineId = wineId;
+            this.user = user;
+            this.oldRating = oldRating;
+            this.newRating = newRating;
+        }
+
+        public static Change added(final int wineId, final String user, final String rating) {
+            return new Change(wineId, user, null, rating);
+        }
+
+        public static Change edited(final int wineId, final String user, final String oldRating, final String newRating) {
+            return new Change(wineId, user, oldRating, newRating);
+        }
+    }
+
+    private static final class Delta {
+        private final int wineId;
+        private final String user;
+        private final String rating;
+        private final int delta;
+
+        private Delta(final int wineId, final String user, final String rating, final int delta) {
+            this.wineId = wineId;
+            this.user = user;
+            this.rating = rating;
+            this.delta = delta;
+        }
+    }
+
+    private static final class Ranking {
+        // histograms are immutable and replaced whole, so a reader never sees one half-updated
+        private final Map<Integer, Histogram> wines;
+        private final long loadedAt;
+
+        private Ranking(final Map<Integer, Histogram> wines, final long loadedAt) {
+            this.wines = wines;
+            this.loadedAt = loadedAt;
+        }
+    }
+
+    private static final class Ranked {
+        private final int wineId;
+        private final Histogram histogram;
+        private final double mean;
+        private final long count;
+
+        private Ranked(final int wineId, final Histogram histogram, final double mean, final long count) {
+            this.wineId = wineId;
+            this.histogram = histogram;
+            this.mean = mean;
+            this.count = count;
+        }
+    }
+}
@@ -1,112 +1,344 @@
 package com.lordgasmic.wineservice.service;
 
-import com.lordgasmic.collections.Nucleus;
-import com.lordgasmic.collections.repository.GSARepository;
-import com.lordgasmic.collections.repository.MutableRepositoryItem;
-import com.lordgasmic.collections.repository.RepositoryItem;
-import com.lordgasmic.wineservice.config.WineRatingConstants;
+import com.lordgasmic.wineservice.models.BatchItemStatus;
+import com.lordgasmic.wineservice.models.BatchResponse;
+import com.lordgasmic.wineservice.models.PageResponse;
 import com.lordgasmic.wineservice.models.WineFriendsRequest;
+import com.lordgasmic.wineservice.models.WineQuery;
 import com.lordgasmic.wineservice.models.WineRatingEditRequest;
 import com.lordgasmic.wineservice.models.WineRatingRequest;
 import com.lordgasmic.wineservice.models.WineRatingResponse;
+import com.lordgasmic.wineservice.service.WineTastingDataSource.RowConsumer;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.function.Predicate;
+import java.util.Map;
+import java.util.Set;
 
-import static com.lordgasmic.wineservice.config.WineRatingConstants.PROPERTY_DATE;
-import static com.lordgasmic.wineservice.config.WineRatingConstants.PROPERTY_RATING;
-import static com.lordgasmic.wineservice.config.WineRatingConstants.PROPERTY_USER;
-import static com.lordgasmic.wineservice.config.WineRatingConstants.PROPERTY_WINE_ID;
 import static com.lordgasmic.wineservice.config.WineRatingConstants.WINE_RATING_REPOSITORY_ITEM;
-import static java.util.stream.Collectors.toList;
 
 @Service
 @Slf4j
 public class WineRatingService {
-    private static final String REPO_NAME = "WineTastingRepository";
 
-    private final GSARepository wineRepository;
+    private static final String WILDCARD_USER = "*";
+    private static final String SELECT_RATINGS = "select id, wine_id, user, date, rating from wine_rating_vw";
+    private static final String INSERT_RATING = "insert into wine_rating_vw (wine_id, user, date, rating) values (?, ?, ?, ?)";
+    private static final String UPDATE_RATING = "update wine_rating_vw set rating = ? where id = ?";
+    private static final String SELECT_RATING_FOR_UPDATE = SELECT_RATINGS + " where id = ? for update";
 
-    public WineRatingService() {
-        wineRepository = (GSARepository) Nucleus.getInstance().getGenericService(REPO_NAME);
+    private final WineTastingDataSource dataSource;
+    private final WineRatingAggregates aggregates;
+    private final WineQueryCompiler queryCompiler;
+    private final DescriptorVersions versions;
+
+    public WineRatingService(final WineTastingDataSource dataSource,
+                             final WineRatingAggregates aggregates,
+                             final WineQueryCompiler queryCompiler,
+                             final DescriptorVersions versions) {
+        this.dataSource = dataSource;
+        this.aggregates = aggregates;
+        this.queryCompiler = queryCompiler;
+        this.versions = versions;
     }
 
-    public List<WineRatingResponse> getAllWineRatings() throws SQLException {
-        final List<RepositoryItem> items = wineRepository.getAllRepositoryItems(WINE_RATING_REPOSITORY_ITEM);
-        return items.stream().map(WineRatingService::convertRepositoryItemToWineRatingResponse).collect(toList());
+    public PageResponse<WineRatingResponse> searchWineRatings(final WineQuery query) throws SQLException {
+        final WineQueryCompiler.Compiled compiled = queryCompiler.compile(query, WineQueryCompiler.Target.RATINGS);
+        return compiled.page(dataSource.query(compiled.getSql(), compiled.getParams(), WineRatingService::convertResultSetToWineRatingResponse),
+                             WineRatingResponse::getId);
     }
 
-    public List<WineRatingResponse> getWineRatingByWineId(final int wineId) throws SQLException {
-        final List<RepositoryItem> items = wineRepository.getAllRepositoryItems(WINE_RATING_REPOSITORY_ITEM);
-        return items.stream()
-                    .filter(ri -> ri.getPropertyValue(PROPERTY_WINE_ID).equals(wineId))
-                    .map(WineRatingService::convertRepositoryItemToWineRatingResponse)
-                    .collect(toList());
+    /**
+     * Every rating matching {@code query}, for the user and wine lists that have always returned the whole list. Read
+     * {@link WineQueryCompiler#MAX_LIMIT} rows at a time, so no one query is unbounded.
+     */
+    public List<WineRatingResponse> findWineRatings(final WineQuery query) throws SQLException {
+        final List<WineRatingResponse> ratings = new ArrayList<>();
+        query.setLimit(WineQueryCompiler.MAX_LIMIT);
+        PageResponse<WineRatingResponse> page;
+        do {
+            page = searchWineRatings(query);
+            ratings.addAll(page.getItems());
+            query.setAfter(page.getNext());
+        } while (page.getNext() != null);
+        return ratings;
     }
 
-    public List<WineRatingResponse> getWineRatingsByUser(final String user) throws SQLException {
-        final List<RepositoryItem> items = wineRepository.getAllRepositoryItems(WINE_RATING_REPOSITORY_ITEM);
-        return items.stream()
-                    .filter(ri -> ri.getPropertyValue(PROPERTY_USER).equals(user))
-                    .map(WineRatingService::convertRepositoryItemToWineRatingResponse)
-                    .collect(toList());
+    public PageResponse<WineRatingResponse> getWineRatingsPage(final int after, final int limit) throws SQLException {
+        return dataSource.page(SELECT_RATINGS, after, limit, WineRatingService::convertResultSetToWineRatingResponse, WineRatingResponse::getId);
     }
 
-    public List<WineRatingResponse> getWineRatingsByWineIdByUser(final int wineId, final String user) throws SQLException {
-        final List<RepositoryItem> items = wineRepository.getAllRepositoryItems(WINE_RATING_REPOSITORY_ITEM);
-        return items.stream()
-                    .filter(ri -> ri.getPropertyValue(PROPERTY_WINE_ID).equals(wineId))
-                    .filter(ri -> ri.getPropertyValue(PROPERTY_USER).equals(user))
-                    .map(WineRatingService::convertRepositoryItemToWineRatingResponse)
-                    .collect(toList());
+    public void streamWineRatings(final int after, final RowConsumer<? super WineRatingResponse> consumer) throws SQLException, IOException {
+        dataSource.stream(SELECT_RATINGS, after, WineRatingService::convertResultSetToWineRatingResponse, consumer);
+    }
+
+    public List<WineRatingResponse> getWineRatingByWineId(final int wineId) throws SQLException {
+        final WineQuery query = new WineQuery();
+        query.setWineId(wineId);
+        return findWineRatings(query);
     }
 
     public List<WineRatingResponse> getWineRatingsByUsersByWineIds(final WineFriendsRequest request) throws SQLException {
-        final List<Predicate<RepositoryItem>> filterList = new ArrayList<>();
-        filterList.add(i -> request.getWineIds().contains((Integer) i.getPropertyValue(PROPERTY_WINE_ID)));
+        final Set<Integer> wineIds = request.getWineIds() == null ? Set.of() : new LinkedHashSet<>(request.getWineIds());
+        final Set<String> users = request.getUsers() == null ? Set.of() : new LinkedHashSet<>(request.getUsers());
+        if (wineIds.isEmpty() || users.isEmpty()) {
+            return List.of();
+        }
 
-        if (!request.getUsers().get(0).equals("*")) {
-            filterList.add(i -> request.getUsers().contains((String) i.getPropertyValue(PROPERTY_USER)));
+        final StringBuilder sql = new StringBuilder(SELECT_RATINGS).append(" where wine_id in ").append(WineTastingDataSource.placeholders(wineIds));
+        final List<Object> params = new ArrayList<>(wineIds);
+        if (!users.contains(WILDCARD_USER)) {
+            sql.append(" and user in ").append(WineTastingDataSource.placeholders(users));
+            params.addAll(users);
         }
 
-        final List<RepositoryItem> items = wineRepository.getAllRepositoryItems(WINE_RATING_REPOSITORY_ITEM);
-        return items.stream()
-                    .filter(i -> filterList.stream().anyMatch(f -> f.test(i)))
-                    .map(WineRatingService::convertRepositoryItemToWineRatingResponse)
-                    .collect(toList());
+        return dataSource.query(sql.toString(), params, WineRatingService::convertResultSetToWineRatingResponse);
     }
 
+    /**
+     * Writes the rating and its summary deltas in one transaction, so a failed summary write can't leave the aggregates
+     * off by one.
+     */
     public WineRatingResponse addWineRating(final WineRatingRequest request) throws SQLException {
-        final MutableRepositoryItem item = wineRepository.createItem(WINE_RATING_REPOSITORY_ITEM);
-
-        item.setProperty(PROPERTY_WINE_ID, request.getWineId());
-        item.setProperty(PROPERTY_USER, request.getUser());
-        item.setProperty(PROPERTY_DATE, request.getDate());
-        item.setProperty(PROPERTY_RATING, request.getRating());
+        final WineRatingResponse response = new WineRatingResponse();
+        response.setWineId(request.getWineId());
+        response.setUser(request.getUser());
+        response.setDate(request.getDate());
+        response.setRating(request.getRating());
 
-        final RepositoryItem addedItem = wineRepository.addItem(item);
-        return convertRepositoryItemToWineRatingResponse(addedItem);
+        try (final Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try (final PreparedStatement insert = connection.prepareStatement(INSERT_RATING, Statement.RETURN_GENERATED_KEYS)) {
+                WineTastingDataSource.bind(insert, List.of(request.getWineId(), request.getUser(), request.getDate(), request.getRating()));
+                insert.executeUpdate();
+                try (final ResultSet keys = insert.getGeneratedKeys()) {
+                    keys.next();
+                    response.setId(keys.getInt(1));
+                }
+                aggregates.commit(connection, List.of(WineRatingAggregates.Change.added(request.getWineId(), request.getUser(), request.getRating())));
+            } catch (final SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        }
+        versions.bump(WINE_RATING_REPOSITORY_ITEM);
+        return response;
     }
 
+    /**
+     * Like {@link #addWineRating}, updates the rating and its summary deltas in one transaction.
+     *
+     * @return the edited rating, or null if there is no rating with that id
+     */
     public WineRatingResponse editWineRating(final WineRatingEditRequest request) throws SQLException {
-        final MutableRepositoryItem item = (MutableRepositoryItem) wineRepository.getRepositoryItem(request.getId(), WINE_RATING_REPOSITORY_ITEM);
-        item.setProperty(PROPERTY_RATING, request.getRating());
+        final WineRatingResponse response;
+        try (final Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try (final PreparedStatement select = connection.prepareStatement(SELECT_RATING_FOR_UPDATE);
+                 final PreparedStatement update = connection.prepareStatement(UPDATE_RATING)) {
+                select.setInt(1, Integer.parseInt(request.getId()));
+                try (final ResultSet rs = select.executeQuery()) {
+                    if (!rs.next()) {
+                        connection.rollback();
+                        return null;
+                    }
+                    response = convertResultSetToWineRatingResponse(rs);
+                }
+                final String oldRating = response.getRating();
+                update.setString(1, request.getRating());
+                update.setInt(2, response.getId());
+                update.executeUpdate();
+                response.setRating(request.getRating());
+                aggregates.commit(connection, List.of(WineRatingAggregates.Change.edited(response.getWineId(), response.getUser(), oldRating, request.getRating())));
+            } catch (final SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        }
+        versions.bump(WINE_RATING_REPOSITORY_ITEM);
+        return response;
+    }
+
+    /**
+     * Adds or updates many ratings in one transaction, keyed like the table on wine, user and date: a rating that
+     * already exists for that key is updated, anything else is inserted. The summary deltas are written on the same
+     * connection and committed with the ratings. See {@link BatchResults} for how failures are reported.
+     */
+    public BatchResponse<WineRatingResponse> addWineRatings(final List<WineRatingRequest> requests) throws SQLException {
+        final BatchResults<WineRatingResponse> results = new BatchResults<>(requests.size());
+        final Map<List<Object>, Integer> indexesByKey = new LinkedHashMap<>();
+        for (int i = 0; i < requests.size(); i++) {
+            final WineRatingRequest request = requests.get(i);
+            final String error = validate(request);
+            if (error != null) {
+                results.fail(i, error);
+                continue;
+            }
+            final Integer duplicate = indexesByKey.putIfAbsent(key(request.getWineId(), request.getUser(), request.getDate()), i);
+            if (duplicate != null) {
+                results.fail(i, "duplicates item " + duplicate);
+            }
+        }
+        if (indexesByKey.isEmpty()) {
+            return results.committed();
+        }
+
+        final List<WineRatingAggregates.Change> changes = new ArrayList<>();
+        try (final Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try (final PreparedStatement insert = connection.prepareStatement(INSERT_RATING, Statement.RETURN_GENERATED_KEYS);
+                 final PreparedStatement update = connection.prepareStatement(UPDATE_RATING)) {
+                final Map<List<Object>, WineRatingResponse> existing = selectForUpdate(connection, indexesByKey.keySet());
+                final List<Integer> inserts = new ArrayList<>();
+                final List<Integer> updates = new ArrayList<>();
+                final Map<Integer, WineRatingResponse> written = new HashMap<>();
+                for (final Map.Entry<List<Object>, Integer> entry : indexesByKey.entrySet()) {
+                    final int index = entry.getValue();
+                    final WineRatingRequest request = requests.get(index);
+                    final WineRatingResponse current = existing.get(entry.getKey());
+                    if (current == null) {
+                        insert.setInt(1, request.getWineId());
+                        insert.setString(2, request.getUser());
+                        insert.setString(3, request.getDate());
+                        insert.setString(4, request.getRating());
+                        insert.addBatch();
+                        inserts.add(index);
+                        changes.add(WineRatingAggregates.Change.added(request.getWineId(), request.getUser(), request.getRating()));
+                    } else if (current.getRating().equals(request.getRating())) {
+                        results.succeed(index, BatchItemStatus.UNCHANGED, current);
+                    } else {
+                        update.setString(1, request.getRating());
+                        update.setInt(2, current.getId());
+                        update.addBatch();
+                        updates.add(index);
+                        changes.add(WineRatingAggregates.Change.edited(request.getWineId(), request.getUser(), current.getRating(), request.getRating()));
+                        written.put(index, current);
+                    }
+                }
+
+                results.execute(dataSource, INSERT_RATING, insert, inserts);
+                if (!inserts.isEmpty()) {
+                    try (final ResultSet keys = insert.getGeneratedKeys()) {
+                        for (final int index : inserts) {
+                            keys.next();
+                            final WineRatingRequest request = requests.get(index);
+                            final WineRatingResponse response = new WineRatingResponse();
+                            response.setId(keys.getInt(1));
+                            response.setWineId(request.getWineId());
+                            response.setUser(request.getUser());
+                            response.setDate(request.getDate());
+                            response.setRating(request.getRating());
+                            results.succeed(index, BatchItemStatus.CREATED, response);
+                        }
+                    }
+                }
+                results.execute(dataSource, UPDATE_RATING, update, updates);
+                for (final int index : updates) {
+                    final WineRatingResponse response = written.get(index);
+                    response.setRating(requests.get(index).getRating());
+                    results.succeed(index, BatchItemStatus.UPDATED, response);
+                }
+                aggregates.commit(connection, changes);
+            } catch (final BatchUpdateException e) {
+                connection.rollback();
+                log.warn("rolled back a batch of {} ratings: {}", requests.size(), e.getMessage());
+                return results.rolledBack();
+            } catch (final SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        }
+
+        if (!changes.isEmpty()) {
+            versions.bump(WINE_RATING_REPOSITORY_ITEM);
+        }
+        return results.committed();
+    }
+
+    /**
+     * Locks the existing rows for the given keys, so a concurrent write can't insert one of them between this read and
+     * the batch.
+     */
+    private Map<List<Object>, WineRatingResponse> selectForUpdate(final Connection connection, final Set<List<Object>> keys) throws SQLException {
+        final Set<Object> wineIds = new LinkedHashSet<>();
+        final Set<Object> users = new LinkedHashSet<>();
+        for (final List<Object> key : keys) {
+            wineIds.add(key.get(0));
+            users.add(key.get(1));
+        }
+        final String sql = SELECT_RATINGS + " where wine_id in " + WineTastingDataSource.placeholders(wineIds)
+                           + " and user in " + WineTastingDataSource.placeholders(users) + " for update";
+        final List<Object> params = new ArrayList<>(wineIds);
+        params.addAll(users);
+
+        final Map<List<Object>, WineRatingResponse> existing = new HashMap<>();
+        try (final PreparedStatement statement = connection.prepareStatement(sql)) {
+            WineTastingDataSource.bind(statement, params);
+            try (final ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    final WineRatingResponse response = convertResultSetToWineRatingResponse(rs);
+                    final List<Object> key = key(response.getWineId(), response.getUser(), response.getDate());
+                    if (keys.contains(key)) {
+                        existing.put(key, response);
+                    }
+                }
+            }
+        }
+        return existing;
+    }
+
+    private static String validate(final WineRatingRequest request) {
+        if (request == null) {
+            return "item is empty";
+        }
+        if (request.getWineId() <= 0) {
+            return "wineId is required";
+        }
+        if (isBlank(request.getUser())) {
+            return "user is required";
+        }
+        if (isBlank(request.getDate())) {
+            return "date is required";
+        }
+        if (request.getRating() == null) {
+            return "rating is required";
+        }
+        return null;
+    }
+
+    private static boolean isBlank(final String value) {
+        return value == null || value.isBlank();
+    }
 
-        final RepositoryItem updatedItem = wineRepository.updateItem(item, PROPERTY_RATING);
-        return convertRepositoryItemToWineRatingResponse(updatedItem);
+    private static List<Object> key(final int wineId, final String user, final String date) {
+        return List.of(wineId, user, date);
     }
 
-    private static WineRatingResponse convertRepositoryItemToWineRatingResponse(final RepositoryItem repositoryItem) {
+    static WineRatingResponse convertResultSetToWineRatingResponse(final ResultSet rs) throws SQLException {
         final WineRatingResponse response = new WineRatingResponse();
-        response.setId((Integer) repositoryItem.getPropertyValue(WineRatingConstants.PROPERTY_ID));
-        response.setWineId((Integer) repositoryItem.getPropertyValue(PROPERTY_WINE_ID));
-        response.setUser((String) repositoryItem.getPropertyValue(PROPERTY_USER));
-        response.setDate((String) repositoryItem.getPropertyValue(WineRatingConstants.PROPERTY_DATE));
-        response.setRating((String) repositoryItem.getPropertyValue(WineRatingConstants.PROPERTY_RATING));
+        response.setId(rs.getInt("id"));
+        response.setWineId(rs.getInt("wine_id"));
+        response.setUser(rs.getString("user"));
+        response.setDate(rs.getString("date"));
+        response.setRating(rs.getString("rating"));
         return response;
     }
 }
@@ -1,48 +1,54 @@
 package com.lordgasmic.wineservice.service;
 
-import com.lordgasmic.collections.Nucleus;
-import com.lordgasmic.collections.repository.GSARepository;
 import com.lordgasmic.collections.repository.MutableRepositoryItem;
 import com.lordgasmic.collections.repository.RepositoryItem;
 import com.lordgasmic.wineservice.config.WineConstants;
+import com.lordgasmic.wineservice.models.PageResponse;
 import com.lordgasmic.wineservice.models.WineRequest;
 import com.lordgasmic.wineservice.models.WineResponse;
+import com.lordgasmic.wineservice.service.WineTastingDataSource.RowConsumer;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.Comparator;
 import java.util.List;
 
 import static com.lordgasmic.wineservice.config.WineConstants.PROPERTY_STYLE;
 import static com.lordgasmic.wineservice.config.WineConstants.PROPERTY_WINERY_ID;
 import static com.lordgasmic.wineservice.config.WineConstants.WINE_REPOSITORY_ITEM;
 import static com.lordgasmic.wineservice.config.WineConstants.PROPERTY_NAME;
-import static java.util.stream.Collectors.toList;
 
 @Service
 @Slf4j
 public class WineService {
-    private static final String REPO_NAME = "WineTastingRepository";
+    private static final String SELECT_WINES = "select id, winery_id, name, style from wine_vw";
 
-    private final GSARepository wineRepository;
+    private final TimedRepository wineRepository;
+    private final WineCatalogCache catalogCache;
+    private final WineTastingDataSource dataSource;
 
-    public WineService() {
-        wineRepository = (GSARepository) Nucleus.getInstance().getGenericService(REPO_NAME);
+    public WineService(final TimedRepository wineRepository, final WineCatalogCache catalogCache, final WineTastingDataSource dataSource) {
+        this.wineRepository = wineRepository;
+        this.catalogCache = catalogCache;
+        this.dataSource = dataSource;
     }
 
     public List<WineResponse> getAllWines() throws SQLException {
-        final List<RepositoryItem> items = wineRepository.getAllRepositoryItems(WINE_REPOSITORY_ITEM);
-        return items.stream().map(WineService::convertRepositoryItemToWineResponse).collect(toList());
+        return catalogCache.getWines();
+    }
+
+    public PageResponse<WineResponse> getWinesPage(final int after, final int limit) throws SQLException {
+        return dataSource.page(SELECT_WINES, after, limit, WineService::convertResultSetToWineResponse, WineResponse::getId);
+    }
+
+    public void streamWines(final int after, final RowConsumer<? super WineResponse> consumer) throws SQLException, IOException {
+        dataSource.stream(SELECT_WINES, after, WineService::convertResultSetToWineResponse, consumer);
     }
 
     public List<WineResponse> getWinesByWineryId(final String id) throws SQLException {
-        final List<RepositoryItem> items = wineRepository.getAllRepositoryItems(WINE_REPOSITORY_ITEM);
-        return items.stream()
-                    .filter(ri -> ri.getPropertyValue(PROPERTY_WINERY_ID).equals(Integer.parseInt(id)))
-                    .map(WineService::convertRepositoryItemToWineResponse)
-                    .sorted(Comparator.comparing(WineResponse::getName, String.CASE_INSENSITIVE_ORDER))
-                    .collect(toList());
+        return catalogCache.getWinesByWineryId(Integer.parseInt(id));
     }
 
     public WineResponse getWine(final String id) throws SQLException {
@@ -55,17 +61,28 @@ public class WineService {
         item.setProperty(PROPERTY_WINERY_ID, request.getWineryId());
         item.setProperty(PROPERTY_NAME, request.getName());
         item.setProperty(PROPERTY_STYLE, request.getStyle());
-        final RepositoryItem addedItem = wineRepository.addItem(item);
+        final RepositoryItem addedItem = wineRepository.addItem(WINE_REPOSITORY_ITEM, item);
 
-        return convertRepositoryItemToWineResponse(addedItem);
+        final WineResponse response = convertRepositoryItemToWineResponse(addedItem);
+        catalogCache.addWine(response);
+        return response;
     }
 
-    private static WineResponse convertRepositoryItemToWineResponse(final RepositoryItem repositoryItem) {
-        final WineResponse response = new WineResponse();
-        response.setId((Integer) repositoryItem.getPropertyValue(WineConstants.PROPERTY_ID));
-        response.setWineryId((Integer) repositoryItem.getPropertyValue(WineConstants.PROPERTY_WINERY_ID));
-        response.setName((String) repositoryItem.getPropertyValue(WineConstants.PROPERTY_NAME));
-        response.setStyle((String) repositoryItem.getPropertyValue(WineConstants.PROPERTY_STYLE));
-        return response;
+    private static WineResponse convertResultSetToWineResponse(final ResultSet rs) throws SQLException {
+        return WineResponse.builder()
+                           .id(rs.getInt("id"))
+                           .wineryId(rs.getInt("winery_id"))
+                           .name(rs.getString("name"))
+                           .style(rs.getString("style"))
+                           .build();
+    }
+
+    static WineResponse convertRepositoryItemToWineResponse(final RepositoryItem repositoryItem) {
+        return WineResponse.builder()
+                           .id((Integer) repositoryItem.getPropertyValue(WineConstants.PROPERTY_ID))
+                           .wineryId((Integer) repositoryItem.getPropertyValue(WineConstants.PROPERTY_WINERY_ID))
+                           .name((String) repositoryItem.getPropertyValue(WineConstants.PROPERTY_NAME))
+                           .style((String) repositoryItem.getPropertyValue(WineConstants.PROPERTY_STYLE))
+                           .build();
     }
 }
@@ -0,0 +1,189 @@
+package com.lordgasmic.wineservice.service;
+
+import com.lordgasmic.wineservice.config.NucleusStartup;
+import com.lordgasmic.wineservice.models.PageResponse;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.StringJoiner;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+
+/**
+ * Plain JDBC access to the DataSource behind the WineTastingRepository, for queries the GSARepository can't express
+ * (IN lists, joins, batches, keyset pages and streamed exports).
+ * <p>
+ * Every call is timed as {@code wine.jdbc}, tagged by the view the statement reads or writes, the operation and the
+ * outcome, the way {@link TimedRepository} times the GSARepository.
+ */
+@Component
+@Slf4j
+public class WineTastingDataSource {
+    private static final String DATA_SOURCE_NAME = "DataSource";
+    private static final int STREAM_FETCH_SIZE = 500;
+    private static final int MAX_PAGE_SIZE = 1000;
+    private static final String METRIC = "wine.jdbc";
+    private static final Pattern VIEW = Pattern.compile("\\b(?:from|into|update)\\s+(\\w+)", Pattern.CASE_INSENSITIVE);
+
+    public static final int DEFAULT_PAGE_SIZE = 100;
+
+    private final Supplier<DataSource> dataSource;
+    private final MeterRegistry meterRegistry;
+
+    /**
+     * Looks the DataSource up on first use, once Nucleus has started.
+     */
+    @Autowired
+    public WineTastingDataSource(final NucleusStartup nucleusStartup, final MeterRegistry meterRegistry) {
+        dataSource = () -> (DataSource) nucleusStartup.getGenericService(DATA_SOURCE_NAME);
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * For use outside Nucleus, e.g. over an embedded database in the benchmarks.
+     */
+    public WineTastingDataSource(final DataSource dataSource) {
+        this(dataSource, new SimpleMeterRegistry());
+    }
+
+    public WineTastingDataSource(final DataSource dataSource, final MeterRegistry meterRegistry) {
+        this.dataSource = () -> dataSource;
+        this.meterRegistry = meterRegistry;
+    }
+
+    public Connection getConnection() throws SQLException {
+        return dataSource.get().getConnection();
+    }
+
+    public <T> List<T> query(final String sql, final List<?> params, final RowMapper<T> mapper) throws SQLException {
+        return time(sql, "query", () -> select(sql, params, mapper));
+    }
+
+    private <T> List<T> select(final String sql, final List<?> params, final RowMapper<T> mapper) throws SQLException {
+        try (final Connection connection = getConnection(); final PreparedStatement statement = connection.prepareStatement(sql)) {
+            bind(statement, params);
+            try (final ResultSet rs = statement.executeQuery()) {
+                final List<T> results = new ArrayList<>();
+                while (rs.next()) {
+                    results.add(mapper.map(rs));
+                }
+                return results;
+            }
+        }
+    }
+
+    /**
+     * @return up to {@code limit} rows of {@code select} with an {@code id} greater than {@code after}, in id order.
+     *         Seeks on the primary key, so every page costs the same however deep it is.
+     */
+    public <T> PageResponse<T> page(final String select, final int after, final int limit, final RowMapper<T> mapper, final ToIntFunction<T> id) throws SQLException {
+        final int size = Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+        final List<T> items = time(select, "page", () -> select(select + " where id > ? order by id limit ?", List.of(after, size), mapper));
+        final Integer next = items.size() < size ? null : id.applyAsInt(items.get(items.size() - 1));
+        return new PageResponse<>(items, next);
+    }
+
+    /**
+     * Hands each row of {@code select} with an {@code id} greater than {@code after} to {@code consumer} as it comes off
+     * the result set. The driver fetches {@link #STREAM_FETCH_SIZE} rows at a time rather than buffering the whole
+     * result, so memory stays flat however large the table. The timing includes the time {@code consumer} spends
+     * writing each row out.
+     */
+    public <T> void stream(final String select, final int after, final RowMapper<T> mapper, final RowConsumer<? super T> consumer) throws SQLException, IOException {
+        final Timer.Sample sample = Timer.start(meterRegistry);
+        String outcome = "error";
+        try (final Connection connection = getConnection();
+             final PreparedStatement statement = connection.prepareStatement(select + " where id > ? order by id",
+                                                                             ResultSet.TYPE_FORWARD_ONLY,
+                                                                             ResultSet.CONCUR_READ_ONLY)) {
+            statement.setFetchSize(STREAM_FETCH_SIZE);
+            statement.setInt(1, after);
+            try (final ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    consumer.accept(mapper.map(rs));
+                }
+            }
+            outcome = "success";
+        } finally {
+            stop(sample, select, "stream", outcome);
+        }
+    }
+
+    /**
+     * Runs a batch prepared from {@code sql} on a caller's connection, timed like the other calls.
+     */
+    public int[] executeBatch(final String sql, final PreparedStatement statement) throws SQLException {
+        return time(sql, "batch", statement::executeBatch);
+    }
+
+    public static void bind(final PreparedStatement statement, final List<?> params) throws SQLException {
+        for (int i = 0; i < params.size(); i++) {
+            statement.setObject(i + 1, params.get(i));
+        }
+    }
+
+    /**
+     * @return a {@code (?, ?, ...)} placeholder list for an IN clause of the given size
+     */
+    public static String placeholders(final Collection<?> values) {
+        final StringJoiner joiner = new StringJoiner(", ", "(", ")");
+        for (int i = 0; i < values.size(); i++) {
+            joiner.add("?");
+        }
+        return joiner.toString();
+    }
+
+    private <T> T time(final String sql, final String operation, final JdbcCall<T> call) throws SQLException {
+        final Timer.Sample sample = Timer.start(meterRegistry);
+        String outcome = "error";
+        try {
+            final T result = call.call();
+            outcome = "success";
+            return result;
+        } finally {
+            stop(sample, sql, operation, outcome);
+        }
+    }
+
+    private void stop(final Timer.Sample sample, final String sql, final String operation, final String outcome) {
+        sample.stop(meterRegistry.timer(METRIC, "view", view(sql), "operation", operation, "outcome", outcome));
+    }
+
+    /**
+     * @return the first table or view the statement names, which for this service's statements is the one it is about
+     */
+    static String view(final String sql) {
+        final Matcher matcher = VIEW.matcher(sql);
+        return matcher.find() ? matcher.group(1).toLowerCase() : "unknown";
+    }
+
+    @FunctionalInterface
+    private interface JdbcCall<T> {
+        T call() throws SQLException;
+    }
+
+    @FunctionalInterface
+    public interface RowMapper<T> {
+        T map(ResultSet rs) throws SQLException;
+    }
+
+    @FunctionalInterface
+    public interface RowConsumer<T> {
+        void accept(T row) throws IOException;
+    }
+}
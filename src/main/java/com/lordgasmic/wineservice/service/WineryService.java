@@ -1,37 +1,49 @@
 package com.lordgasmic.wineservice.service;
 
-import com.lordgasmic.collections.Nucleus;
-import com.lordgasmic.collections.repository.GSARepository;
 import com.lordgasmic.collections.repository.MutableRepositoryItem;
 import com.lordgasmic.collections.repository.RepositoryItem;
 import com.lordgasmic.wineservice.config.WineryConstants;
+import com.lordgasmic.wineservice.models.PageResponse;
 import com.lordgasmic.wineservice.models.WineryRequest;
 import com.lordgasmic.wineservice.models.WineryResponse;
+import com.lordgasmic.wineservice.service.WineTastingDataSource.RowConsumer;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.List;
 
 import static com.lordgasmic.wineservice.config.WineryConstants.PROPERTY_LOCATION;
 import static com.lordgasmic.wineservice.config.WineryConstants.PROPERTY_NAME;
 import static com.lordgasmic.wineservice.config.WineryConstants.WINERY_REPOSITORY_ITEM;
-import static java.util.stream.Collectors.toList;
 
 @Service
 @Slf4j
 public class WineryService {
-    private static final String REPO_NAME = "WineTastingRepository";
+    private static final String SELECT_WINERIES = "select id, name, location from winery_vw";
 
-    private final GSARepository wineRepository;
+    private final TimedRepository wineRepository;
+    private final WineCatalogCache catalogCache;
+    private final WineTastingDataSource dataSource;
 
-    public WineryService() {
-        wineRepository = (GSARepository) Nucleus.getInstance().getGenericService(REPO_NAME);
+    public WineryService(final TimedRepository wineRepository, final WineCatalogCache catalogCache, final WineTastingDataSource dataSource) {
+        this.wineRepository = wineRepository;
+        this.catalogCache = catalogCache;
+        this.dataSource = dataSource;
     }
 
     public List<WineryResponse> getWineries() throws SQLException {
-        final List<RepositoryItem> items = wineRepository.getAllRepositoryItems(WINERY_REPOSITORY_ITEM);
-        return items.stream().map(WineryService::convertRepositoryItemToWineryResponse).collect(toList());
+        return catalogCache.getWineries();
+    }
+
+    public PageResponse<WineryResponse> getWineriesPage(final int after, final int limit) throws SQLException {
+        return dataSource.page(SELECT_WINERIES, after, limit, WineryService::convertResultSetToWineryResponse, WineryResponse::getId);
+    }
+
+    public void streamWineries(final int after, final RowConsumer<? super WineryResponse> consumer) throws SQLException, IOException {
+        dataSource.stream(SELECT_WINERIES, after, WineryService::convertResultSetToWineryResponse, consumer);
     }
 
     public WineryResponse getWineryById(final String id) throws SQLException {
@@ -43,17 +55,26 @@ public class WineryService {
         final MutableRepositoryItem item = wineRepository.createItem(WINERY_REPOSITORY_ITEM);
         item.setProperty(PROPERTY_NAME, request.getName());
         item.setProperty(PROPERTY_LOCATION, request.getLocation());
-        final RepositoryItem addedItem = wineRepository.addItem(item);
+        final RepositoryItem addedItem = wineRepository.addItem(WINERY_REPOSITORY_ITEM, item);
 
-        return convertRepositoryItemToWineryResponse(addedItem);
+        final WineryResponse response = convertRepositoryItemToWineryResponse(addedItem);
+        catalogCache.addWinery(response);
+        return response;
     }
 
-    private static WineryResponse convertRepositoryItemToWineryResponse(final RepositoryItem repositoryItem) {
-        final WineryResponse response = new WineryResponse();
-        response.setId((Integer) repositoryItem.getPropertyValue(WineryConstants.PROPERTY_ID));
-        response.setName((String) repositoryItem.getPropertyValue(WineryConstants.PROPERTY_NAME));
-        response.setLocation((String) repositoryItem.getPropertyValue(WineryConstants.PROPERTY_LOCATION));
+    private static WineryResponse convertResultSetToWineryResponse(final ResultSet rs) throws SQLException {
+        return WineryResponse.builder()
+                             .id(rs.getInt("id"))
+                             .name(rs.getString("name"))
+                             .location(rs.getString("location"))
+                             .build();
+    }
 
-        return response;
+    static WineryResponse convertRepositoryItemToWineryResponse(final RepositoryItem repositoryItem) {
+        return WineryResponse.builder()
+                             .id((Integer) repositoryItem.getPropertyValue(WineryConstants.PROPERTY_ID))
+                             .name((String) repositoryItem.getPropertyValue(WineryConstants.PROPERTY_NAME))
+                             .location((String) repositoryItem.getPropertyValue(WineryConstants.PROPERTY_LOCATION))
+                             .build();
     }
 }
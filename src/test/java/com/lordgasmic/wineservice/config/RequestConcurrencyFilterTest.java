@@ -0,0 +1,53 @@
+package com.lordgasmic.wineservice.config;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.web.MockAsyncContext;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import javax.servlet.FilterChain;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RequestConcurrencyFilterTest {
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final RequestConcurrencyFilter filter = new RequestConcurrencyFilter(1, 10, meterRegistry);
+
+    @Test
+    void permitIsReturnedWhenASynchronousRequestEnds() throws Exception {
+        filter.doFilter(new MockHttpServletRequest("GET", "/api/v1/wines"), new MockHttpServletResponse(), new MockFilterChain());
+
+        assertThat(available()).isEqualTo(1);
+    }
+
+    @Test
+    void asyncRequestHoldsItsPermitUntilItCompletes() throws Exception {
+        final MockHttpServletRequest export = asyncRequest();
+        final FilterChain startsAsync = (request, response) -> request.startAsync();
+
+        filter.doFilter(export, new MockHttpServletResponse(), startsAsync);
+        assertThat(available()).isZero();
+
+        final MockHttpServletResponse rejected = new MockHttpServletResponse();
+        filter.doFilter(new MockHttpServletRequest("GET", "/api/v1/wines"), rejected, new MockFilterChain());
+        assertThat(rejected.getStatus()).isEqualTo(HttpStatus.SERVICE_UNAVAILABLE.value());
+        assertThat(rejected.getHeader(HttpHeaders.RETRY_AFTER)).isEqualTo("1");
+
+        ((MockAsyncContext) export.getAsyncContext()).complete();
+        assertThat(available()).isEqualTo(1);
+    }
+
+    private static MockHttpServletRequest asyncRequest() {
+        final MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/v1/wines/export");
+        request.setAsyncSupported(true);
+        return request;
+    }
+
+    private double available() {
+        return meterRegistry.get("wine.request.admission.available").gauge().value();
+    }
+}
@@ -0,0 +1,165 @@
+package com.lordgasmic.wineservice.service;
+
+import com.lordgasmic.wineservice.models.EncodedImage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ByteArrayResource;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ImageProcessorTest {
+    private static final int DISPLAY_HEIGHT = 800;
+    private static final int THUMBNAIL_HEIGHT = 200;
+    // structural similarity of the JPEG rendition against a lossless one scaled the same way
+    private static final double MIN_SSIM = 0.95;
+    private static final int SSIM_WINDOW = 8;
+
+    @Test
+    void jpegRenditionsKeepQualityAtAFractionOfThePngSize() throws IOException {
+        final ByteArrayResource label = png(label(1200, 1600, BufferedImage.TYPE_INT_RGB));
+
+        final List<EncodedImage> jpeg = processor("jpeg").resize(label, DISPLAY_HEIGHT, THUMBNAIL_HEIGHT);
+        final List<EncodedImage> png = processor("png").resize(label, DISPLAY_HEIGHT, THUMBNAIL_HEIGHT);
+
+        for (int i = 0; i < jpeg.size(); i++) {
+            assertThat(jpeg.get(i).getMimeType()).isEqualTo("image/jpeg");
+            assertThat(jpeg.get(i).getBytes().length).isLessThan(png.get(i).getBytes().length / 2);
+            assertThat(ssim(decode(jpeg.get(i)), decode(png.get(i)))).isGreaterThanOrEqualTo(MIN_SSIM);
+        }
+    }
+
+    @Test
+    void sourceNoTallerThanTheRenditionIsStillEncoded() throws IOException {
+        final ByteArrayResource small = png(label(150, THUMBNAIL_HEIGHT, BufferedImage.TYPE_INT_RGB));
+
+        final EncodedImage rendition = processor("jpeg").resize(small, DISPLAY_HEIGHT).get(0);
+
+        assertThat(rendition.getMimeType()).isEqualTo("image/jpeg");
+        assertThat(rendition.getBytes()).isNotEqualTo(small.getByteArray());
+        assertThat(decode(rendition).getHeight()).isEqualTo(THUMBNAIL_HEIGHT);
+    }
+
+    @Test
+    void jpegTargetOfAnImageWithAlphaFallsBackToPng() throws IOException {
+        final ByteArrayResource transparent = png(label(300, 400, BufferedImage.TYPE_INT_ARGB));
+
+        final List<EncodedImage> renditions = processor("jpeg").resize(transparent, THUMBNAIL_HEIGHT, DISPLAY_HEIGHT);
+
+        assertThat(renditions).extracting(EncodedImage::getMimeType).containsOnly("image/png");
+        assertThat(decode(renditions.get(0)).getColorModel().hasAlpha()).isTrue();
+        assertThat(decode(renditions.get(1)).getHeight()).isEqualTo(400);
+    }
+
+    @Test
+    void transcodedRenditionKeepsQuality() throws IOException {
+        final EncodedImage png = processor("png").resize(png(label(1200, 1600, BufferedImage.TYPE_INT_RGB)), DISPLAY_HEIGHT).get(0);
+
+        final EncodedImage jpeg = processor("png").transcode(new ByteArrayResource(png.getBytes()), "jpeg");
+
+        assertThat(jpeg.getMimeType()).isEqualTo("image/jpeg");
+        assertThat(jpeg.getBytes().length).isLessThan(png.getBytes().length / 2);
+        assertThat(ssim(decode(jpeg), decode(png))).isGreaterThanOrEqualTo(MIN_SSIM);
+    }
+
+    private static ImageProcessor processor(final String format) {
+        return new ImageProcessor(DISPLAY_HEIGHT, THUMBNAIL_HEIGHT, format, 0.85f, false, new SimpleMeterRegistry());
+    }
+
+    /**
+     * Something like a photographed label: a lit gradient, sensor noise and fine print.
+     */
+    private static BufferedImage label(final int width, final int height, final int type) {
+        final BufferedImage image = new BufferedImage(width, height, type);
+        final Graphics2D graphics = image.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+            graphics.setPaint(new GradientPaint(0, 0, new Color(236, 226, 200), width, height, new Color(150, 120, 90)));
+            graphics.fillRect(0, 0, width, height);
+            final Random random = new Random(9);
+            for (int i = 0; i < width * height / 20; i++) {
+                final int gray = 100 + random.nextInt(100);
+                graphics.setColor(new Color(gray, gray, gray, 40));
+                graphics.fillRect(random.nextInt(width), random.nextInt(height), 1, 1);
+            }
+            graphics.setColor(new Color(90, 20, 30));
+            graphics.setFont(new Font(Font.SERIF, Font.BOLD, Math.max(12, height / 12)));
+            graphics.drawString("Chateau Test", width / 10, height / 4);
+            graphics.setFont(new Font(Font.SANS_SERIF, Font.PLAIN, Math.max(8, height / 60)));
+            for (int line = 0; line < 12; line++) {
+                graphics.drawString("Finger Lakes Riesling 2021, 12.5% alc/vol, estate bottled", width / 10, height / 2 + line * height / 40);
+            }
+        } finally {
+            graphics.dispose();
+        }
+        return image;
+    }
+
+    private static ByteArrayResource png(final BufferedImage image) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return new ByteArrayResource(out.toByteArray());
+    }
+
+    private static BufferedImage decode(final EncodedImage image) throws IOException {
+        return ImageIO.read(new ByteArrayInputStream(image.getBytes()));
+    }
+
+    /**
+     * Mean SSIM of the luma channel over non-overlapping windows.
+     */
+    private static double ssim(final BufferedImage a, final BufferedImage b) {
+        assertThat(a.getWidth()).isEqualTo(b.getWidth());
+        assertThat(a.getHeight()).isEqualTo(b.getHeight());
+        final double c1 = Math.pow(0.01 * 255, 2);
+        final double c2 = Math.pow(0.03 * 255, 2);
+        final int n = SSIM_WINDOW * SSIM_WINDOW;
+
+        double total = 0;
+        int windows = 0;
+        for (int y = 0; y + SSIM_WINDOW <= a.getHeight(); y += SSIM_WINDOW) {
+            for (int x = 0; x + SSIM_WINDOW <= a.getWidth(); x += SSIM_WINDOW) {
+                double sumA = 0;
+                double sumB = 0;
+                double sumAA = 0;
+                double sumBB = 0;
+                double sumAB = 0;
+                for (int dy = 0; dy < SSIM_WINDOW; dy++) {
+                    for (int dx = 0; dx < SSIM_WINDOW; dx++) {
+                        final double la = luma(a.getRGB(x + dx, y + dy));
+                        final double lb = luma(b.getRGB(x + dx, y + dy));
+                        sumA += la;
+                        sumB += lb;
+                        sumAA += la * la;
+                        sumBB += lb * lb;
+                        sumAB += la * lb;
+                    }
+                }
+                final double meanA = sumA / n;
+                final double meanB = sumB / n;
+                final double varA = sumAA / n - meanA * meanA;
+                final double varB = sumBB / n - meanB * meanB;
+                final double covariance = sumAB / n - meanA * meanB;
+                total += (2 * meanA * meanB + c1) * (2 * covariance + c2) / ((meanA * meanA + meanB * meanB + c1) * (varA + varB + c2));
+                windows++;
+            }
+        }
+        return total / windows;
+    }
+
+    private static double luma(final int rgb) {
+        return 0.299 * (rgb >> 16 & 0xff) + 0.587 * (rgb >> 8 & 0xff) + 0.114 * (rgb & 0xff);
+    }
+}
@@ -0,0 +1,176 @@
+package com.lordgasmic.wineservice.service;
+
+import com.lordgasmic.wineservice.models.ImageHeader;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.InputStreamSource;
+import org.springframework.http.HttpStatus;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ImageUploadValidatorTest {
+    private static final int UPLOAD_BYTES = 10 * 1024 * 1024;
+    private static final int CONCURRENT_UPLOADS = 50;
+    // a buffered upload would allocate at least its own size; streaming should stay at a few buffers
+    private static final long MAX_ALLOCATED_PER_UPLOAD = 2 * 1024 * 1024;
+
+    private final ImageUploadValidator validator = new ImageUploadValidator(new String[] {"png", " JPEG "}, 1_000_000);
+
+    @Test
+    void headerGivesTheTrueFormatAndSize() throws IOException {
+        final ImageHeader header = validator.validate(source(image("png", 40, 30)));
+
+        assertThat(header.getFormatName()).isEqualTo("png");
+        assertThat(header.getMimeType()).isEqualTo("image/png");
+        assertThat(header.getWidth()).isEqualTo(40);
+        assertThat(header.getHeight()).isEqualTo(30);
+    }
+
+    @Test
+    void formatOutsideTheAllowListIsUnsupported() {
+        assertRejected(source(image("bmp", 10, 10)), HttpStatus.UNSUPPORTED_MEDIA_TYPE);
+    }
+
+    @Test
+    void nonImageIsUnsupported() {
+        assertRejected(source("not an image at all".getBytes()), HttpStatus.UNSUPPORTED_MEDIA_TYPE);
+    }
+
+    @Test
+    void tooManyPixelsIsRejectedFromTheHeaderAlone() {
+        final byte[] large = image("png", 2000, 1000);
+        final AtomicLong read = new AtomicLong();
+
+        assertRejected(() -> new CountingInputStream(new SequenceInputStream(new ByteArrayInputStream(large), new PaddingInputStream(UPLOAD_BYTES)), read),
+                       HttpStatus.PAYLOAD_TOO_LARGE);
+        assertThat(read.get()).isLessThan(64 * 1024);
+    }
+
+    @Test
+    void concurrentLargeUploadsAreValidatedAndHashedWithBoundedAllocation() throws Exception {
+        final byte[] header = image("png", 800, 600);
+        final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        final ExecutorService uploads = Executors.newFixedThreadPool(CONCURRENT_UPLOADS);
+        try {
+            final List<Future<Long>> allocations = new ArrayList<>();
+            for (int i = 0; i < CONCURRENT_UPLOADS; i++) {
+                allocations.add(uploads.submit(() -> {
+                    final InputStreamSource upload = () -> new SequenceInputStream(new ByteArrayInputStream(header), new PaddingInputStream(UPLOAD_BYTES));
+                    final long before = threads.getCurrentThreadAllocatedBytes();
+                    validator.validate(upload);
+                    try (final InputStream in = upload.getInputStream()) {
+                        ContentHash.sha256(in);
+                    }
+                    return threads.getCurrentThreadAllocatedBytes() - before;
+                }));
+            }
+            for (final Future<Long> allocated : allocations) {
+                assertThat(allocated.get()).isLessThan(MAX_ALLOCATED_PER_UPLOAD);
+            }
+        } finally {
+            uploads.shutdownNow();
+        }
+    }
+
+    @Test
+    void streamedHashMatchesTheByteArrayHash() throws IOException {
+        final byte[] bytes = image("png", 64, 64);
+
+        assertThat(ContentHash.sha256(new ByteArrayInputStream(bytes))).isEqualTo(ContentHash.sha256(bytes)).hasSize(64);
+    }
+
+    private void assertRejected(final InputStreamSource upload, final HttpStatus status) {
+        assertThatThrownBy(() -> validator.validate(upload)).isInstanceOfSatisfying(InvalidImageUploadException.class,
+                                                                                     e -> assertThat(e.getStatus()).isEqualTo(status));
+    }
+
+    private static InputStreamSource source(final byte[] bytes) {
+        return () -> new ByteArrayInputStream(bytes);
+    }
+
+    private static byte[] image(final String format, final int width, final int height) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB), format, out);
+        } catch (final IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Trailing bytes that make an upload large without holding it in memory; image readers ignore data past the end.
+     */
+    private static final class PaddingInputStream extends InputStream {
+        private long remaining;
+
+        private PaddingInputStream(final long size) {
+            remaining = size;
+        }
+
+        @Override
+        public int read() {
+            if (remaining == 0) {
+                return -1;
+            }
+            remaining--;
+            return 0;
+        }
+
+        @Override
+        public int read(final byte[] buffer, final int offset, final int length) {
+            if (remaining == 0) {
+                return -1;
+            }
+            final int count = (int) Math.min(length, remaining);
+            Arrays.fill(buffer, offset, offset + count, (byte) 0);
+            remaining -= count;
+            return count;
+        }
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+        private final AtomicLong read;
+
+        private CountingInputStream(final InputStream in, final AtomicLong read) {
+            super(in);
+            this.read = read;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = super.read();
+            if (b != -1) {
+                read.incrementAndGet();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(final byte[] buffer, final int offset, final int length) throws IOException {
+            final int count = super.read(buffer, offset, length);
+            if (count > 0) {
+                read.addAndGet(count);
+            }
+            return count;
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.lordgasmic.wineservice.service;
+
+import com.lordgasmic.collections.repository.RepositoryItem;
+import com.lordgasmic.wineservice.config.WineConstants;
+import com.lordgasmic.wineservice.config.WineryConstants;
+import com.lordgasmic.wineservice.models.WineResponse;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static com.lordgasmic.wineservice.config.WineConstants.WINE_REPOSITORY_ITEM;
+import static com.lordgasmic.wineservice.config.WineryConstants.WINERY_REPOSITORY_ITEM;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class WineCatalogCacheTest {
+    private TimedRepository wineRepository;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        wineRepository = mock(TimedRepository.class);
+        when(wineRepository.getAllRepositoryItems(WINERY_REPOSITORY_ITEM)).thenReturn(List.of(winery(1)));
+        when(wineRepository.getAllRepositoryItems(WINE_REPOSITORY_ITEM)).thenReturn(List.of(wine(10, 1), wine(11, 1)));
+    }
+
+    @Test
+    void concurrentStaleReadsShareOneReload() throws Exception {
+        final CountDownLatch reloading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<RepositoryItem> wineries = List.of(winery(1));
+        when(wineRepository.getAllRepositoryItems(WINERY_REPOSITORY_ITEM)).thenAnswer(invocation -> {
+            reloading.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return wineries;
+        });
+        final WineCatalogCache cache = cache(100);
+
+        final ExecutorService callers = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<List<WineResponse>>> reads = new ArrayList<>();
+            reads.add(callers.submit(cache::getWines));
+            assertThat(reloading.await(5, TimeUnit.SECONDS)).isTrue();
+            for (int i = 0; i < 7; i++) {
+                reads.add(callers.submit(cache::getWines));
+            }
+            // give the other callers time to find the reload running
+            Thread.sleep(100);
+            release.countDown();
+            for (final Future<List<WineResponse>> read : reads) {
+                assertThat(read.get(5, TimeUnit.SECONDS)).hasSize(2);
+            }
+        } finally {
+            callers.shutdownNow();
+        }
+
+        verify(wineRepository, times(1)).getAllRepositoryItems(WINERY_REPOSITORY_ITEM);
+        verify(wineRepository, times(1)).getAllRepositoryItems(WINE_REPOSITORY_ITEM);
+    }
+
+    @Test
+    void wineAddedDuringAReloadIsKept() throws Exception {
+        final CountDownLatch reloading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        blockWineryLoad(reloading, release);
+        final WineCatalogCache cache = cache(100);
+
+        final ExecutorService caller = Executors.newSingleThreadExecutor();
+        try {
+            final Future<List<WineResponse>> read = caller.submit(cache::getWines);
+            assertThat(reloading.await(5, TimeUnit.SECONDS)).isTrue();
+            cache.addWine(WineResponse.builder().id(12).wineryId(1).name("Wine 12").style("red").build());
+            release.countDown();
+
+            assertThat(read.get(5, TimeUnit.SECONDS)).extracting(WineResponse::getId).containsExactlyInAnyOrder(10, 11, 12);
+        } finally {
+            caller.shutdownNow();
+        }
+        assertThat(cache.getWines()).extracting(WineResponse::getId).containsExactlyInAnyOrder(10, 11, 12);
+        verify(wineRepository, times(1)).getAllRepositoryItems(WINE_REPOSITORY_ITEM);
+    }
+
+    @Test
+    void reloadThatStartedBeforeAnInvalidateIsNotCached() throws Exception {
+        final CountDownLatch reloading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        blockWineryLoad(reloading, release);
+        final WineCatalogCache cache = cache(100);
+
+        final ExecutorService caller = Executors.newSingleThreadExecutor();
+        try {
+            final Future<List<WineResponse>> read = caller.submit(cache::getWines);
+            assertThat(reloading.await(5, TimeUnit.SECONDS)).isTrue();
+            cache.invalidate();
+            release.countDown();
+            read.get(5, TimeUnit.SECONDS);
+        } finally {
+            caller.shutdownNow();
+        }
+        assertThat(cache.getStats().getWines()).isZero();
+
+        cache.getWines();
+        verify(wineRepository, times(2)).getAllRepositoryItems(WINE_REPOSITORY_ITEM);
+    }
+
+    @Test
+    void wineMissingFromTheSnapshotIsReadAlone() throws Exception {
+        final RepositoryItem added = wine(12, 1);
+        when(wineRepository.getRepositoryItem("12", WINE_REPOSITORY_ITEM)).thenReturn(added);
+        final WineCatalogCache cache = cache(100);
+
+        assertThat(cache.getWine(10)).get().extracting(WineResponse::getName).isEqualTo("Wine 10");
+        assertThat(cache.getWine(12)).get().extracting(WineResponse::getName).isEqualTo("Wine 12");
+        assertThat(cache.getWine(99)).isEmpty();
+
+        verify(wineRepository, never()).getRepositoryItem("10", WINE_REPOSITORY_ITEM);
+        verify(wineRepository, times(1)).getAllRepositoryItems(WINE_REPOSITORY_ITEM);
+    }
+
+    @Test
+    void oversizedCatalogServesLookupsByRowUntilTheTtlRunsOut() throws Exception {
+        final RepositoryItem wine = wine(10, 1);
+        when(wineRepository.getRepositoryItem("10", WINE_REPOSITORY_ITEM)).thenReturn(wine);
+        final WineCatalogCache cache = cache(2);
+
+        assertThat(cache.getWines()).hasSize(2);
+        for (int i = 0; i < 5; i++) {
+            assertThat(cache.getWine(10)).map(WineResponse::getId).isEqualTo(Optional.of(10));
+        }
+
+        verify(wineRepository, times(1)).getAllRepositoryItems(WINE_REPOSITORY_ITEM);
+        verify(wineRepository, times(5)).getRepositoryItem("10", WINE_REPOSITORY_ITEM);
+        assertThat(cache.getStats().getWines()).isZero();
+    }
+
+    /**
+     * Holds the first reload in its winery read until {@code release}; later reloads go straight through.
+     */
+    private void blockWineryLoad(final CountDownLatch reloading, final CountDownLatch release) throws Exception {
+        final List<RepositoryItem> wineries = List.of(winery(1));
+        when(wineRepository.getAllRepositoryItems(WINERY_REPOSITORY_ITEM)).thenAnswer(invocation -> {
+            reloading.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return wineries;
+        });
+    }
+
+    private WineCatalogCache cache(final int maxSize) {
+        return new WineCatalogCache(wineRepository, 300, maxSize, new SimpleMeterRegistry());
+    }
+
+    private static RepositoryItem winery(final int id) {
+        final RepositoryItem item = mock(RepositoryItem.class);
+        when(item.getPropertyValue(WineryConstants.PROPERTY_ID)).thenReturn(id);
+        when(item.getPropertyValue(WineryConstants.PROPERTY_NAME)).thenReturn("Winery " + id);
+        when(item.getPropertyValue(WineryConstants.PROPERTY_LOCATION)).thenReturn("Finger Lakes, NY");
+        return item;
+    }
+
+    private static RepositoryItem wine(final int id, final int wineryId) {
+        final RepositoryItem item = mock(RepositoryItem.class);
+        when(item.getPropertyValue(WineConstants.PROPERTY_ID)).thenReturn(id);
+        when(item.getPropertyValue(WineConstants.PROPERTY_WINERY_ID)).thenReturn(wineryId);
+        when(item.getPropertyValue(WineConstants.PROPERTY_NAME)).thenReturn("Wine " + id);
+        when(item.getPropertyValue(WineConstants.PROPERTY_STYLE)).thenReturn("red");
+        return item;
+    }
+}
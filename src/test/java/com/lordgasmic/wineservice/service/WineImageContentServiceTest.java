@@ -0,0 +1,170 @@
+package com.lordgasmic.wineservice.service;
+
+import com.lordgasmic.wineservice.models.WineImageContent;
+import com.lordgasmic.wineservice.models.WineImageRendition;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.MediaType;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class WineImageContentServiceTest {
+    private static final byte[] IMAGE = "0123456789abcdef".getBytes();
+    private static final byte[] THUMBNAIL = "thumb".getBytes();
+    private static final String HASH = ContentHash.sha256("the original upload".getBytes());
+    // spans three of DatabaseImageStore's 256KB chunks
+    private static final byte[] LARGE_IMAGE = new byte[600_000];
+
+    static {
+        for (int i = 0; i < LARGE_IMAGE.length; i++) {
+            LARGE_IMAGE[i] = (byte) (i * 31);
+        }
+    }
+
+    @TempDir
+    Path root;
+
+    private JdbcDataSource h2;
+    private WineImageContentService service;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        h2 = new JdbcDataSource();
+        h2.setURL("jdbc:h2:mem:" + UUID.randomUUID() + ";MODE=MySQL;DB_CLOSE_DELAY=-1");
+        // varbinary stands in for MEDIUMBLOB, as H2's substring() takes binary strings rather than BLOBs
+        execute("create table wine_image_vw (id int primary key, wine_id int, label varchar(255), image varbinary(1000000), mime_type varchar(255),"
+                + " content_hash char(64), ref_count int default 1, storage_key char(64), content_id int)");
+        execute("create table wine_image_thumbnail_vw (id int primary key, image_id int, wine_id int, label varchar(255), thumbnail varbinary(1000000),"
+                + " mime_type varchar(255), storage_key char(64), content_id int)");
+        insert("insert into wine_image_vw (id, wine_id, image, mime_type, content_hash) values (1, 10, ?, 'image/jpeg', '" + HASH + "')", IMAGE);
+        insert("insert into wine_image_vw (id, wine_id, mime_type, content_id) values (2, 20, 'image/jpeg', 1)", null);
+        insert("insert into wine_image_vw (id, wine_id, image, mime_type) values (3, 30, ?, 'image/jpeg')", IMAGE);
+        insert("insert into wine_image_vw (id, wine_id, image, mime_type) values (4, 40, ?, 'image/jpeg')", LARGE_IMAGE);
+        insert("insert into wine_image_thumbnail_vw (id, image_id, wine_id, thumbnail, mime_type) values (1, 1, 10, ?, 'image/jpeg')", THUMBNAIL);
+        insert("insert into wine_image_thumbnail_vw (id, image_id, wine_id, mime_type, content_id) values (2, 2, 20, 'image/jpeg', 1)", null);
+
+        final WineTastingDataSource dataSource = new WineTastingDataSource(h2);
+        final ImageProcessor imageProcessor = new ImageProcessor(200, 50, "jpeg", 0.85f, true, new SimpleMeterRegistry());
+        service = new WineImageContentService(dataSource, new DatabaseImageStore(dataSource), new FileSystemImageStore(root.toString()), imageProcessor);
+    }
+
+    @Test
+    void etagIsTheStoredUploadHash() throws Exception {
+        final WineImageContent content = service.getContent(1, WineImageRendition.IMAGE).orElseThrow();
+
+        assertThat(content.getHash()).isEqualTo(HASH + "-image");
+        assertThat(content.getLength()).isEqualTo(IMAGE.length);
+    }
+
+    @Test
+    void thumbnailEtagComesFromItsImage() throws Exception {
+        assertThat(service.getContent(1, WineImageRendition.THUMBNAIL).orElseThrow().getHash()).isEqualTo(HASH + "-thumbnail");
+    }
+
+    @Test
+    void referenceServesTheHoldersContent() throws Exception {
+        final WineImageContent image = service.getContent(2, WineImageRendition.IMAGE).orElseThrow();
+        final WineImageContent thumbnail = service.getContent(2, WineImageRendition.THUMBNAIL).orElseThrow();
+
+        assertThat(image.getId()).isEqualTo(1);
+        assertThat(image.getHash()).isEqualTo(HASH + "-image");
+        assertThat(write(image, 0, IMAGE.length - 1)).isEqualTo(IMAGE);
+        assertThat(write(thumbnail, 0, THUMBNAIL.length - 1)).isEqualTo(THUMBNAIL);
+    }
+
+    @Test
+    void rowWithoutHashFallsBackToIdAndLength() throws Exception {
+        assertThat(service.getContent(3, WineImageRendition.IMAGE).orElseThrow().getHash()).isEqualTo("image-3-" + IMAGE.length);
+    }
+
+    @Test
+    void rangeIsCopiedFromTheMiddleOfTheBlob() throws Exception {
+        final WineImageContent content = service.getContent(1, WineImageRendition.IMAGE).orElseThrow();
+
+        assertThat(write(content, 3, 6)).isEqualTo(Arrays.copyOfRange(IMAGE, 3, 7));
+        assertThat(write(content, 10, IMAGE.length - 1)).isEqualTo(Arrays.copyOfRange(IMAGE, 10, IMAGE.length));
+    }
+
+    @Test
+    void rangeAcrossChunksIsCopiedInOrder() throws Exception {
+        final WineImageContent content = service.getContent(4, WineImageRendition.IMAGE).orElseThrow();
+
+        assertThat(write(content, 0, LARGE_IMAGE.length - 1)).isEqualTo(LARGE_IMAGE);
+        assertThat(write(content, 100, 524_388)).isEqualTo(Arrays.copyOfRange(LARGE_IMAGE, 100, 524_389));
+        assertThat(write(content, 300_000, 300_000)).containsExactly(LARGE_IMAGE[300_000]);
+    }
+
+    @Test
+    void acceptedStoredTypeIsServedAsStored() {
+        assertThat(service.negotiate(MediaType.IMAGE_PNG, List.of())).isEmpty();
+        assertThat(service.negotiate(MediaType.IMAGE_PNG, MediaType.parseMediaTypes("image/webp,image/*;q=0.8"))).isEmpty();
+        assertThat(service.negotiate(MediaType.APPLICATION_OCTET_STREAM, MediaType.parseMediaTypes("image/png"))).isEmpty();
+    }
+
+    @Test
+    void unacceptableStoredTypeIsTranscodedToTheBestAcceptedOne() {
+        final MediaType webp = MediaType.parseMediaType("image/webp");
+
+        assertThat(service.negotiate(webp, MediaType.parseMediaTypes("image/png,image/jpeg;q=0.5"))).contains(MediaType.IMAGE_PNG);
+        assertThat(service.negotiate(webp, MediaType.parseMediaTypes("image/webp;q=0,image/*"))).contains(MediaType.IMAGE_JPEG);
+        assertThat(service.negotiate(webp, MediaType.parseMediaTypes("image/gif"))).isEmpty();
+    }
+
+    @Test
+    void transcodeReencodesTheWholeRendition() throws Exception {
+        final ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(40, 30, BufferedImage.TYPE_INT_RGB), "png", png);
+        insert("insert into wine_image_vw (id, wine_id, image, mime_type) values (5, 50, ?, 'image/png')", png.toByteArray());
+        final WineImageContent content = service.getContent(5, WineImageRendition.IMAGE).orElseThrow();
+
+        final byte[] jpeg = service.transcode(content, MediaType.IMAGE_JPEG);
+
+        // JPEG start-of-image marker
+        assertThat(Arrays.copyOf(jpeg, 2)).containsExactly(0xff, 0xd8);
+        assertThat(ImageIO.read(new ByteArrayInputStream(jpeg)).getHeight()).isEqualTo(30);
+    }
+
+    @Test
+    void missingRowHasNoContent() throws Exception {
+        assertThat(service.getContent(99, WineImageRendition.IMAGE)).isEmpty();
+    }
+
+    private byte[] write(final WineImageContent content, final long start, final long end) throws SQLException, IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        service.writeContent(content, start, end, out);
+        return out.toByteArray();
+    }
+
+    private void insert(final String sql, final byte[] blob) throws SQLException {
+        try (final Connection connection = h2.getConnection(); final PreparedStatement statement = connection.prepareStatement(sql)) {
+            if (blob != null) {
+                statement.setBytes(1, blob);
+            }
+            statement.executeUpdate();
+        }
+    }
+
+    private void execute(final String sql) throws SQLException {
+        try (final Connection connection = h2.getConnection(); final Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+        }
+    }
+}
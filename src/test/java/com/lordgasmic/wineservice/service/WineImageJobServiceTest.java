@@ -0,0 +1,220 @@
+package com.lordgasmic.wineservice.service;
+
+import com.lordgasmic.collections.repository.RepositoryItem;
+import com.lordgasmic.wineservice.config.WineImageConstants;
+import com.lordgasmic.wineservice.models.WineImageJobMessage;
+import com.lordgasmic.wineservice.models.WineImageJobStatus;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.core.AmqpTemplate;
+import org.springframework.core.io.InputStreamSource;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.UUID;
+
+import static com.lordgasmic.wineservice.config.WineImageJobConstants.PROPERTY_LABEL;
+import static com.lordgasmic.wineservice.config.WineImageJobConstants.PROPERTY_ORIGINAL;
+import static com.lordgasmic.wineservice.config.WineImageJobConstants.PROPERTY_WINE_ID;
+import static com.lordgasmic.wineservice.config.WineImageJobConstants.WINE_IMAGE_JOB_ITEM_DESCRIPTOR_NAME;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Runs the submit, queue and process path in-process: the AmqpTemplate parks messages on a local queue and
+ * {@link #deliver()} hands them to the real {@link RabbitMQListener}, the way a broker would after the publish.
+ */
+class WineImageJobServiceTest {
+    private static final int CLAIM_TIMEOUT_SECONDS = 600;
+    private static final int IMAGE_ID = 42;
+
+    private final Deque<WineImageJobMessage> queue = new ArrayDeque<>();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private JdbcDataSource h2;
+    private WineImageService wineImageService;
+    private WineImageJobService service;
+    private RabbitMQListener listener;
+
+    @BeforeEach
+    void setUp() throws SQLException, IOException {
+        h2 = new JdbcDataSource();
+        h2.setURL("jdbc:h2:mem:" + UUID.randomUUID() + ";MODE=MySQL;DB_CLOSE_DELAY=-1");
+        try (final Connection connection = h2.getConnection(); final Statement statement = connection.createStatement()) {
+            statement.execute("create table wine_image_job_vw (id int auto_increment primary key, wine_id int, label varchar(255), "
+                              + "original blob, mime_type varchar(255), keep_original tinyint not null default 0, status varchar(32), "
+                              + "image_id int, error varchar(1024), claimed_at timestamp null)");
+        }
+
+        final AmqpTemplate amqpTemplate = mock(AmqpTemplate.class);
+        doAnswer(invocation -> queue.add(invocation.getArgument(2))).when(amqpTemplate).convertAndSend(anyString(), anyString(), any(Object.class));
+        final RabbitMQSender sender = new RabbitMQSender();
+        ReflectionTestUtils.setField(sender, "rabbitTemplate", amqpTemplate);
+        ReflectionTestUtils.setField(sender, "exchange", "test.exchange");
+        ReflectionTestUtils.setField(sender, "imageJobRoutingKey", "test.imageJobKey");
+
+        final TimedRepository wineRepository = mock(TimedRepository.class);
+        when(wineRepository.getRepositoryItem(anyString(), eq(WINE_IMAGE_JOB_ITEM_DESCRIPTOR_NAME))).thenAnswer(invocation -> loadJob(invocation.getArgument(0)));
+
+        final RepositoryItem image = mock(RepositoryItem.class);
+        when(image.getPropertyValue(WineImageConstants.PROPERTY_ID)).thenReturn(IMAGE_ID);
+        wineImageService = mock(WineImageService.class);
+        when(wineImageService.addRenditions(anyInt(), anyString(), any(InputStreamSource.class), eq(true))).thenReturn(image);
+
+        service = new WineImageJobService(wineRepository,
+                                          new WineTastingDataSource(h2),
+                                          wineImageService,
+                                          sender,
+                                          new ImageUploadValidator(new String[] {"png"}, 1_000_000),
+                                          meterRegistry,
+                                          CLAIM_TIMEOUT_SECONDS);
+        listener = new RabbitMQListener();
+        ReflectionTestUtils.setField(listener, "wineImageJobService", service);
+    }
+
+    @Test
+    void submittedJobIsQueuedAndRenderedByTheListener() throws Exception {
+        final int jobId = service.submit(7, "front", png(), false).getJobId();
+
+        assertThat(status(jobId)).isEqualTo(WineImageJobStatus.PENDING);
+        assertThat(queue).extracting(WineImageJobMessage::getJobId).containsExactly(jobId);
+
+        deliver();
+
+        assertThat(status(jobId)).isEqualTo(WineImageJobStatus.DONE);
+        assertThat(service.getJob(jobId)).get().extracting("imageId").isEqualTo(IMAGE_ID);
+        assertThat(original(jobId)).isNull();
+        verify(wineImageService).addRenditions(eq(7), eq("front"), any(InputStreamSource.class), eq(true));
+    }
+
+    @Test
+    void redeliveryOfAFinishedJobIsSkipped() throws Exception {
+        final int jobId = service.submit(7, "front", png(), true).getJobId();
+        deliver();
+        listener.recievedImageJob(new WineImageJobMessage(jobId));
+
+        verify(wineImageService, times(1)).addRenditions(anyInt(), anyString(), any(InputStreamSource.class), eq(true));
+        assertThat(original(jobId)).isNotNull();
+        assertThat(meterRegistry.timer("wine.image.job", "outcome", "skipped").count()).isEqualTo(1);
+    }
+
+    @Test
+    void liveClaimIsNotTakenOver() throws Exception {
+        final int jobId = service.submit(7, "front", png(), false).getJobId();
+        setProcessing(jobId, 0);
+
+        deliver();
+
+        assertThat(status(jobId)).isEqualTo(WineImageJobStatus.PROCESSING);
+        verify(wineImageService, times(0)).addRenditions(anyInt(), anyString(), any(InputStreamSource.class), eq(true));
+    }
+
+    @Test
+    void staleClaimIsTakenOver() throws Exception {
+        final int jobId = service.submit(7, "front", png(), false).getJobId();
+        setProcessing(jobId, CLAIM_TIMEOUT_SECONDS * 2);
+
+        deliver();
+
+        assertThat(status(jobId)).isEqualTo(WineImageJobStatus.DONE);
+    }
+
+    @Test
+    void reaperRequeuesOnlyStaleJobs() throws Exception {
+        final int stale = service.submit(7, "front", png(), false).getJobId();
+        final int live = service.submit(8, "back", png(), false).getJobId();
+        queue.clear();
+        setProcessing(stale, CLAIM_TIMEOUT_SECONDS * 2);
+        setProcessing(live, 0);
+
+        service.requeueStale();
+
+        assertThat(status(stale)).isEqualTo(WineImageJobStatus.PENDING);
+        assertThat(queue).extracting(WineImageJobMessage::getJobId).containsExactly(stale);
+
+        deliver();
+
+        assertThat(status(stale)).isEqualTo(WineImageJobStatus.DONE);
+        assertThat(status(live)).isEqualTo(WineImageJobStatus.PROCESSING);
+    }
+
+    @Test
+    void failedRenderMarksTheJobFailed() throws Exception {
+        when(wineImageService.addRenditions(anyInt(), anyString(), any(InputStreamSource.class), eq(true))).thenThrow(new IOException("corrupt"));
+        final int jobId = service.submit(7, "front", png(), false).getJobId();
+
+        deliver();
+
+        assertThat(status(jobId)).isEqualTo(WineImageJobStatus.FAILED);
+        assertThat(service.getJob(jobId)).get().extracting("error").isEqualTo("corrupt");
+    }
+
+    private void deliver() {
+        while (!queue.isEmpty()) {
+            listener.recievedImageJob(queue.poll());
+        }
+    }
+
+    private RepositoryItem loadJob(final String id) throws SQLException {
+        try (final Connection connection = h2.getConnection();
+             final PreparedStatement statement = connection.prepareStatement("select wine_id, label, original from wine_image_job_vw where id = ?")) {
+            statement.setInt(1, Integer.parseInt(id));
+            try (final ResultSet rs = statement.executeQuery()) {
+                rs.next();
+                final RepositoryItem job = mock(RepositoryItem.class);
+                when(job.getPropertyValue(PROPERTY_WINE_ID)).thenReturn(rs.getInt("wine_id"));
+                when(job.getPropertyValue(PROPERTY_LABEL)).thenReturn(rs.getString("label"));
+                when(job.getPropertyValue(PROPERTY_ORIGINAL)).thenReturn(rs.getBytes("original"));
+                return job;
+            }
+        }
+    }
+
+    private WineImageJobStatus status(final int jobId) throws SQLException {
+        return service.getJob(jobId).orElseThrow().getStatus();
+    }
+
+    private byte[] original(final int jobId) throws SQLException {
+        return new WineTastingDataSource(h2).query("select original from wine_image_job_vw where id = ?", List.of(jobId), rs -> rs.getBytes("original"))
+                                            .get(0);
+    }
+
+    private void setProcessing(final int jobId, final int claimedSecondsAgo) throws SQLException {
+        try (final Connection connection = h2.getConnection();
+             final PreparedStatement statement = connection.prepareStatement(
+                     "update wine_image_job_vw set status = ?, claimed_at = timestampadd(second, ?, current_timestamp) where id = ?")) {
+            statement.setString(1, WineImageJobStatus.PROCESSING.name());
+            statement.setInt(2, -claimedSecondsAgo);
+            statement.setInt(3, jobId);
+            statement.executeUpdate();
+        }
+    }
+
+    private static MockMultipartFile png() throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(4, 4, BufferedImage.TYPE_INT_RGB), "png", out);
+        return new MockMultipartFile("imageFile", "label.png", "image/png", out.toByteArray());
+    }
+}
@@ -0,0 +1,114 @@
+package com.lordgasmic.wineservice.service;
+
+import com.lordgasmic.collections.repository.RepositoryItem;
+import com.lordgasmic.wineservice.models.EncodedImage;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ByteArrayResource;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.UUID;
+
+import static com.lordgasmic.wineservice.config.WineImageConstants.WINE_IMAGE_ITEM_DESCRIPTOR_NAME;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class WineImageServiceTest {
+    private static final ByteArrayResource UPLOAD = new ByteArrayResource("the original upload".getBytes());
+    private static final EncodedImage IMAGE = new EncodedImage("image".getBytes(), "image/jpeg");
+    private static final EncodedImage THUMBNAIL = new EncodedImage("thumb".getBytes(), "image/jpeg");
+
+    private JdbcDataSource h2;
+    private ImageProcessingExecutor imageProcessingExecutor;
+    private WineImageService service;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        h2 = new JdbcDataSource();
+        h2.setURL("jdbc:h2:mem:" + UUID.randomUUID() + ";MODE=MySQL;DB_CLOSE_DELAY=-1");
+        execute("create table wine_image_vw (id int auto_increment primary key, wine_id int, label varchar(255), image blob, mime_type varchar(255),"
+                + " content_hash char(64) unique, ref_count int default 1, storage_key char(64), content_id int)");
+        execute("create table wine_image_thumbnail_vw (id int auto_increment primary key, image_id int, wine_id int, label varchar(255), thumbnail blob,"
+                + " mime_type varchar(255) check (mime_type <> 'image/broken'), storage_key char(64), content_id int)");
+
+        final TimedRepository wineRepository = mock(TimedRepository.class);
+        final RepositoryItem item = mock(RepositoryItem.class);
+        when(wineRepository.getRepositoryItem(anyString(), eq(WINE_IMAGE_ITEM_DESCRIPTOR_NAME))).thenReturn(item);
+        final ImageProcessor imageProcessor = mock(ImageProcessor.class);
+        when(imageProcessor.getDisplayHeight()).thenReturn(200);
+        when(imageProcessor.getThumbnailHeight()).thenReturn(50);
+        imageProcessingExecutor = mock(ImageProcessingExecutor.class);
+        when(imageProcessingExecutor.resize(any(), eq(200), eq(50))).thenReturn(List.of(IMAGE, THUMBNAIL));
+
+        final WineTastingDataSource dataSource = new WineTastingDataSource(h2);
+        service = new WineImageService(wineRepository, dataSource, imageProcessor, imageProcessingExecutor, new DatabaseImageStore(dataSource),
+                                       mock(FileSystemImageStore.class), mock(ImageUploadValidator.class), new DescriptorVersions());
+    }
+
+    @Test
+    void newUploadAddsTheHolderAndItsThumbnail() throws Exception {
+        service.addRenditions(10, "front", UPLOAD, false);
+
+        assertThat(count("select count(*) from wine_image_vw where wine_id = 10 and content_hash is not null")).isEqualTo(1);
+        assertThat(count("select count(*) from wine_image_thumbnail_vw t join wine_image_vw i on i.id = t.image_id where t.wine_id = 10")).isEqualTo(1);
+    }
+
+    @Test
+    void sameUploadForAnotherWineReferencesBothRenditions() throws Exception {
+        service.addRenditions(10, "front", UPLOAD, false);
+        service.addRenditions(20, "front", UPLOAD, false);
+
+        assertThat(count("select count(*) from wine_image_vw where wine_id = 20 and content_id is not null")).isEqualTo(1);
+        assertThat(count("select count(*) from wine_image_thumbnail_vw where wine_id = 20 and content_id is not null")).isEqualTo(1);
+        assertThat(count("select ref_count from wine_image_vw where wine_id = 10")).isEqualTo(2);
+    }
+
+    @Test
+    void failedThumbnailInsertLeavesNoHolder() throws Exception {
+        when(imageProcessingExecutor.resize(any(), eq(200), eq(50))).thenReturn(List.of(IMAGE, new EncodedImage("thumb".getBytes(), "image/broken")));
+
+        assertThatThrownBy(() -> service.addRenditions(10, "front", UPLOAD, false)).isInstanceOf(SQLException.class);
+
+        assertThat(count("select count(*) from wine_image_vw")).isZero();
+        assertThat(count("select count(*) from wine_image_thumbnail_vw")).isZero();
+    }
+
+    @Test
+    void holderWithoutThumbnailIsNotReferenced() throws Exception {
+        try (final Connection connection = h2.getConnection();
+             final PreparedStatement insert = connection.prepareStatement("insert into wine_image_vw (wine_id, image, mime_type, content_hash) values (10, ?, 'image/jpeg', ?)")) {
+            insert.setBytes(1, IMAGE.getBytes());
+            insert.setString(2, ContentHash.sha256(UPLOAD.getByteArray()));
+            insert.executeUpdate();
+        }
+
+        assertThatThrownBy(() -> service.addRenditions(20, "front", UPLOAD, false)).isInstanceOf(SQLException.class).hasMessageContaining("no thumbnail");
+
+        assertThat(count("select count(*) from wine_image_vw where wine_id = 20")).isZero();
+        assertThat(count("select ref_count from wine_image_vw where wine_id = 10")).isEqualTo(1);
+    }
+
+    private int count(final String sql) throws SQLException {
+        try (final Connection connection = h2.getConnection(); final Statement statement = connection.createStatement(); final ResultSet rs = statement.executeQuery(sql)) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+
+    private void execute(final String sql) throws SQLException {
+        try (final Connection connection = h2.getConnection(); final Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.lordgasmic.wineservice.service;
+
+import com.lordgasmic.wineservice.models.WineNoteOutput;
+import com.lordgasmic.wineservice.models.WineNoteRequest;
+import com.lordgasmic.wineservice.models.WineNoteResponse;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class WineNotesServiceTest {
+    private JdbcDataSource h2;
+    private WineNotesService service;
+    // how many times a competing first save commits just before one of ours inserts
+    private final AtomicInteger races = new AtomicInteger();
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        h2 = new JdbcDataSource();
+        h2.setURL("jdbc:h2:mem:" + UUID.randomUUID() + ";MODE=MySQL;DATABASE_TO_LOWER=TRUE;NON_KEYWORDS=USER;DB_CLOSE_DELAY=-1");
+        execute("create table wine_notes_vw (id int auto_increment primary key, wine_id int, user varchar(255), note varchar(255), ordinal int,"
+                + " date varchar(255), unique (wine_id, ordinal))");
+
+        service = new WineNotesService(new WineTastingDataSource(racing()), new WineQueryCompiler(new RatingScale(new String[] {"check:3"})),
+                                       new DescriptorVersions());
+    }
+
+    @Test
+    void firstSaveThatLosesTheRaceIsRetried() throws SQLException {
+        races.set(1);
+
+        final WineNoteResponse response = service.addWineNotes(request("jammy"));
+
+        assertThat(races).hasValue(0);
+        assertThat(response.getWineNotes()).extracting(WineNoteOutput::getNote).containsExactly("tannic", "jammy");
+        assertThat(response.getWineNotes()).extracting(WineNoteOutput::getOrdinal).containsExactly(0, 1);
+    }
+
+    @Test
+    void saveIsRetriedOnlyOnce() {
+        races.set(2);
+
+        assertThatThrownBy(() -> service.addWineNotes(request("jammy"))).isInstanceOf(SQLException.class);
+        assertThat(races).hasValue(0);
+    }
+
+    private static WineNoteRequest request(final String note) {
+        final WineNoteRequest request = new WineNoteRequest();
+        request.setWineId(1);
+        request.setUser("amy");
+        request.setDate("2026-01-01");
+        request.setWineNotes(List.of(note));
+        return request;
+    }
+
+    /**
+     * Commits another user's note on another connection right before our insert batch runs, after our locking read
+     * found no rows, as a concurrent first save sharing the gap lock would on MariaDB.
+     */
+    private DataSource racing() {
+        return proxy(DataSource.class, (method, args) -> {
+            final Object result = invoke(method, h2, args);
+            return "getConnection".equals(method.getName()) ? racing((Connection) result) : result;
+        });
+    }
+
+    private Connection racing(final Connection connection) {
+        return proxy(Connection.class, (method, args) -> {
+            final Object result = invoke(method, connection, args);
+            if ("prepareStatement".equals(method.getName()) && ((String) args[0]).startsWith("insert into wine_notes_vw")) {
+                return racing((PreparedStatement) result);
+            }
+            return result;
+        });
+    }
+
+    private PreparedStatement racing(final PreparedStatement statement) {
+        return proxy(PreparedStatement.class, (method, args) -> {
+            if ("executeBatch".equals(method.getName()) && races.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+                execute("insert into wine_notes_vw (wine_id, user, note, ordinal, date)"
+                        + " values (1, 'bob', 'tannic', (select count(*) from wine_notes_vw where wine_id = 1), '2026-01-01')");
+            }
+            return invoke(method, statement, args);
+        });
+    }
+
+    private <T> T proxy(final Class<T> type, final Handler handler) {
+        return type.cast(Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {type}, (proxy, method, args) -> handler.handle(method, args)));
+    }
+
+    private static Object invoke(final Method method, final Object target, final Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (final InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private void execute(final String sql) throws SQLException {
+        try (final Connection connection = h2.getConnection(); final Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+        }
+    }
+
+    private interface Handler {
+        Object handle(Method method, Object[] args) throws Throwable;
+    }
+}
@@ -0,0 +1,197 @@
+package com.lordgasmic.wineservice.service;
+
+import com.lordgasmic.wineservice.models.BatchResponse;
+import com.lordgasmic.wineservice.models.PageResponse;
+import com.lordgasmic.wineservice.models.RatingSummary;
+import com.lordgasmic.wineservice.models.WineQuery;
+import com.lordgasmic.wineservice.models.WineRatingEditRequest;
+import com.lordgasmic.wineservice.models.WineRatingRequest;
+import com.lordgasmic.wineservice.models.WineRatingResponse;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class WineRatingServiceTest {
+    private static final String[] SCALE = {"minus:1", "check:3", "check plus:4"};
+
+    private JdbcDataSource h2;
+    private WineTastingDataSource dataSource;
+    private WineRatingAggregates aggregates;
+    private WineRatingService service;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        h2 = new JdbcDataSource();
+        h2.setURL("jdbc:h2:mem:" + UUID.randomUUID() + ";MODE=MySQL;DATABASE_TO_LOWER=TRUE;NON_KEYWORDS=USER;DB_CLOSE_DELAY=-1");
+        execute("create table wine_rating_vw (id int auto_increment primary key, wine_id int, user varchar(255), date varchar(255),"
+                + " rating varchar(255), unique (wine_id, user, date))");
+        execute("create table wine_rating_summary_vw (wine_id int, rating varchar(255), rating_count bigint, primary key (wine_id, rating))");
+        execute("create table user_rating_summary_vw (user varchar(255), rating varchar(255), rating_count bigint, primary key (user, rating))");
+
+        dataSource = new WineTastingDataSource(h2);
+        final RatingScale scale = new RatingScale(SCALE);
+        aggregates = new WineRatingAggregates(dataSource, scale, 60);
+        service = new WineRatingService(dataSource, aggregates, new WineQueryCompiler(scale), new DescriptorVersions());
+    }
+
+    @Test
+    void ratingAndSummaryAreWrittenTogether() throws SQLException {
+        service.addWineRating(request(1, "amy", "2026-01-01", "Check  Plus"));
+        service.addWineRating(request(1, "bob", "2026-01-01", "check"));
+
+        assertThat(ratingCount()).isEqualTo(2);
+        assertThat(summaryCount(1, "check plus")).isEqualTo(1);
+        final RatingSummary summary = aggregates.getWineSummary(1).orElseThrow();
+        assertThat(summary.getCount()).isEqualTo(2);
+        assertThat(summary.getMean()).isEqualTo(3.5);
+    }
+
+    @Test
+    void failedSummaryWriteRollsBackTheRating() throws SQLException {
+        execute("drop table user_rating_summary_vw");
+
+        assertThatThrownBy(() -> service.addWineRating(request(1, "amy", "2026-01-01", "check"))).isInstanceOf(SQLException.class);
+
+        assertThat(ratingCount()).isZero();
+        assertThat(summaryCount(1, "check")).isZero();
+    }
+
+    @Test
+    void batchCommitsRatingsAndSummariesTogether() throws SQLException {
+        assertThat(aggregates.getWineSummary(1)).isEmpty();
+
+        final BatchResponse<WineRatingResponse> response = service.addWineRatings(List.of(request(1, "amy", "2026-01-01", "check"),
+                                                                                           request(1, "bob", "2026-01-01", "check plus")));
+
+        assertThat(response.isCommitted()).isTrue();
+        assertThat(summaryCount(1, "check")).isEqualTo(1);
+        assertThat(summaryCount(1, "check plus")).isEqualTo(1);
+        assertThat(aggregates.getWineSummary(1).orElseThrow().getCount()).isEqualTo(2);
+        assertThat(aggregates.getTopWines(10, 1)).extracting(RatingSummary::getWineId).containsExactly(1);
+    }
+
+    @Test
+    void failedBatchSummaryWriteRollsBackTheBatch() throws SQLException {
+        execute("drop table wine_rating_summary_vw");
+
+        assertThatThrownBy(() -> service.addWineRatings(List.of(request(1, "amy", "2026-01-01", "check")))).isInstanceOf(SQLException.class);
+
+        assertThat(ratingCount()).isZero();
+    }
+
+    @Test
+    void editMovesTheSummaryCount() throws SQLException {
+        final WineRatingResponse added = service.addWineRating(request(1, "amy", "2026-01-01", "check"));
+        final WineRatingEditRequest edit = new WineRatingEditRequest();
+        edit.setId(Integer.toString(added.getId()));
+        edit.setRating("minus");
+
+        assertThat(service.editWineRating(edit).getRating()).isEqualTo("minus");
+        assertThat(summaryCount(1, "check")).isZero();
+        assertThat(summaryCount(1, "minus")).isEqualTo(1);
+        assertThat(aggregates.getUserSummary("amy").orElseThrow().getMean()).isEqualTo(1.0);
+    }
+
+    @Test
+    void summariesWrittenElsewhereAreSeen() throws SQLException {
+        assertThat(aggregates.getTopWines(10, 1)).isEmpty();
+        execute("insert into wine_rating_summary_vw values (2, 'check', 3)");
+        execute("insert into user_rating_summary_vw values ('amy', 'check', 3)");
+
+        assertThat(aggregates.getWineSummary(2).orElseThrow().getCount()).isEqualTo(3);
+        assertThat(aggregates.getUserSummary("amy").orElseThrow().getCount()).isEqualTo(3);
+        // the ranking waits for its refresh
+        assertThat(aggregates.getTopWines(10, 1)).isEmpty();
+
+        final WineRatingAggregates refreshing = new WineRatingAggregates(dataSource, new RatingScale(SCALE), 0);
+        assertThat(refreshing.getTopWines(10, 1)).extracting(RatingSummary::getWineId).containsExactly(2);
+        execute("insert into wine_rating_summary_vw values (3, 'check plus', 3)");
+        assertThat(refreshing.getTopWines(10, 1)).extracting(RatingSummary::getWineId).containsExactly(3, 2);
+    }
+
+    @Test
+    void editOfAMissingRatingReturnsNull() throws SQLException {
+        final WineRatingEditRequest edit = new WineRatingEditRequest();
+        edit.setId("99");
+        edit.setRating("minus");
+
+        assertThat(service.editWineRating(edit)).isNull();
+    }
+
+    @Test
+    void searchPagesThroughEveryMatchInSortOrder() throws SQLException {
+        for (final int wineId : new int[] {3, 1, 2, 1, 3}) {
+            service.addWineRating(request(wineId, "amy" + ratingCount(), "2026-01-01", "check"));
+        }
+        final WineQuery query = new WineQuery();
+        query.setSort("wineId");
+        query.setOrder("desc");
+        query.setLimit(2);
+
+        final List<Integer> wineIds = new ArrayList<>();
+        final List<Integer> pageSizes = new ArrayList<>();
+        PageResponse<WineRatingResponse> page;
+        do {
+            page = service.searchWineRatings(query);
+            page.getItems().forEach(rating -> wineIds.add(rating.getWineId()));
+            pageSizes.add(page.getItems().size());
+            query.setAfter(page.getNext());
+        } while (page.getNext() != null);
+
+        assertThat(wineIds).containsExactly(3, 3, 2, 1, 1);
+        assertThat(pageSizes).containsExactly(2, 2, 1);
+    }
+
+    @Test
+    void searchWithoutALimitGetsTheDefaultPage() throws SQLException {
+        for (int i = 0; i < WineTastingDataSource.DEFAULT_PAGE_SIZE + 1; i++) {
+            service.addWineRating(request(1, "amy" + i, "2026-01-01", "check"));
+        }
+
+        final PageResponse<WineRatingResponse> page = service.searchWineRatings(new WineQuery());
+
+        assertThat(page.getItems()).hasSize(WineTastingDataSource.DEFAULT_PAGE_SIZE);
+        assertThat(page.getNext()).isEqualTo(page.getItems().get(WineTastingDataSource.DEFAULT_PAGE_SIZE - 1).getId());
+        assertThat(service.getWineRatingByWineId(1)).hasSize(WineTastingDataSource.DEFAULT_PAGE_SIZE + 1);
+    }
+
+    @Test
+    void normalizeCollapsesWhitespaceLikeTheSummaryBackfill() {
+        assertThat(RatingScale.normalize("  Check \t  PLUS ")).isEqualTo("check plus");
+        assertThat(RatingScale.normalize(null)).isEmpty();
+    }
+
+    private static WineRatingRequest request(final int wineId, final String user, final String date, final String rating) {
+        final WineRatingRequest request = new WineRatingRequest();
+        request.setWineId(wineId);
+        request.setUser(user);
+        request.setDate(date);
+        request.setRating(rating);
+        return request;
+    }
+
+    private int ratingCount() throws SQLException {
+        return dataSource.query("select count(*) from wine_rating_vw", List.of(), rs -> rs.getInt(1)).get(0);
+    }
+
+    private long summaryCount(final int wineId, final String rating) throws SQLException {
+        return dataSource.query("select rating_count from wine_rating_summary_vw where wine_id = ? and rating = ?", List.of(wineId, rating), rs -> rs.getLong(1))
+                         .stream().findFirst().orElse(0L);
+    }
+
+    private void execute(final String sql) throws SQLException {
+        try (final Connection connection = h2.getConnection(); final Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+        }
+    }
+}
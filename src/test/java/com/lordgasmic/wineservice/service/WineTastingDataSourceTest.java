@@ -0,0 +1,75 @@
+package com.lordgasmic.wineservice.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class WineTastingDataSourceTest {
+    private static final String SELECT_WINES = "select id, name from wine_vw";
+    private static final String INSERT_WINE = "insert into wine_vw (name) values (?)";
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private JdbcDataSource h2;
+    private WineTastingDataSource dataSource;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        h2 = new JdbcDataSource();
+        h2.setURL("jdbc:h2:mem:" + UUID.randomUUID() + ";MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1");
+        try (final Connection connection = h2.getConnection(); final Statement statement = connection.createStatement()) {
+            statement.execute("create table wine_vw (id int auto_increment primary key, name varchar(255))");
+        }
+        dataSource = new WineTastingDataSource(h2, meterRegistry);
+    }
+
+    @Test
+    void everyOperationIsTimedByView() throws Exception {
+        try (final Connection connection = dataSource.getConnection(); final PreparedStatement insert = connection.prepareStatement(INSERT_WINE)) {
+            for (int i = 0; i < 3; i++) {
+                insert.setString(1, "Wine " + i);
+                insert.addBatch();
+            }
+            dataSource.executeBatch(INSERT_WINE, insert);
+        }
+        dataSource.query(SELECT_WINES + " where id = ?", List.of(1), rs -> rs.getString("name"));
+        dataSource.page(SELECT_WINES, 0, 2, rs -> rs.getInt("id"), Integer::intValue);
+        final List<Integer> streamed = new ArrayList<>();
+        dataSource.stream(SELECT_WINES, 0, rs -> rs.getInt("id"), streamed::add);
+
+        assertThat(streamed).containsExactly(1, 2, 3);
+        for (final String operation : List.of("batch", "query", "page", "stream")) {
+            assertThat(meterRegistry.timer("wine.jdbc", "view", "wine_vw", "operation", operation, "outcome", "success").count())
+                    .as(operation)
+                    .isEqualTo(1);
+        }
+    }
+
+    @Test
+    void failedQueryIsTimedAsAnError() {
+        assertThatThrownBy(() -> dataSource.query("select id from missing_vw", List.of(), rs -> rs.getInt("id"))).isInstanceOf(SQLException.class);
+
+        assertThat(meterRegistry.timer("wine.jdbc", "view", "missing_vw", "operation", "query", "outcome", "error").count()).isEqualTo(1);
+    }
+
+    @Test
+    void viewIsTheFirstTableTheStatementNames() {
+        assertThat(WineTastingDataSource.view("select r.id from wine_image_vw r left join wine_image_vw c on c.id = r.content_id")).isEqualTo("wine_image_vw");
+        assertThat(WineTastingDataSource.view("INSERT INTO wine_rating_summary_vw (wine_id) values (?) on duplicate key update rating_count = 1"))
+                .isEqualTo("wine_rating_summary_vw");
+        assertThat(WineTastingDataSource.view("update wine_notes_vw set note = ? where id = ?")).isEqualTo("wine_notes_vw");
+        assertThat(WineTastingDataSource.view("select 1")).isEqualTo("unknown");
+    }
+}